@@ -12,6 +12,8 @@ import routing.MessageRouter;
 public class CBRConnection extends Connection {
 	private int speed;
 	private double transferDoneTime;
+	/** bytes left of the current transfer when it was paused */
+	private double pausedBytesLeft;
 
 	/**
 	 * Creates a new connection between nodes and sets the connection
@@ -55,7 +57,7 @@ public class CBRConnection extends Connection {
 		if (retVal == MessageRouter.RCV_OK) {
 			this.msgOnFly = newMessage;
 			this.transferDoneTime = SimClock.getTime() + 
-			(1.0*m.getSize()) / this.speed;
+			(1.0*m.getSize()) / (this.speed * this.speedShare);
 		}
 
 		return retVal;
@@ -72,6 +74,27 @@ public class CBRConnection extends Connection {
 		this.transferDoneTime = 0;
 	}
 
+	/**
+	 * Sets the share of the connection's speed the current transfer gets.
+	 * The rest of the transfer is continued at the new speed.
+	 * @param share The share (0-1); with 0 the transfer is paused
+	 */
+	@Override
+	public void setSpeedShare(double share) {
+		if (msgOnFly != null && share != this.speedShare) {
+			double bytesLeft = getBytesLeft();
+			if (share > 0) {
+				this.transferDoneTime = SimClock.getTime() + 
+					bytesLeft / (this.speed * share);
+			}
+			else {
+				this.transferDoneTime = Double.MAX_VALUE;
+				this.pausedBytesLeft = bytesLeft;
+			}
+		}
+		super.setSpeedShare(share);
+	}
+
 	/**
 	 * Gets the transferdonetime
 	 */
@@ -107,12 +130,24 @@ public class CBRConnection extends Connection {
 			return 0;
 		}
 
-		remaining = (int)((this.transferDoneTime - SimClock.getTime()) 
-				* this.speed);
+		remaining = (int)getBytesLeft();
 
 		return (remaining > 0 ? remaining : 0);
 	}
 
+	/**
+	 * Returns the amount of bytes left of the ongoing transfer (may be
+	 * negative if the transfer is over)
+	 * @return the amount of bytes left
+	 */
+	private double getBytesLeft() {
+		if (this.speedShare == 0) {
+			return this.pausedBytesLeft;
+		}
+		return (this.transferDoneTime - SimClock.getTime()) * 
+			this.speed * this.speedShare;
+	}
+
 	/**
 	 * Returns a String presentation of the connection.
 	 */
@@ -16,6 +16,9 @@ public abstract class Connection {
 	protected Message msgOnFly;
 	/** how many bytes this connection has transferred */
 	protected int bytesTransferred;
+	/** the share (0-1) of the connection's speed the current transfer gets
+	 * (see {@link #setSpeedShare(double)}) */
+	protected double speedShare = 1.0;
 
 	public Connection(DTNHost fromNode, NetworkInterface fromInterface,
 					  DTNHost toNode, NetworkInterface toInterface) {
@@ -57,6 +60,25 @@ public abstract class Connection {
 	protected void clearMsgOnFly() {
 		this.msgOnFly = null;
 		this.msgFromNode = null;
+		this.speedShare = 1.0;
+	}
+
+	/**
+	 * Sets the share of the connection's speed that the current transfer
+	 * gets. Used when the sending host shares its bandwidth between
+	 * concurrent transfers. The share is reset to 1 when the transfer ends.
+	 * @param share The share (0-1); with 0 the transfer is paused
+	 */
+	public void setSpeedShare(double share) {
+		this.speedShare = share;
+	}
+
+	/**
+	 * Returns the share of the connection's speed the current transfer gets
+	 * @return the share of the connection's speed
+	 */
+	public double getSpeedShare() {
+		return this.speedShare;
 	}
 
 	public void finalizeTransfer() {
@@ -34,6 +34,11 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 	private List<MovementListener> movListeners;
 	private List<NetworkInterface> net;
 	private ModuleCommunicationBus comBus;
+	/** is this host left out of the updates until it is woken up */
+	private boolean sleeping;
+	/** movement (meters) left to {@link #finishMove(double)} or -1 if the
+	 * whole move is left */
+	private double pendingMovement;
 
 	static {
 		DTNSim.registerForReset(DTNHost.class.getCanonicalName());
@@ -56,6 +61,7 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 			MovementModel mmProto, MessageRouter mRouterProto) {
 		this.comBus = comBus;
 		this.location = new Coord(0,0);
+		this.pendingMovement = -1;
 		this.address = getNextAddress();
 		this.name = groupId+address;
 		this.net = new ArrayList<NetworkInterface>();
@@ -151,6 +157,7 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 	 * @param con  The connection object whose state changed
 	 */
 	public void connectionUp(Connection con) {
+		wakeUp();
 		this.router.changedConnection(con);
 	}
 
@@ -190,6 +197,24 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 	}
 
 
+	/**
+	 * Returns the waypoint this node is currently moving towards, or the 
+	 * last reached waypoint if the node is waiting. Null if the node hasn't 
+	 * had any waypoints yet.
+	 * @return The current destination
+	 */
+	public Coord getDestination() {
+		return this.destination;
+	}
+
+	/**
+	 * Returns the speed this node is moving towards the current destination
+	 * @return The speed (m/s)
+	 */
+	public double getSpeed() {
+		return this.speed;
+	}
+
 	/**
 	 * Sets the Node's location overriding any location set by movement model
 	 * @param location The location to set
@@ -331,16 +356,54 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 		this.router.update();
 	}
 
+	/**
+	 * Returns true if updating this host would do nothing until the host
+	 * gets a new message or connection, i.e., the connections of all its
+	 * interfaces are handled by contact managers, it has no connections, and
+	 * its router is idle.
+	 * @return True if the host is idle
+	 * @see MessageRouter#isIdle()
+	 */
+	public boolean isIdle() {
+		for (int i=0, n=net.size(); i<n; i++) {
+			NetworkInterface ni = net.get(i);
+			if (!ni.isManaged() || ni.getConnections().size() > 0) {
+				return false;
+			}
+		}
+		return this.router.isIdle();
+	}
+
+	/**
+	 * Returns true if the host has been put to sleep and not woken up since
+	 * @return True if the host is sleeping
+	 */
+	public boolean isSleeping() {
+		return this.sleeping;
+	}
+
+	/**
+	 * Puts the host to sleep; it can be left out of the updates until
+	 * {@link #wakeUp()} is called
+	 */
+	public void sleep() {
+		this.sleeping = true;
+	}
+
+	/**
+	 * Wakes the host up. Called when something (e.g., a new message or
+	 * connection) may give the host work to do in its updates.
+	 */
+	public void wakeUp() {
+		this.sleeping = false;
+	}
+
 	/**
 	 * Moves the node towards the next waypoint or waits if it is
 	 * not time to move yet
 	 * @param timeIncrement How long time the node moves
 	 */
 	public void move(double timeIncrement) {		
-		double possibleMovement;
-		double distance;
-		double dx, dy;
-
 		if (!isActive() || SimClock.getTime() < this.nextTimeToMove) {
 			return; 
 		}
@@ -350,8 +413,16 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 			}
 		}
 
-		possibleMovement = timeIncrement * speed;
-		distance = this.location.distance(this.destination);
+		moveAlongPath(timeIncrement * speed);
+	}	
+
+	/**
+	 * Moves the node along its path, setting the next waypoints as they are
+	 * reached
+	 * @param possibleMovement How far the node can move
+	 */
+	private void moveAlongPath(double possibleMovement) {
+		double distance = this.location.distance(this.destination);
 
 		while (possibleMovement >= distance) {
 			// node can move past its next destination
@@ -363,13 +434,82 @@ public class DTNHost implements Comparable<DTNHost>, Iterable<Connection> {
 			distance = this.location.distance(this.destination);
 		}
 
-		// move towards the point for possibleMovement amount
-		dx = (possibleMovement/distance) * (this.destination.getX() -
+		moveTowards(possibleMovement, distance);
+	}
+
+	/**
+	 * Moves the node along its current path like {@link #move(double)} as
+	 * long as that doesn't need anything else than the waypoints of the
+	 * path. If the node runs out of waypoints (and would need a new path
+	 * from the movement model) or there are movement listeners to inform of
+	 * a new waypoint, the node stops there and the rest of the move must be
+	 * done with {@link #finishMove(double)}. Activeness of the node is not
+	 * checked and only the location, destination and path of this node are
+	 * modified, so this can be called for several nodes concurrently.
+	 * @param timeIncrement How long time the node moves
+	 * @return True if the node was moved (or it is not time to move yet), 
+	 * false if the move must be finished with {@link #finishMove(double)}
+	 */
+	public boolean moveTowardsDestination(double timeIncrement) {
+		this.pendingMovement = -1;
+		if (SimClock.getTime() < this.nextTimeToMove) {
+			return true;
+		}
+		if (this.destination == null) {
+			return false;
+		}
+
+		double possibleMovement = timeIncrement * speed;
+		double distance = this.location.distance(this.destination);
+		while (possibleMovement >= distance) {
+			if (this.path == null || !this.path.hasNext() ||
+					(this.movListeners != null &&
+							!this.movListeners.isEmpty())) {
+				this.pendingMovement = possibleMovement;
+				return false;
+			}
+			this.location.setLocation(this.destination);
+			possibleMovement -= distance;
+			this.destination = this.path.getNextWaypoint();
+			this.speed = this.path.getSpeed();
+			distance = this.location.distance(this.destination);
+		}
+
+		moveTowards(possibleMovement, distance);
+		return true;
+	}
+
+	/**
+	 * Finishes a move that {@link #moveTowardsDestination(double)} couldn't
+	 * do alone. The result is the same as if the whole move was done with
+	 * {@link #move(double)}.
+	 * @param timeIncrement How long time the node moves (the same as for
+	 * {@link #moveTowardsDestination(double)})
+	 */
+	public void finishMove(double timeIncrement) {
+		if (this.pendingMovement < 0) {
+			move(timeIncrement);
+			return;
+		}
+
+		double possibleMovement = this.pendingMovement;
+		this.pendingMovement = -1;
+		moveAlongPath(possibleMovement);
+	}
+
+	/**
+	 * Moves the node towards the current destination
+	 * @param movement How far the node moves
+	 * @param distance Distance to the destination (must be bigger than the
+	 * movement)
+	 */
+	private void moveTowards(double movement, double distance) {
+		double dx = (movement/distance) * (this.destination.getX() -
 				this.location.getX());
-		dy = (possibleMovement/distance) * (this.destination.getY() -
+		double dy = (movement/distance) * (this.destination.getY() -
 				this.location.getY());
 		this.location.translate(dx, dy);
-	}	
+	}
 
 	/**
 	 * Sets the next destination and speed to correspond the next waypoint
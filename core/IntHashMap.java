@@ -0,0 +1,247 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map with primitive int keys. The keys are stored in an open
+ * addressing table so, unlike with a HashMap, no key objects or entry
+ * objects are created for the mappings. Null values are not allowed.
+ * @param <V> Type of the values
+ */
+public class IntHashMap<V> {
+	/** initial capacity of the table (must be a power of two) */
+	private static final int INIT_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	/** number of mappings */
+	private int size;
+	/** capacity of the table - 1 */
+	private int mask;
+
+	/**
+	 * Creates a new, empty, map
+	 */
+	public IntHashMap() {
+		this.keys = new int[INIT_CAPACITY];
+		this.values = new Object[INIT_CAPACITY];
+		this.mask = INIT_CAPACITY - 1;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the value the key is mapped to
+	 * @param key The key
+	 * @return The value or null if the key isn't in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int i = indexOf(key);
+		return i < 0 ? null : (V)values[i];
+	}
+
+	/**
+	 * Returns true if the key is in the map
+	 * @param key The key
+	 * @return true if the key is in the map
+	 */
+	public boolean containsKey(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Maps a key to a value
+	 * @param key The key
+	 * @param value The value (not null)
+	 * @return The value the key was mapped to before or null if it wasn't
+	 * in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not allowed");
+		}
+		int i = slotOf(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V old = (V)values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size * 2 > mask) { // keep the table at most half full
+			resize(keys.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of a key
+	 * @param key The key
+	 * @return The value the key was mapped to or null if it wasn't in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		V old = (V)values[i];
+		values[i] = null;
+		size--;
+
+		/* move the following entries of the same run so that there are no
+		 * holes between them and their slots */
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null) {
+				return old;
+			}
+			int slot = slotOf(keys[j]);
+			/* can the entry at j be moved to the hole at i? */
+			if (i <= j ? (slot <= i || slot > j) : (slot <= i && slot > j)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of mappings in the map
+	 * @return the number of mappings in the map
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns true if the map is empty
+	 * @return true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Removes all mappings
+	 */
+	public void clear() {
+		this.keys = new int[INIT_CAPACITY];
+		this.values = new Object[INIT_CAPACITY];
+		this.mask = INIT_CAPACITY - 1;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns a view of the values of the map. The map must not be modified
+	 * while iterating over the values.
+	 * @return a view of the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+			public int size() {
+				return IntHashMap.this.size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the index of the key in the table
+	 * @param key The key
+	 * @return The index or -1 if the key isn't in the map
+	 */
+	private int indexOf(int key) {
+		int i = slotOf(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the slot a key hashes to
+	 * @param key The key
+	 * @return The slot
+	 */
+	private int slotOf(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Moves the mappings to a new table
+	 * @param capacity Capacity of the new table (a power of two)
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = slotOf(oldKeys[i]);
+				while (values[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Iterator over the values of the table
+	 */
+	private class ValueIterator implements Iterator<V> {
+		private int next = -1;
+
+		public ValueIterator() {
+			findNext();
+		}
+
+		private void findNext() {
+			do {
+				next++;
+			} while (next < values.length && values[next] == null);
+		}
+
+		public boolean hasNext() {
+			return next < values.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			V v = (V)values[next];
+			findNext();
+			return v;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -4,7 +4,8 @@
  */
 package core;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,42 +13,42 @@ import java.util.Set;
 
 /**
  * A message that is created at a node or passed between nodes.
+ * <P>
+ * Replicates of a message share the data that is the same for all of them
+ * (ID, source, destination, size, etc.) and the properties until they are
+ * modified, so replicating a message (e.g., for every transfer) doesn't
+ * copy them. The shared data is copied when it's modified through one of
+ * the replicates (copy-on-write). The hop path is a persistent list: the
+ * path of a replicate shares the earlier hops with the paths of the other
+ * replicates and adding a hop doesn't copy anything.</P>
  */
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
 	public static final int INFINITE_TTL = -1;
-	private DTNHost from;
-	private DTNHost to;
-	/** Identifier of the message */
-	private String id;
-	/** Size of the message (bytes) */
-	private int size;
-	/** List of nodes this message has passed */
-	private List<DTNHost> path; 
+	/** Data shared with the replicates */
+	private Payload payload;
+	/** The last node of the list of nodes this message has passed */
+	private PathNode path; 
 	/** Next unique identifier to be given */
 	private static int nextUniqueId;
 	/** Unique ID of this message */
 	private int uniqueId;
+	/** Dense indexes of the message IDs (see {@link #getIdIndex()}). The
+	 * map has an entry for every message ID created since the last reset
+	 * (the ID strings are shared with the messages). */
+	private static HashMap<String, Integer> idIndexes;
 	/** The time this message was received */
 	private double timeReceived;
-	/** The time when this message was created */
-	private double timeCreated;
-	/** Initial TTL of the message */
-	private int initTtl;
-	
-	/** if a response to this message is required, this is the size of the 
-	 * response message (or 0 if no response is requested) */
-	private int responseSize;
-	/** if this message is a response message, this is set to the request msg*/
-	private Message requestMsg;
 	
 	/** Container for generic message properties. Note that all values
 	 * stored in the properties should be immutable because only a shallow
 	 * copy of the properties is made when replicating messages */
 	private Map<String, Object> properties;
 	
-	/** Application ID of the application that created the message */
-	private String	appID;
+	/** are the payload and properties (possibly) shared with a replicate,
+	 * i.e., must they be copied before modifying them */
+	private boolean payloadShared;
+	private boolean propertiesShared;
 	
 	static {
 		reset();
@@ -63,31 +64,40 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the message (in bytes)
 	 */
 	public Message(DTNHost from, DTNHost to, String id, int size) {
-		this.from = from;
-		this.to = to;
-		this.id = id;
-		this.size = size;
-		this.path = new ArrayList<DTNHost>();
+		this.payload = new Payload(from, to, id, size);
+		this.path = null;
 		this.uniqueId = nextUniqueId;
-		
-		this.timeCreated = SimClock.getTime();
-		this.timeReceived = this.timeCreated;
-		this.initTtl = INFINITE_TTL;
-		this.responseSize = 0;
-		this.requestMsg = null;
+		this.timeReceived = payload.timeCreated;
 		this.properties = null;
-		this.appID = null;
 		
 		Message.nextUniqueId++;
 		addNodeOnPath(from);
 	}
 	
+	/**
+	 * Creates a replicate of a message. The replicate shares the payload and
+	 * properties with the original until either one modifies them.
+	 * @param m The message to replicate
+	 */
+	private Message(Message m) {
+		this.payload = m.payload;
+		this.path = m.path;
+		this.properties = m.properties;
+		this.uniqueId = nextUniqueId;
+		this.timeReceived = SimClock.getTime();
+		
+		this.payloadShared = m.payloadShared = true;
+		this.propertiesShared = m.propertiesShared = true;
+		
+		Message.nextUniqueId++;
+	}
+	
 	/**
 	 * Returns the node this message is originally from
 	 * @return the node this message is originally from
 	 */
 	public DTNHost getFrom() {
-		return this.from;
+		return this.payload.from;
 	}
 
 	/**
@@ -95,7 +105,7 @@ public class Message implements Comparable<Message> {
 	 * @return the node this message is originally to
 	 */
 	public DTNHost getTo() {
-		return this.to;
+		return this.payload.to;
 	}
 
 	/**
@@ -103,7 +113,7 @@ public class Message implements Comparable<Message> {
 	 * @return The message id
 	 */
 	public String getId() {
-		return this.id;
+		return this.payload.id;
 	}
 	
 	/**
@@ -115,12 +125,39 @@ public class Message implements Comparable<Message> {
 		return this.uniqueId;
 	}
 	
+	/**
+	 * Returns the index of the message's ID. The IDs are numbered densely
+	 * (0, 1, 2...) in the order they are first used, so all replicates of a
+	 * message (and all messages created with the same ID) have the same
+	 * index and the indexes can be used, e.g., as bit set indexes instead of
+	 * hashing the ID strings.
+	 * @return The index of the message ID
+	 */
+	public int getIdIndex() {
+		return this.payload.idIndex;
+	}
+	
+	/**
+	 * Returns the index of a message ID and gives the ID the next free
+	 * index if it doesn't have one yet
+	 * @param id The message ID
+	 * @return The index of the ID
+	 */
+	private static int internId(String id) {
+		Integer index = idIndexes.get(id);
+		if (index == null) {
+			index = idIndexes.size();
+			idIndexes.put(id, index);
+		}
+		return index.intValue();
+	}
+	
 	/**
 	 * Returns the size of the message (in bytes)
 	 * @return the size of the message
 	 */
 	public int getSize() {
-		return this.size;
+		return this.payload.size;
 	}
 
 	/**
@@ -128,15 +165,41 @@ public class Message implements Comparable<Message> {
 	 * @param node The node to add
 	 */
 	public void addNodeOnPath(DTNHost node) {
-		this.path.add(node);
+		this.path = new PathNode(node, this.path);
 	}
 	
 	/**
-	 * Returns a list of nodes this message has passed so far
+	 * Returns a list of nodes this message has passed so far. The list
+	 * can't be modified. Use {@link #hasVisited(DTNHost)} and
+	 * {@link #getHopCount()} if the whole list isn't needed.
 	 * @return The list as vector
 	 */
 	public List<DTNHost> getHops() {
-		return this.path;
+		if (this.path == null) {
+			return Collections.emptyList();
+		}
+		return this.path.getHops();
+	}
+	
+	/**
+	 * Returns true if the given node is on the list of nodes this message
+	 * has passed
+	 * @param node The node to look for
+	 * @return true if the message has passed the node
+	 */
+	public boolean hasVisited(DTNHost node) {
+		if (this.path == null) {
+			return false;
+		}
+		if (node != null && (this.path.visited & PathNode.bitOf(node)) == 0) {
+			return false; // not on the path for sure
+		}
+		for (PathNode n = this.path; n != null; n = n.prev) {
+			if (n.node == node) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -144,7 +207,7 @@ public class Message implements Comparable<Message> {
 	 * @return the amount of hops this message has passed
 	 */
 	public int getHopCount() {
-		return this.path.size() -1;
+		return (this.path == null ? 0 : this.path.length) -1;
 	}
 	
 	/** 
@@ -154,16 +217,25 @@ public class Message implements Comparable<Message> {
 	 * @return The TTL (minutes)
 	 */
 	public int getTtl() {
-		if (this.initTtl == INFINITE_TTL) {
+		if (this.payload.initTtl == INFINITE_TTL) {
 			return Integer.MAX_VALUE;
 		}
 		else {
-			return (int)( ((this.initTtl * 60) -
-					(SimClock.getTime()-this.timeCreated)) /60.0 );
+			return (int)( ((this.payload.initTtl * 60) -
+					(SimClock.getTime()-this.payload.timeCreated)) /60.0 );
 		}
 	}
 	
 	
+	/**
+	 * Returns the initial TTL (minutes) of the message, i.e., the TTL the
+	 * message had when it was created, or {@link #INFINITE_TTL}
+	 * @return The initial TTL (minutes)
+	 */
+	public int getInitTtl() {
+		return this.payload.initTtl;
+	}
+
 	/**
 	 * Sets the initial TTL (time-to-live) for this message. The initial
 	 * TTL is the TTL when the original message was created. The current TTL
@@ -171,7 +243,7 @@ public class Message implements Comparable<Message> {
 	 * @param ttl The time-to-live to set
 	 */
 	public void setTtl(int ttl) {
-		this.initTtl = ttl;
+		writablePayload().initTtl = ttl;
 	}
 	
 	/**
@@ -195,7 +267,7 @@ public class Message implements Comparable<Message> {
 	 * @return the time when this message was created
 	 */
 	public double getCreationTime() {
-		return this.timeCreated;
+		return this.payload.timeCreated;
 	}
 	
 	/**
@@ -203,7 +275,7 @@ public class Message implements Comparable<Message> {
 	 * @param request The request message
 	 */
 	public void setRequest(Message request) {
-		this.requestMsg = request;
+		writablePayload().requestMsg = request;
 	}
 	
 	/**
@@ -212,7 +284,7 @@ public class Message implements Comparable<Message> {
 	 * @return the message this message is response to
 	 */
 	public Message getRequest() {
-		return this.requestMsg;
+		return this.payload.requestMsg;
 	}
 	
 	/**
@@ -220,7 +292,7 @@ public class Message implements Comparable<Message> {
 	 * @return true if this message is a response message
 	 */
 	public boolean isResponse() {
-		return this.requestMsg != null;
+		return this.payload.requestMsg != null;
 	}
 	
 	/**
@@ -229,7 +301,7 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the response message
 	 */
 	public void setResponseSize(int size) {
-		this.responseSize = size;
+		writablePayload().responseSize = size;
 	}
 	
 	/**
@@ -238,7 +310,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the requested response message
 	 */
 	public int getResponseSize() {
-		return responseSize;
+		return this.payload.responseSize;
 	}
 	
 	/**
@@ -246,22 +318,26 @@ public class Message implements Comparable<Message> {
 	 * @return a string representation of the message
 	 */
 	public String toString () {
-		return id;
+		return this.payload.id;
 	}
 
 	/**
-	 * Deep copies message data from other message. If new fields are
-	 * introduced to this class, most likely they should be copied here too
-	 * (unless done in constructor).
+	 * Copies message data from other message. The path is shared with the
+	 * other message (hops added later to either one are not seen by the
+	 * other) and the payload and properties are copied when they are
+	 * modified, so changes made through this message don't affect the
+	 * other one. If new fields are introduced to this class, most likely
+	 * they should be copied here too (unless done in constructor).
 	 * @param m The message where the data is copied
 	 */
 	protected void copyFrom(Message m) {
-		this.path = new ArrayList<DTNHost>(m.path);
-		this.timeCreated = m.timeCreated;
-		this.responseSize = m.responseSize;
-		this.requestMsg  = m.requestMsg;
-		this.initTtl = m.initTtl;
-		this.appID = m.appID;
+		this.path = m.path;
+		Payload p = writablePayload();
+		p.timeCreated = m.payload.timeCreated;
+		p.responseSize = m.payload.responseSize;
+		p.requestMsg  = m.payload.requestMsg;
+		p.initTtl = m.payload.initTtl;
+		p.appID = m.payload.appID;
 		
 		if (m.properties != null) {
 			Set<String> keys = m.properties.keySet();
@@ -316,19 +392,23 @@ public class Message implements Comparable<Message> {
 			/* lazy creation to prevent performance overhead for classes
 			   that don't use the property feature  */
 			this.properties = new HashMap<String, Object>();
+			this.propertiesShared = false;
 		}		
+		else if (this.propertiesShared) {
+			this.properties = new HashMap<String, Object>(this.properties);
+			this.propertiesShared = false;
+		}
 
 		this.properties.put(key, value);
 	}
 	
 	/**
-	 * Returns a replicate of this message (identical except for the unique id)
+	 * Returns a replicate of this message (identical except for the unique id
+	 * and receive time)
 	 * @return A replicate of the message
 	 */
 	public Message replicate() {
-		Message m = new Message(from, to, id, size);
-		m.copyFrom(this);
-		return m;
+		return new Message(this);
 	}
 	
 	/**
@@ -344,20 +424,144 @@ public class Message implements Comparable<Message> {
 	 */
 	public static void reset() {
 		nextUniqueId = 0;
+		idIndexes = new HashMap<String, Integer>();
 	}
 
 	/**
 	 * @return the appID
 	 */
 	public String getAppID() {
-		return appID;
+		return this.payload.appID;
 	}
 
 	/**
 	 * @param appID the appID to set
 	 */
 	public void setAppID(String appID) {
-		this.appID = appID;
+		writablePayload().appID = appID;
+	}
+	
+	/**
+	 * Returns the payload of this message for modifying it. If the payload
+	 * is shared with replicates, this message gets its own copy of it first.
+	 * @return The payload
+	 */
+	private Payload writablePayload() {
+		if (this.payloadShared) {
+			this.payload = this.payload.copy();
+			this.payloadShared = false;
+		}
+		return this.payload;
+	}
+	
+	/**
+	 * A node on the path of a message. The nodes are immutable and link to
+	 * the previous node, so the paths of the replicates share their common
+	 * beginning.
+	 */
+	private static class PathNode {
+		private DTNHost node;
+		private PathNode prev;
+		/** number of nodes on the path up to this node */
+		private int length;
+		/** Bloom filter of the nodes on the path up to this node: the bits of
+		 * the nodes (see {@link #bitOf(DTNHost)}) OR'd together */
+		private long visited;
+		/** the path up to this node as a list (created when first needed) */
+		private List<DTNHost> hops;
+		
+		public PathNode(DTNHost node, PathNode prev) {
+			this.node = node;
+			this.prev = prev;
+			this.length = (prev == null ? 0 : prev.length) + 1;
+			this.visited = (prev == null ? 0 : prev.visited) |
+				(node == null ? 0 : bitOf(node));
+		}
+		
+		/**
+		 * Returns the Bloom filter bit of a node
+		 * @param node The node
+		 * @return The bit
+		 */
+		public static long bitOf(DTNHost node) {
+			return 1L << (node.getAddress() & 63);
+		}
+		
+		/**
+		 * Returns the path up to this node as an unmodifiable list
+		 * @return the path up to this node
+		 */
+		public List<DTNHost> getHops() {
+			if (this.hops == null) {
+				DTNHost[] nodes = new DTNHost[this.length];
+				int i = this.length;
+				for (PathNode n = this; n != null; n = n.prev) {
+					nodes[--i] = n.node;
+				}
+				this.hops = Collections.unmodifiableList(Arrays.asList(nodes));
+			}
+			return this.hops;
+		}
 	}
 	
+	/**
+	 * The data of a message that is the same for all replicates (unless
+	 * explicitly changed for one of them)
+	 */
+	private static class Payload {
+		private DTNHost from;
+		private DTNHost to;
+		/** Identifier of the message */
+		private String id;
+		/** Index of the message ID */
+		private int idIndex;
+		/** Size of the message (bytes) */
+		private int size;
+		/** The time when this message was created */
+		private double timeCreated;
+		/** Initial TTL of the message */
+		private int initTtl;
+		/** if a response to this message is required, this is the size of
+		 * the response message (or 0 if no response is requested) */
+		private int responseSize;
+		/** if this message is a response message, this is set to the
+		 * request msg */
+		private Message requestMsg;
+		/** Application ID of the application that created the message */
+		private String appID;
+		
+		public Payload(DTNHost from, DTNHost to, String id, int size) {
+			this.from = from;
+			this.to = to;
+			this.id = id;
+			this.idIndex = internId(id);
+			this.size = size;
+			this.timeCreated = SimClock.getTime();
+			this.initTtl = INFINITE_TTL;
+			this.responseSize = 0;
+			this.requestMsg = null;
+			this.appID = null;
+		}
+		
+		/**
+		 * Returns a copy of this payload
+		 * @return a copy of this payload
+		 */
+		public Payload copy() {
+			Payload p = new Payload();
+			p.from = this.from;
+			p.to = this.to;
+			p.id = this.id;
+			p.idIndex = this.idIndex;
+			p.size = this.size;
+			p.timeCreated = this.timeCreated;
+			p.initTtl = this.initTtl;
+			p.responseSize = this.responseSize;
+			p.requestMsg = this.requestMsg;
+			p.appID = this.appID;
+			return p;
+		}
+		
+		private Payload() { }
+	}
 }
@@ -4,8 +4,11 @@
  */
 package core;
 
+import interfaces.ArrayConnectivityGrid;
 import interfaces.ConnectivityGrid;
 import interfaces.ConnectivityOptimizer;
+import interfaces.MultiLevelConnectivityGrid;
+import interfaces.NeighborVisitor;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -43,11 +46,19 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	private List<ConnectionListener> cListeners = null; // list of listeners
 	private int address; // network interface address
 	protected double transmitRange;
+	/** transmit range squared (or negative if not computed yet) */
+	private double transmitRangeSquared = -1;
 	protected int transmitSpeed;
 	protected ConnectivityOptimizer optimizer = null;
 	/** scanning interval, or 0.0 if n/a */
 	private double scanInterval;
 	private double lastScanTime;
+	/** visitor that tries to connect to every visited interface */
+	protected NeighborVisitor connector = new NeighborVisitor() {
+		public void visit(NetworkInterface ni) {
+			connect(ni);
+		}
+	};
 	
 	protected Activeness activeModel;
 
@@ -128,10 +139,46 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		comBus.subscribe(RANGE_ID, this);
 		comBus.subscribe(SPEED_ID, this);
 		
-		optimizer = ConnectivityGrid.ConnectivityGridFactory(
-				this.interfacetype.hashCode(), transmitRange);
+		optimizer = getOptimizer(this.interfacetype, transmitRange);
 		optimizer.addInterface(this);		
 	}
+
+	/**
+	 * Returns the connectivity optimizer for interfaces of the given type. 
+	 * The type of the optimizer is selected with the {@link World#SETTINGS_NS}
+	 * namespace's {@link World#ARRAY_GRID_S} and 
+	 * {@link World#MULTI_LEVEL_GRID_S} settings.
+	 * @param interfaceType Type of the interfaces
+	 * @param range Transmit range of the interfaces
+	 * @return The optimizer for the interface type
+	 */
+	protected static ConnectivityOptimizer getOptimizer(String interfaceType,
+			double range) {
+		Settings s = new Settings(World.SETTINGS_NS);
+		boolean arrayGrid = World.DEF_ARRAY_GRID;
+		if (s.contains(World.ARRAY_GRID_S)) {
+			arrayGrid = s.getBoolean(World.ARRAY_GRID_S);
+		}
+		boolean multiLevelGrid = World.DEF_MULTI_LEVEL_GRID;
+		if (s.contains(World.MULTI_LEVEL_GRID_S)) {
+			multiLevelGrid = s.getBoolean(World.MULTI_LEVEL_GRID_S);
+		}
+
+		if (arrayGrid && multiLevelGrid) {
+			throw new SettingsError("Only one of " + World.ARRAY_GRID_S + 
+					" and " + World.MULTI_LEVEL_GRID_S + " can be enabled");
+		}
+		if (multiLevelGrid) {
+			return MultiLevelConnectivityGrid.MultiLevelConnectivityGridFactory(
+					interfaceType.hashCode());
+		}
+		if (arrayGrid) {
+			return ArrayConnectivityGrid.ArrayConnectivityGridFactory(
+					interfaceType.hashCode(), range);
+		}
+		return ConnectivityGrid.ConnectivityGridFactory(
+				interfaceType.hashCode(), range);
+	}
 	
 	public void setActivenessModel(Activeness am)
 	{
@@ -179,6 +226,20 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return this.transmitRange;
 	}
 
+	/**
+	 * Returns the square of the transmit range. The value is computed (from
+	 * {@link #getTransmitRange()}) when first needed and again after the 
+	 * range has been changed using the {@link ModuleCommunicationBus}.
+	 * @return the transmit range squared
+	 */
+	public final double getTransmitRangeSquared() {
+		if (this.transmitRangeSquared < 0) {
+			double range = getTransmitRange();
+			this.transmitRangeSquared = range * range;
+		}
+		return this.transmitRangeSquared;
+	}
+
 	/**
 	 * Returns the transmit speed of this network layer
 	 * @return the transmit speed
@@ -195,6 +256,17 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return this.connections;
 	}
 	
+	/**
+	 * Returns true if the connections of this interface are created and
+	 * broken (and its location in the connectivity optimizer is updated) by
+	 * some other entity than the interface's own {@link #update()}
+	 * @return True if the interface doesn't need to be updated to keep its
+	 * connections up to date
+	 */
+	public boolean isManaged() {
+		return false;
+	}
+
 	/**
 	 * Checks if this interface is currently in the scanning mode
 	 * @return True if the interface is scanning; false if not
@@ -218,6 +290,15 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		return true;
 	}
 
+	/**
+	 * Returns true if this interface is always scanning and active, i.e.,
+	 * it has no scanning interval and no activeness model
+	 * @return True if the interface is always scanning and active
+	 */
+	protected boolean isAlwaysScanning() {
+		return this.scanInterval == 0 && this.activeModel == null;
+	}
+
 	/**
 	 * Connects the interface to another interface.
 	 * 
@@ -279,16 +360,34 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 * @return True if the interface is within range, false if not
 	 */
 	protected boolean isWithinRange(NetworkInterface anotherInterface) {
-		double smallerRange = anotherInterface.getTransmitRange();
-		double myRange = getTransmitRange();
-		if (myRange < smallerRange) {
-			smallerRange = myRange;
+		double smallerRangeSq = anotherInterface.getTransmitRangeSquared();
+		double myRangeSq = getTransmitRangeSquared();
+		if (myRangeSq < smallerRangeSq) {
+			smallerRangeSq = myRangeSq;
 		}
 
-		return this.host.getLocation().distance(
-				anotherInterface.getLocation()) <= smallerRange;
+		return this.host.getLocation().distanceSquared(
+				anotherInterface.getLocation()) <= smallerRangeSq;
 	}
 	
+	/**
+	 * Updates this interface's location in the connectivity optimizer
+	 */
+	public void updateLocationInOptimizer() {
+		if (optimizer != null) {
+			optimizer.updateLocation(this);
+		}
+	}
+
+	/**
+	 * Tries to connect to all interfaces near this interface (according to
+	 * the optimizer)
+	 * @see #connect(NetworkInterface)
+	 */
+	protected void connectToNearInterfaces() {
+		optimizer.visitNearInterfaces(this, this.connector);
+	}
+
 	/**
 	 * Returns true if the given NetworkInterface is connected to this host. 
 	 * @param netinterface The other NetworkInterface to check 
@@ -361,6 +460,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		}
 		else if (key.equals(RANGE_ID)) {
 			this.transmitRange = (Double)newValue;	
+			this.transmitRangeSquared = -1;
 		}
 		else {
 			throw new SimError("Unexpected combus ID " + key);
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * <P>
+ * Hierarchical timer wheel for simulation time based timers. The time is
+ * divided into ticks of {@link #RESOLUTION} seconds and the timers are
+ * bucketed by their tick into wheels of 64 slots: the first wheel has a
+ * slot for each of the next 64 ticks, the second one for each of the next
+ * 64 groups of 64 ticks, and so on. When the time advances past the end of
+ * a slot of a higher wheel, the timers of the next slot are moved to the
+ * lower wheels. So scheduling and cancelling a timer are constant time
+ * operations and a timer is moved at most once per wheel, no matter how
+ * many timers are scheduled.</P>
+ *
+ * <P>There is one global wheel (see {@link #getInstance()}) that the
+ * {@link World} advances before updating the hosts. A timer expires in the
+ * first advance whose time is not before the timer's time. The timers that
+ * expire in the same advance expire in the order of their times and the
+ * timers with the same time in the order they were scheduled.</P>
+ */
+public class TimerWheel {
+	/** length of a tick (seconds) */
+	public static final double RESOLUTION = 1.0;
+	/** number of bits of the tick per wheel */
+	private static final int BITS = 6;
+	/** number of slots in a wheel */
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	/** number of wheels (enough for all non-negative long ticks) */
+	private static final int LEVELS = (63 + BITS - 1) / BITS;
+
+	private static TimerWheel instance = null;
+
+	/** orders the timers by their time (the sort is stable so the timers
+	 * with the same time stay in the order they were scheduled) */
+	private static final Comparator<Timer> TIME_ORDER =
+		new Comparator<Timer>() {
+			public int compare(Timer t1, Timer t2) {
+				return Double.compare(t1.time, t2.time);
+			}
+		};
+
+	/** first timers of the slots (linked lists) by wheel and slot */
+	private Timer[][] slots;
+	/** last timers of the slots by wheel and slot */
+	private Timer[][] tails;
+	/** number of timers in each wheel */
+	private int[] levelSizes;
+	/** the tick the wheel is at; the timers of the earlier ticks have
+	 * expired */
+	private long currentTick;
+	/** number of scheduled timers */
+	private int size;
+
+	static {
+		DTNSim.registerForReset(TimerWheel.class.getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Creates a new, empty, timer wheel at time 0
+	 */
+	public TimerWheel() {
+		this.slots = new Timer[LEVELS][SLOTS];
+		this.tails = new Timer[LEVELS][SLOTS];
+		this.levelSizes = new int[LEVELS];
+		this.currentTick = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the global timer wheel
+	 * @return the global timer wheel
+	 */
+	public static TimerWheel getInstance() {
+		if (instance == null) {
+			instance = new TimerWheel();
+		}
+		return instance;
+	}
+
+	/**
+	 * Discards the global timer wheel (and all its timers)
+	 */
+	public static void reset() {
+		instance = null;
+	}
+
+	/**
+	 * Schedules a timer to expire at the given time. If the timer is already
+	 * scheduled, it is rescheduled. Timers whose time is in the past expire
+	 * in the next advance.
+	 * @param timer The timer
+	 * @param time The time (seconds) when the timer should expire
+	 */
+	public void schedule(Timer timer, double time) {
+		if (timer.wheel != null) {
+			timer.wheel.cancel(timer);
+		}
+		timer.time = time;
+		timer.tick = Math.max(tickOf(time), 0);
+		timer.wheel = this;
+		insert(timer);
+		size++;
+	}
+
+	/**
+	 * Cancels a timer. Does nothing if the timer isn't scheduled to this
+	 * wheel.
+	 * @param timer The timer
+	 */
+	public void cancel(Timer timer) {
+		if (timer.wheel != this) {
+			return;
+		}
+		if (timer.level >= 0) {
+			unlink(timer);
+		}
+		timer.wheel = null;
+		size--;
+	}
+
+	/**
+	 * Advances the wheel to the given time and expires all timers whose time
+	 * is not after it (in the order of their times). The expiring timers
+	 * may schedule and cancel timers. Does nothing if the time is before
+	 * the time of the previous advance.
+	 * @param time The time to advance to
+	 */
+	public void advance(double time) {
+		long target = tickOf(time);
+
+		while (currentTick <= target) {
+			if (size == 0) {
+				currentTick = Math.max(currentTick, target);
+				return;
+			}
+			if (levelSizes[0] == 0 && currentTick < target) {
+				/* nothing in the lowest wheel -> skip to its end */
+				long next = Math.min((currentTick | MASK) + 1, target);
+				moveTo(next);
+				continue;
+			}
+
+			int slot = (int)(currentTick & MASK);
+			if (currentTick < target) {
+				/* all timers of the tick (also the ones scheduled to the past
+				 * while expiring) */
+				while (slots[0][slot] != null) {
+					expireDue(slot, Double.POSITIVE_INFINITY);
+				}
+				moveTo(currentTick + 1);
+			}
+			else { // the last tick: only the timers that are due
+				expireDue(slot, time);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of scheduled timers
+	 * @return the number of scheduled timers
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Expires the timers of a lowest wheel slot whose time is not after the
+	 * given time
+	 * @param slot Index of the slot
+	 * @param time The time
+	 */
+	private void expireDue(int slot, double time) {
+		ArrayList<Timer> due = null;
+		for (Timer t = slots[0][slot]; t != null; t = t.next) {
+			if (t.time <= time) {
+				if (due == null) {
+					due = new ArrayList<Timer>();
+				}
+				due.add(t);
+			}
+		}
+		if (due == null) {
+			return;
+		}
+		Collections.sort(due, TIME_ORDER);
+		for (int i=0, n=due.size(); i<n; i++) {
+			Timer t = due.get(i);
+			/* an earlier timer may have cancelled or rescheduled this one */
+			if (t.wheel == this && t.level == 0 && t.slot == slot &&
+					t.time <= time) {
+				expire(t);
+			}
+		}
+	}
+
+	/**
+	 * Removes a timer from the wheel and calls its expiry method
+	 * @param t The timer
+	 */
+	private void expire(Timer t) {
+		unlink(t);
+		t.wheel = null;
+		size--;
+		t.expired();
+	}
+
+	/**
+	 * Moves the wheel to the given tick and cascades the timers of the
+	 * higher wheels whose slots the wheel enters
+	 * @param tick The new tick (must be after the current tick and not
+	 * beyond the end of the current lowest wheel round)
+	 */
+	private void moveTo(long tick) {
+		this.currentTick = tick;
+		for (int level = 1; level < LEVELS; level++) {
+			if ((tick & ((1L << (level * BITS)) - 1)) != 0) {
+				break; // not at the start of a slot of this wheel
+			}
+			int slot = (int)((tick >>> (level * BITS)) & MASK);
+			Timer t;
+			while ((t = slots[level][slot]) != null) {
+				unlink(t);
+				insert(t);
+			}
+		}
+	}
+
+	/**
+	 * Puts a timer to the slot of its tick
+	 * @param t The timer
+	 */
+	private void insert(Timer t) {
+		long tick = Math.max(t.tick, currentTick);
+		long diff = tick ^ currentTick;
+		int level = 0;
+		if (diff != 0) {
+			level = (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+		}
+		int slot = (int)((tick >>> (level * BITS)) & MASK);
+
+		t.level = level;
+		t.slot = slot;
+		t.next = null;
+		t.prev = tails[level][slot];
+		if (t.prev != null) {
+			t.prev.next = t;
+		}
+		else {
+			slots[level][slot] = t;
+		}
+		tails[level][slot] = t;
+		levelSizes[level]++;
+	}
+
+	/**
+	 * Removes a timer from its slot
+	 * @param t The timer
+	 */
+	private void unlink(Timer t) {
+		if (t.prev != null) {
+			t.prev.next = t.next;
+		}
+		else {
+			slots[t.level][t.slot] = t.next;
+		}
+		if (t.next != null) {
+			t.next.prev = t.prev;
+		}
+		else {
+			tails[t.level][t.slot] = t.prev;
+		}
+		levelSizes[t.level]--;
+		t.prev = t.next = null;
+		t.level = -1;
+	}
+
+	/**
+	 * Returns the tick of a time
+	 * @param time The time
+	 * @return The tick
+	 */
+	private static long tickOf(double time) {
+		return (long)Math.floor(time / RESOLUTION);
+	}
+
+	/**
+	 * A timer that can be scheduled to a timer wheel. Subclasses define
+	 * what happens when the timer expires.
+	 */
+	public static abstract class Timer {
+		private double time;
+		private long tick;
+		private int level = -1;
+		private int slot;
+		private Timer prev;
+		private Timer next;
+		/** the wheel this timer is scheduled to or null */
+		private TimerWheel wheel;
+
+		/**
+		 * Returns the time the timer was last scheduled to expire at
+		 * @return the time the timer was last scheduled to expire at
+		 */
+		public double getTime() {
+			return this.time;
+		}
+
+		/**
+		 * Returns true if the timer is scheduled and hasn't expired yet
+		 * @return true if the timer is scheduled and hasn't expired yet
+		 */
+		public boolean isScheduled() {
+			return this.wheel != null;
+		}
+
+		/**
+		 * Called when the timer expires
+		 */
+		protected abstract void expired();
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import input.EventQueue;
+import input.ExternalEvent;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * <P>
+ * Event queue of the times when the ongoing constant bit-rate transfers
+ * finish. When a transfer's event is processed, the routers of the sending
+ * and the receiving host are updated at the exact time the transfer
+ * finished, so the sender can start its next transfer (and the receiver
+ * can forward the message) without waiting for the next update of all
+ * hosts. See {@link World#PIPELINED_TRANSFERS_S}.</P>
+ *
+ * <P>Routers schedule an event for a transfer when it starts and every time
+ * its finishing time changes (e.g., when the connection's speed share
+ * changes). Events of transfers that have been aborted or whose finishing
+ * time has changed are discarded. Only {@link CBRConnection} transfers
+ * have a known finishing time; other transfers are not scheduled.</P>
+ */
+public class TransferCompletionQueue implements EventQueue {
+	private static TransferCompletionQueue instance = null;
+
+	/** the scheduled events in the order of time (and scheduling) */
+	private PriorityQueue<CompletionEvent> events;
+	/** sequence number of the next event; breaks ties */
+	private long nextSeq;
+
+	static {
+		DTNSim.registerForReset(TransferCompletionQueue.class.
+				getCanonicalName());
+		reset();
+	}
+
+	/**
+	 * Creates a new, empty, queue
+	 */
+	public TransferCompletionQueue() {
+		this.events = new PriorityQueue<CompletionEvent>(11,
+				new Comparator<CompletionEvent>() {
+			public int compare(CompletionEvent e1, CompletionEvent e2) {
+				int c = e1.compareTo(e2);
+				if (c != 0) {
+					return c;
+				}
+				return e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+			}
+		});
+		this.nextSeq = 0;
+	}
+
+	/**
+	 * Returns the global queue that the {@link World} processes
+	 * @return the global queue or null if pipelined transfers are not
+	 * enabled
+	 */
+	public static TransferCompletionQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the global queue
+	 * @param queue The queue (or null to disable the pipelined transfers)
+	 */
+	static void setInstance(TransferCompletionQueue queue) {
+		instance = queue;
+	}
+
+	/**
+	 * Discards the global queue (and all its events)
+	 */
+	public static void reset() {
+		instance = null;
+	}
+
+	/**
+	 * Schedules an event for the ongoing transfer of a connection at the
+	 * time the transfer finishes. Does nothing if the connection isn't a
+	 * constant bit-rate connection, it isn't transferring anything, or the
+	 * transfer is paused.
+	 * @param con The connection
+	 * @param from The host sending the message
+	 */
+	public void schedule(Connection con, DTNHost from) {
+		if (!(con instanceof CBRConnection) || con.getMessage() == null) {
+			return;
+		}
+		CBRConnection cbrCon = (CBRConnection)con;
+		double time = cbrCon.getTransferDoneTime();
+		if (time == Double.MAX_VALUE) {
+			return; // paused; rescheduled when the speed share changes
+		}
+		events.add(new CompletionEvent(time, cbrCon, from, nextSeq++));
+	}
+
+	/**
+	 * Returns the number of scheduled events (including the stale ones)
+	 * @return the number of scheduled events
+	 */
+	public int size() {
+		return events.size();
+	}
+
+	/**
+	 * Removes the events whose transfers have been aborted, finalized or
+	 * rescheduled after the event was scheduled
+	 */
+	private void removeStaleEvents() {
+		while (!events.isEmpty() && !events.peek().isValid()) {
+			events.poll();
+		}
+	}
+
+	/**
+	 * Returns the next transfer completion event or an event with time
+	 * Double.MAX_VALUE if there are no transfers scheduled
+	 * @return The next event
+	 */
+	public ExternalEvent nextEvent() {
+		removeStaleEvents();
+		if (events.isEmpty()) {
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		return events.poll();
+	}
+
+	/**
+	 * Returns the time of the next transfer completion event or
+	 * Double.MAX_VALUE if there are no transfers scheduled
+	 * @return The next event's time
+	 */
+	public double nextEventsTime() {
+		removeStaleEvents();
+		if (events.isEmpty()) {
+			return Double.MAX_VALUE;
+		}
+		return events.peek().getTime();
+	}
+
+	/**
+	 * Completion of a transfer over a constant bit-rate connection
+	 */
+	private static class CompletionEvent extends ExternalEvent {
+		private static final long serialVersionUID = 1L;
+		private CBRConnection con;
+		private DTNHost from;
+		private Message message;
+		private long seq;
+
+		public CompletionEvent(double time, CBRConnection con, DTNHost from,
+				long seq) {
+			super(time);
+			this.con = con;
+			this.from = from;
+			this.message = con.getMessage();
+			this.seq = seq;
+		}
+
+		/**
+		 * Returns true if the connection is still transferring the same
+		 * message and the transfer is due to finish at this event's time
+		 */
+		public boolean isValid() {
+			return con.getMessage() == message &&
+				con.getTransferDoneTime() == this.time;
+		}
+
+		/**
+		 * Updates the routers of the sender (which finalizes the transfer
+		 * and may start a new one) and the receiver
+		 */
+		@Override
+		public void processEvent(World world) {
+			if (!isValid() || !con.isMessageTransferred()) {
+				return;
+			}
+			from.update(false);
+			con.getOtherNode(from).update(false);
+		}
+
+		@Override
+		public String toString() {
+			return "TRANSFER done @" + this.time + " " + message + " " +
+				from + "->" + con.getOtherNode(from);
+		}
+	}
+}
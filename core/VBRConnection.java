@@ -72,7 +72,7 @@ public class VBRConnection extends Connection {
 			currentspeed = othspeed;
 		}
 		
-		msgsent = msgsent + currentspeed;
+		msgsent = msgsent + (int)(currentspeed * speedShare);
 	}
 	
 	/**
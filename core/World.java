@@ -7,12 +7,18 @@ package core;
 import input.EventQueue;
 import input.ExternalEvent;
 import input.ScheduledUpdatesQueue;
+import interfaces.ArrayConnectivityGrid;
 import interfaces.ConnectivityGrid;
+import interfaces.ContactPredictor;
+import interfaces.MultiLevelConnectivityGrid;
+import interfaces.PairwiseContactManager;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * World contains all the nodes and is responsible for updating their
@@ -37,11 +43,115 @@ public class World {
 	 * Default is @link {@link #DEF_RANDOMIZE_UPDATES}.
 	 */
 	public static final String RANDOMIZE_UPDATES_S = "randomizeUpdateOrder";
+	/**
+	 * Should hosts be moved in parallel -setting id ({@value}). Hosts are
+	 * moved along their current paths in parallel and the moves that need 
+	 * a new path (or inform movement listeners) are finished serially in 
+	 * the normal order, so the positions don't depend on the number of 
+	 * threads. Boolean (true/false) variable. 
+	 * Default is {@link #DEF_PARALLEL_MOVEMENT}.
+	 */
+	public static final String PARALLEL_MOVEMENT_S = "parallelMovement";
+	/**
+	 * Number of worker threads used for parallel movement -setting id 
+	 * ({@value}). Integer value. Default is the number of available 
+	 * processors.
+	 */
+	public static final String NROF_THREADS_S = "nrofThreads";
+	/**
+	 * Should the contacts of simple broadcast interfaces be predicted from
+	 * the hosts' movement instead of checking the neighbors on every update
+	 * -setting id ({@value}). Boolean (true/false) variable. 
+	 * Default is {@link #DEF_CONTACT_PREDICTION}.
+	 * @see ContactPredictor
+	 */
+	public static final String CONTACT_PREDICTION_S = "contactPrediction";
+	/**
+	 * Should the interfaces be stored in array based connectivity grids
+	 * instead of the default grids -setting id ({@value}). Boolean 
+	 * (true/false) variable. Default is {@link #DEF_ARRAY_GRID}.
+	 * @see ArrayConnectivityGrid
+	 */
+	public static final String ARRAY_GRID_S = "arrayGrid";
+	/**
+	 * Should the interfaces be stored in multi-level connectivity grids
+	 * where interfaces are bucketed by their range class, instead of the 
+	 * default grids -setting id ({@value}). Useful when interfaces of the 
+	 * same type have very different ranges. Boolean (true/false) variable. 
+	 * Default is {@link #DEF_MULTI_LEVEL_GRID}.
+	 * @see MultiLevelConnectivityGrid
+	 */
+	public static final String MULTI_LEVEL_GRID_S = "multiLevelGrid";
+	/**
+	 * Should the simple broadcast interfaces be connected in a single pass
+	 * where each pair of interfaces is checked only once, instead of every
+	 * interface checking its neighbors in its own update -setting id 
+	 * ({@value}). Boolean (true/false) variable. 
+	 * Default is {@link #DEF_PAIRWISE_CONNECTIVITY}.
+	 * @see PairwiseContactManager
+	 */
+	public static final String PAIRWISE_CONNECTIVITY_S = 
+		"pairwiseConnectivity";
+	/**
+	 * Should the idle hosts be left out of the updates until they get a new
+	 * message or connection -setting id ({@value}). Only hosts whose all
+	 * interfaces are handled by contact managers (see 
+	 * {@link #CONTACT_PREDICTION_S} and {@link #PAIRWISE_CONNECTIVITY_S})
+	 * and whose routers are idle are skipped. Boolean (true/false) variable.
+	 * Default is {@link #DEF_SKIP_IDLE_HOSTS}.
+	 * @see DTNHost#isIdle()
+	 */
+	public static final String SKIP_IDLE_HOSTS_S = "skipIdleHosts";
+	/**
+	 * Should all external events of the same time be processed before 
+	 * updating the hosts -setting id ({@value}). If false, the hosts are
+	 * updated after every event. If true, the hosts are updated once after
+	 * each batch of simultaneous events, and the hosts that the events
+	 * looked up (with {@link #getNodeByAddress(int)}) are updated first.
+	 * Boolean (true/false) variable. Default is {@link #DEF_BATCH_EVENTS}.
+	 */
+	public static final String BATCH_EVENTS_S = "batchEvents";
+	/**
+	 * Should the constant bit-rate transfers finish at their exact finishing
+	 * times instead of the next update of the hosts -setting id ({@value}).
+	 * If true, the routers of the sender and the receiver are updated when
+	 * a transfer finishes (see {@link TransferCompletionQueue}), so the next
+	 * transfer can start right away and the link utilization doesn't depend
+	 * on the update interval. Boolean (true/false) variable. Default is
+	 * {@link #DEF_PIPELINED_TRANSFERS}.
+	 */
+	public static final String PIPELINED_TRANSFERS_S = "pipelinedTransfers";
 	/** default value for cell size multiplier ({@value}) */
 	public static final int DEF_CON_CELL_SIZE_MULT = 5;
 	/** should the update order of nodes be randomized -setting's default value
 	 * ({@value}) */
 	public static final boolean DEF_RANDOMIZE_UPDATES = true;
+	/** should the hosts be moved in parallel -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_PARALLEL_MOVEMENT = false;
+	/** should the contacts be predicted -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_CONTACT_PREDICTION = false;
+	/** should the array based grids be used -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_ARRAY_GRID = false;
+	/** should the multi-level grids be used -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_MULTI_LEVEL_GRID = false;
+	/** should the pairwise connectivity pass be used -setting's default 
+	 * value ({@value}) */
+	public static final boolean DEF_PAIRWISE_CONNECTIVITY = false;
+	/** should the idle hosts be skipped -setting's default value ({@value}) */
+	public static final boolean DEF_SKIP_IDLE_HOSTS = false;
+	/** should the simultaneous events be batched -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_BATCH_EVENTS = false;
+	/** should the transfers finish at their exact times -setting's default
+	 * value ({@value}) */
+	public static final boolean DEF_PIPELINED_TRANSFERS = false;
+	/** how many hosts a single parallel movement task handles at most 
+	 * ({@value}); moving a host is cheap compared to forking a task */
+	private static final int MOVEMENT_CHUNK_SIZE = 256;
 
 	private int sizeX;
 	private int sizeY;
@@ -50,6 +160,9 @@ public class World {
 	private SimClock simClock;
 	private double nextQueueEventTime;
 	private EventQueue nextEventQueue;
+	/** time of the next event from other than the contact predictor or the
+	 * transfer completion queue */
+	private double nextExternalEventTime;
 	/** list of nodes; nodes are indexed by their network address */
 	private List<DTNHost> hosts;
 	private boolean simulateConnections;
@@ -64,6 +177,35 @@ public class World {
 
 	/** single ConnectivityCell's size is biggest radio range times this */
 	private int conCellSizeMult;
+	/** worker threads for parallel movement (null if the hosts are moved
+	 * serially) */
+	private ForkJoinPool workerPool;
+	/** number of threads used for moving the hosts */
+	private int nrofThreads;
+	/** should the hosts be moved in parallel */
+	private boolean parallelMovement;
+	/** active hosts that are moved in parallel */
+	private ArrayList<DTNHost> movingHosts;
+	/** which of the moving hosts were moved completely in parallel */
+	private boolean[] movedInParallel;
+	/** predictor of the contacts (null if contacts are not predicted) */
+	private ContactPredictor contactPredictor;
+	/** pairwise connectivity pass (null if interfaces check their 
+	 * neighbors themselves) */
+	private PairwiseContactManager pairwiseContacts;
+	/** should the idle hosts be put to sleep and skipped in the updates */
+	private boolean skipIdleHosts;
+	/** should the simultaneous events be processed before updating hosts */
+	private boolean batchEvents;
+	/** are external events being processed (in batch mode) */
+	private boolean processingEvents;
+	/** hosts looked up by the events of the current batch */
+	private List<DTNHost> touchedHosts;
+	/** is the host (by address) looked up by the events of the batch */
+	private boolean[] isTouched;
+	/** completion times of the ongoing transfers (null if the transfers
+	 * finish on the next update of the hosts) */
+	private TransferCompletionQueue transferCompletions;
 
 	/**
 	 * Constructor.
@@ -117,6 +259,80 @@ public class World {
 			throw new SettingsError("Too small value (" + conCellSizeMult +
 					") for " + SETTINGS_NS + "." + CELL_SIZE_MULT_S);
 		}
+
+		parallelMovement = DEF_PARALLEL_MOVEMENT;
+		if (s.contains(PARALLEL_MOVEMENT_S)) {
+			parallelMovement = s.getBoolean(PARALLEL_MOVEMENT_S);
+		}
+		if (s.contains(NROF_THREADS_S)) {
+			nrofThreads = s.getInt(NROF_THREADS_S);
+			if (nrofThreads < 1) {
+				throw new SettingsError("Too small value (" + nrofThreads +
+						") for " + SETTINGS_NS + "." + NROF_THREADS_S);
+			}
+		}
+		else {
+			nrofThreads = Runtime.getRuntime().availableProcessors();
+		}
+
+		if (parallelMovement) {
+			this.workerPool = new ForkJoinPool(nrofThreads);
+			this.movingHosts = new ArrayList<DTNHost>(this.hosts.size());
+			this.movedInParallel = new boolean[this.hosts.size()];
+		}
+		else { // null pointer means "move serially"
+			this.workerPool = null;
+			this.nrofThreads = 1;
+		}
+
+		boolean predictContacts = DEF_CONTACT_PREDICTION;
+		if (s.contains(CONTACT_PREDICTION_S)) {
+			predictContacts = s.getBoolean(CONTACT_PREDICTION_S);
+		}
+		if (predictContacts && this.simulateConnections) {
+			this.contactPredictor = new ContactPredictor(this.hosts, 
+					this.sizeX, this.sizeY);
+		}
+		else { // null pointer means "check contacts on every update"
+			this.contactPredictor = null;
+		}
+
+		boolean pairwise = DEF_PAIRWISE_CONNECTIVITY;
+		if (s.contains(PAIRWISE_CONNECTIVITY_S)) {
+			pairwise = s.getBoolean(PAIRWISE_CONNECTIVITY_S);
+		}
+		if (pairwise && this.simulateConnections) {
+			/* interfaces handled by the predictor are left out */
+			this.pairwiseContacts = new PairwiseContactManager(this.hosts);
+		}
+		else { // null pointer means "interfaces check their neighbors"
+			this.pairwiseContacts = null;
+		}
+
+		this.skipIdleHosts = DEF_SKIP_IDLE_HOSTS;
+		if (s.contains(SKIP_IDLE_HOSTS_S)) {
+			this.skipIdleHosts = s.getBoolean(SKIP_IDLE_HOSTS_S);
+		}
+
+		this.batchEvents = DEF_BATCH_EVENTS;
+		if (s.contains(BATCH_EVENTS_S)) {
+			this.batchEvents = s.getBoolean(BATCH_EVENTS_S);
+		}
+		this.processingEvents = false;
+		this.touchedHosts = new ArrayList<DTNHost>();
+		this.isTouched = new boolean[this.hosts.size()];
+
+		boolean pipelined = DEF_PIPELINED_TRANSFERS;
+		if (s.contains(PIPELINED_TRANSFERS_S)) {
+			pipelined = s.getBoolean(PIPELINED_TRANSFERS_S);
+		}
+		if (pipelined) {
+			this.transferCompletions = new TransferCompletionQueue();
+		}
+		else { // null pointer means "finish transfers on host updates"
+			this.transferCompletions = null;
+		}
+		TransferCompletionQueue.setInstance(this.transferCompletions);
 	}
 
 	/**
@@ -156,6 +372,19 @@ public class World {
 				earliest = eq.nextEventsTime();
 			}
 		}
+		this.nextExternalEventTime = earliest;
+
+		if (contactPredictor != null && 
+				contactPredictor.nextEventsTime() < earliest) {
+			nextQueue = contactPredictor;
+			earliest = contactPredictor.nextEventsTime();
+		}
+
+		if (transferCompletions != null &&
+				transferCompletions.nextEventsTime() < earliest) {
+			nextQueue = transferCompletions;
+			earliest = transferCompletions.nextEventsTime();
+		}
 
 		this.nextEventQueue = nextQueue;
 		this.nextQueueEventTime = earliest;
@@ -164,25 +393,31 @@ public class World {
 	/** 
 	 * Update (move, connect, disconnect etc.) all hosts in the world.
 	 * Runs all external events that are due between the time when
-	 * this method is called and after one update interval.
+	 * this method is called and after one update interval. The hosts are
+	 * updated after every event or, if events are batched, after all the
+	 * events of the same time. Transfer completion and predicted contact
+	 * events update only the hosts they concern. The hosts are moved after
+	 * the last external event of the interval, and the transfer completions
+	 * and predicted contacts after that event are processed after moving
+	 * the hosts, so they don't change the time the movement starts at.
 	 */
 	public void update () {
 		double runUntil = SimClock.getTime() + this.updateInterval;
 
+		if (contactPredictor != null && !contactPredictor.isInitialized()) {
+			contactPredictor.update(); // predict the contacts of first round
+		}
 		setNextEventQueue();
 
 		/* process all events that are due until next interval update */
-		while (this.nextQueueEventTime <= runUntil) {
-			simClock.setTime(this.nextQueueEventTime);
-			ExternalEvent ee = this.nextEventQueue.nextEvent();
-			ee.processEvent(this);
-			updateHosts(); // update all hosts after every event
-			setNextEventQueue();
-		}
-
+		processEvents(runUntil, true);
 		moveHosts(this.updateInterval);
+		processEvents(runUntil, false);
 		simClock.setTime(runUntil);
 
+		if (contactPredictor != null) {
+			contactPredictor.update();
+		}
 		updateHosts();
 
 		/* inform all update listeners */
@@ -191,31 +426,119 @@ public class World {
 		}
 	}
 
+	/**
+	 * Processes the events that are due until the given time
+	 * @param runUntil Time until the events are processed
+	 * @param beforeMove If true, the processing stops at the first transfer
+	 * completion or predicted contact that comes after all external events
+	 * of the interval (i.e., when it's time to move the hosts)
+	 */
+	private void processEvents(double runUntil, boolean beforeMove) {
+		while (this.nextQueueEventTime <= runUntil) {
+			double eventTime = this.nextQueueEventTime;
+			boolean hostEvent = 
+				this.nextEventQueue == this.transferCompletions ||
+				this.nextEventQueue == this.contactPredictor;
+			if (beforeMove && hostEvent && 
+					this.nextExternalEventTime > runUntil) {
+				return; // the rest are processed after moving the hosts
+			}
+			simClock.setTime(eventTime);
+			if (hostEvent) {
+				/* these events update only the hosts they concern */
+				TimerWheel.getInstance().advance(eventTime);
+				this.nextEventQueue.nextEvent().processEvent(this);
+				setNextEventQueue();
+				continue;
+			}
+			this.processingEvents = this.batchEvents;
+			do {
+				ExternalEvent ee = this.nextEventQueue.nextEvent();
+				ee.processEvent(this);
+				if (this.batchEvents) {
+					setNextEventQueue();
+				}
+			} while (this.batchEvents && this.nextQueueEventTime == eventTime
+					&& this.nextEventQueue != this.transferCompletions
+					&& this.nextEventQueue != this.contactPredictor);
+			this.processingEvents = false;
+
+			updateHosts(); // update all hosts after every event (or batch)
+			setNextEventQueue();
+		}
+	}
+
 	/**
 	 * Updates all hosts (calls update for every one of them). If update
 	 * order randomizing is on (updateOrder array is defined), the calls
-	 * are made in random order.
+	 * are made in random order. If idle hosts are skipped, sleeping hosts aren't updated. If some
+	 * hosts were looked up by a batch of events, those hosts are updated
+	 * first.
 	 */
 	private void updateHosts() {
-		if (this.updateOrder == null) { // randomizing is off
-			for (int i=0, n = hosts.size();i < n; i++) {
-				if (this.isCancelled) {
-					break;
-				}
-				hosts.get(i).update(simulateConnections);
-			}
+		/* expire the timers (e.g., message TTLs) due by now */
+		TimerWheel.getInstance().advance(SimClock.getTime());
+
+		if (this.pairwiseContacts != null) {
+			pairwiseContacts.update();
 		}
-		else { // update order randomizing is on
+
+		List<DTNHost> order = this.hosts;
+		if (this.updateOrder != null) { // update order randomizing is on
 			assert this.updateOrder.size() == this.hosts.size() : 
 				"Nrof hosts has changed unexpectedly";
 			Random rng = new Random(SimClock.getIntTime());
 			Collections.shuffle(this.updateOrder, rng); 
-			for (int i=0, n = hosts.size();i < n; i++) {
+			order = this.updateOrder;
+		}
+
+		if (this.touchedHosts.isEmpty()) {
+			for (int i=0, n = order.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
 				}
-				this.updateOrder.get(i).update(simulateConnections);
-			}			
+				updateHost(order.get(i));
+			}
+		}
+		else {
+			/* first the hosts touched by the events, then the rest */
+			for (int pass=0; pass < 2; pass++) {
+				boolean touched = (pass == 0);
+				for (int i=0, n = order.size();i < n; i++) {
+					if (this.isCancelled) {
+						break;
+					}
+					DTNHost host = order.get(i);
+					if (this.isTouched[host.getAddress()] == touched) {
+						updateHost(host);
+					}
+				}
+			}
+			for (DTNHost host : this.touchedHosts) {
+				this.isTouched[host.getAddress()] = false;
+			}
+			this.touchedHosts.clear();
+		}
+
+	}
+
+	/**
+	 * Updates a host unless it is sleeping. If skipping the idle hosts is
+	 * enabled, the host is put to sleep if it is idle after the update.
+	 * @param host The host to update
+	 */
+	private void updateHost(DTNHost host) {
+		if (!this.skipIdleHosts) {
+			host.update(simulateConnections);
+			return;
+		}
+
+		if (host.isSleeping()) {
+			return; // nothing to do until something wakes the host up
+		}
+		host.update(simulateConnections);
+		if (host.isIdle()) {
+			host.sleep();
 		}
 	}
 
@@ -224,12 +547,53 @@ public class World {
 	 * @param timeIncrement The time how long all nodes should move
 	 */
 	private void moveHosts(double timeIncrement) {
+		if (this.parallelMovement) {
+			moveHostsInParallel(timeIncrement);
+			return;
+		}
+
 		for (int i=0,n = hosts.size(); i<n; i++) {
 			DTNHost host = hosts.get(i);
 			host.move(timeIncrement);			
 		}		
 	}
 
+	/**
+	 * Moves all active hosts in the world in parallel. The hosts move
+	 * along their current paths in parallel, and the hosts that run out of
+	 * waypoints during the move (and need e.g. random values or a new path
+	 * from their movement model) or whose new waypoints have listeners
+	 * finish their moves serially in the normal order after the parallel
+	 * phase.
+	 * @param timeIncrement The time how long all nodes should move
+	 */
+	private void moveHostsInParallel(double timeIncrement) {
+		this.movingHosts.clear();
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			DTNHost host = hosts.get(i);
+			if (host.isActive()) {
+				this.movingHosts.add(host);
+			}
+		}
+
+		workerPool.invoke(new MovementTask(0, movingHosts.size(), 
+				timeIncrement));
+
+		for (int i=0, n = movingHosts.size(); i < n; i++) {
+			if (!this.movedInParallel[i]) {
+				movingHosts.get(i).finishMove(timeIncrement);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of threads used for moving the hosts
+	 * @return The number of threads (1 if the hosts are moved serially)
+	 */
+	public int getNrofThreads() {
+		return this.nrofThreads;
+	}
+
 	/**
 	 * Asynchronously cancels the currently running simulation
 	 */
@@ -237,6 +601,16 @@ public class World {
 		this.isCancelled = true;
 	}
 
+	/**
+	 * Stops the worker threads of parallel movement (if any). Must be called
+	 * when the simulation has ended; the hosts can't be moved after this.
+	 */
+	public void shutdown() {
+		if (this.workerPool != null) {
+			this.workerPool.shutdown();
+		}
+	}
+
 	/**
 	 * Returns the hosts in a list
 	 * @return the hosts in a list
@@ -262,7 +636,9 @@ public class World {
 	}
 
 	/**
-	 * Returns a node from the world by its address
+	 * Returns a node from the world by its address. If a batch of events is
+	 * being processed, the node is also marked to be updated first after
+	 * the batch.
 	 * @param address The address of the node
 	 * @return The requested node or null if it wasn't found
 	 */
@@ -276,6 +652,12 @@ public class World {
 		assert node.getAddress() == address : "Node indexing failed. " + 
 			"Node " + node + " in index " + address;
 
+		if (this.processingEvents && !this.isTouched[address]) {
+			/* the host is updated first after the batch of events */
+			this.isTouched[address] = true;
+			this.touchedHosts.add(node);
+		}
+
 		return node; 
 	}
 
@@ -287,4 +669,43 @@ public class World {
 	public void scheduleUpdate(double simTime) {
 		scheduledUpdates.addUpdate(simTime);
 	}
+
+	/**
+	 * Fork/join task that moves a range of the moving hosts along their
+	 * current paths. Ranges bigger than {@link #MOVEMENT_CHUNK_SIZE} hosts
+	 * are split in half.
+	 */
+	private class MovementTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+		private double timeIncrement;
+
+		/**
+		 * Creates a task for the moving hosts in the given index range
+		 * @param from Index of the first host
+		 * @param to Index after the last host
+		 * @param timeIncrement The time how long the hosts should move
+		 */
+		public MovementTask(int from, int to, double timeIncrement) {
+			this.from = from;
+			this.to = to;
+			this.timeIncrement = timeIncrement;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= MOVEMENT_CHUNK_SIZE) {
+				for (int i=from; i < to; i++) {
+					movedInParallel[i] = 
+						movingHosts.get(i).moveTowardsDestination(timeIncrement);
+				}
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new MovementTask(from, middle, timeIncrement), 
+					new MovementTask(middle, to, timeIncrement));
+		}
+	}
 }
@@ -134,8 +134,7 @@ public class APInterface extends NetworkInterface
 		// of or all of the other declared interface types
 		for(int i = 0; i < interfaceTypes.length; i++)
 		{
-			optimizers[i] = ConnectivityGrid.ConnectivityGridFactory(
-				interfaceTypes[i].hashCode(), transmitRange);
+			optimizers[i] = getOptimizer(interfaceTypes[i], transmitRange);
 			optimizers[i].addInterface(this);
 		}
 	}
@@ -198,6 +197,14 @@ public class APInterface extends NetworkInterface
 
 	}
 
+	@Override
+	public void updateLocationInOptimizer()
+	{
+		for(int i = 0; i < optimizers.length; i++){
+			optimizers[i].updateLocation(this);
+		}
+	}
+
 	@Override
 	public void update()
 	{
@@ -219,11 +226,7 @@ public class APInterface extends NetworkInterface
 		
 		// Then find new possible connections
 		for(int j = 0; j < optimizers.length; j++){
-			Collection<NetworkInterface> interfaces =
-				optimizers[j].getNearInterfaces(this);
-			for (NetworkInterface i : interfaces) {
-				connect(i);
-			}
+			optimizers[j].visitNearInterfaces(this, connector);
 		}
 	}
 
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import movement.MovementModel;
+import core.Coord;
+import core.DTNSim;
+import core.NetworkInterface;
+import core.Settings;
+
+/**
+ * <P>
+ * Overlay grid of the world that works like {@link ConnectivityGrid} but
+ * stores the interfaces in primitive arrays instead of per-cell lists and
+ * a hash map.</P>
+ *
+ * <P>Every interface has a slot (found from its network address) in
+ * parallel arrays for the interface and its cell id. The slots are kept in
+ * an array sorted by the cell id (using counting sort), so the interfaces
+ * of a cell are next to each other. Interfaces that change cell between the
+ * sorts are kept in per-cell linked lists of moved slots (also stored in
+ * arrays) and the array is sorted again only when a large part of the
+ * interfaces have moved.</P>
+ *
+ * <P><strong>Note:</strong> this class does NOT support negative
+ * coordinates either.</P>
+ */
+public class ArrayConnectivityGrid extends ConnectivityOptimizer {
+	/** how many moved slots are allowed before sorting at least */
+	private static final int MIN_MOVED_LIMIT = 32;
+	/** how large part of the slots may be moved before sorting again */
+	private static final int MOVED_LIMIT_DIVISOR = 4;
+	/** initial size of the slot arrays */
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static int worldSizeX;
+	private static int worldSizeY;
+	static HashMap<Integer,ArrayConnectivityGrid> gridobjects;
+
+	private int cellSize;
+	private int rows;
+	private int cols;
+	/** number of cells in a row, including the empty cells on both sides */
+	private int stride;
+	private int nrofCells;
+
+	/** number of interfaces in the grid */
+	private int size;
+	/** interfaces by slot */
+	private NetworkInterface[] interfaces;
+	/** slots by network address (-1 for interfaces not in the grid) */
+	private int[] slotOfAddress;
+	/** current cells by slot */
+	private int[] cellOf;
+	/** cells by slot at the time of the last sort (-1 for the slots added
+	 * after it) */
+	private int[] sortedCellOf;
+
+	/** slots sorted by cell */
+	private int[] sorted;
+	/** index of the first slot of each cell in the sorted array */
+	private int[] cellStart;
+
+	/** first moved slot of each cell (or -1 if none) */
+	private int[] movedHead;
+	/** next moved slot in the same cell by slot (or -1 if none) */
+	private int[] movedNext;
+	/** is the slot in the moved list of its current cell */
+	private boolean[] isMoved;
+	/** number of slots in the moved lists */
+	private int nrofMoved;
+	/** how many moved slots are allowed before sorting again */
+	private int movedLimit;
+
+	static {
+		DTNSim.registerForReset(
+				ArrayConnectivityGrid.class.getCanonicalName());
+		reset();
+	}
+
+	public static void reset() {
+		gridobjects = new HashMap<Integer,ArrayConnectivityGrid>();
+
+		Settings s = new Settings(MovementModel.MOVEMENT_MODEL_NS);
+		int [] worldSize = s.getCsvInts(MovementModel.WORLD_SIZE,2);
+		worldSizeX = worldSize[0];
+		worldSizeY = worldSize[1];
+	}
+
+	/**
+	 * Creates a new overlay connectivity grid
+	 * @param cellSize Cell's edge's length (must be larger than the largest
+	 * 	radio coverage's diameter)
+	 */
+	private ArrayConnectivityGrid(int cellSize) {
+		this.cellSize = cellSize;
+		this.rows = worldSizeY/cellSize + 1;
+		this.cols = worldSizeX/cellSize + 1;
+		// leave empty cells on both sides to make neighbor search easier
+		this.stride = cols + 2;
+		this.nrofCells = (rows + 2) * stride;
+
+		this.size = 0;
+		this.interfaces = new NetworkInterface[INITIAL_CAPACITY];
+		this.slotOfAddress = new int[INITIAL_CAPACITY];
+		Arrays.fill(slotOfAddress, -1);
+		this.cellOf = new int[INITIAL_CAPACITY];
+		this.sortedCellOf = new int[INITIAL_CAPACITY];
+		this.sorted = new int[INITIAL_CAPACITY];
+		this.cellStart = new int[nrofCells + 1];
+		this.movedHead = new int[nrofCells];
+		Arrays.fill(movedHead, -1);
+		this.movedNext = new int[INITIAL_CAPACITY];
+		this.isMoved = new boolean[INITIAL_CAPACITY];
+		this.nrofMoved = 0;
+		updateMovedLimit();
+	}
+
+	/**
+	 * Returns a connectivity grid object based on a hash value
+	 * @param key A hash value that separates different interfaces from each
+	 * other
+	 * @param cellSize  Cell's edge's length (must be larger than the largest
+	 * 	radio coverage's diameter)
+	 * @return The connectivity grid object for a specific interface
+	 */
+	public static ArrayConnectivityGrid ArrayConnectivityGridFactory(int key,
+			double cellSize) {
+		ArrayConnectivityGrid grid = gridobjects.get(key);
+		if (grid == null) {
+			grid = new ArrayConnectivityGrid((int)Math.ceil(cellSize));
+			gridobjects.put(key, grid);
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds a network interface to the overlay grid (unless it is already
+	 * present). The new interface is put to the moved list of its cell
+	 * until the next sort.
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		int address = ni.getAddress();
+		if (address < slotOfAddress.length && slotOfAddress[address] >= 0) {
+			return; // already in the grid
+		}
+
+		ensureCapacity(size + 1, address + 1);
+		int slot = size++;
+		interfaces[slot] = ni;
+		slotOfAddress[address] = slot;
+		setLocation(slot, ni.getLocation());
+		sortedCellOf[slot] = -1; // not in the sorted array
+		addMoved(slot, cellOf[slot]);
+		updateMovedLimit();
+		if (nrofMoved > movedLimit) {
+			sortByCell();
+		}
+	}
+
+	/**
+	 * Adds interfaces to overlay grid
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Updates the interface's location and (if necessary) its cell
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		int slot = getSlot(ni);
+		if (slot < 0) {
+			return;
+		}
+
+		int oldCell = cellOf[slot];
+		setLocation(slot, ni.getLocation());
+		int newCell = cellOf[slot];
+		if (newCell != oldCell) {
+			if (isMoved[slot]) {
+				removeMoved(slot, oldCell);
+			}
+			if (newCell != sortedCellOf[slot]) {
+				addMoved(slot, newCell);
+			}
+		}
+		if (nrofMoved > movedLimit) {
+			sortByCell();
+		}
+	}
+
+	/**
+	 * Returns all interfaces using the same technology and channel that are in
+	 * neighboring cells
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface ni) {
+		final ArrayList<NetworkInterface> near =
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(ni, new NeighborVisitor() {
+			public void visit(NetworkInterface other) {
+				near.add(other);
+			}
+		});
+		return near;
+	}
+
+	/**
+	 * Calls the visitor for all interfaces using the same technology and
+	 * channel that are in the cell of the interface or in the neighboring
+	 * cells. The cells are read from the sorted slot array, so nothing is
+	 * allocated for the query. Queries only read the arrays (the sorting is
+	 * done when interfaces are added or locations are updated), so they can
+	 * be run concurrently.
+	 */
+	@Override
+	public void visitNearInterfaces(NetworkInterface ni,
+			NeighborVisitor visitor) {
+		if (getSlot(ni) < 0) {
+			return;
+		}
+
+		Coord c = ni.getLocation();
+		int row = rowFromY(c.getY());
+		int col = colFromX(c.getX());
+
+		for (int i = row-1; i <= row+1; i++) {
+			int first = i * stride + col - 1;
+			for (int cell = first; cell <= first + 2; cell++) {
+				/* interfaces that were in the cell when sorted */
+				for (int k = cellStart[cell], end = cellStart[cell+1];
+						k < end; k++) {
+					int slot = sorted[k];
+					if (cellOf[slot] == cell) { // hasn't moved away
+						visitor.visit(interfaces[slot]);
+					}
+				}
+				/* interfaces that have moved to the cell after the sort */
+				for (int slot = movedHead[cell]; slot >= 0;
+						slot = movedNext[slot]) {
+					visitor.visit(interfaces[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns all interfaces that use the same technology and channel
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return Arrays.asList(interfaces).subList(0, size);
+	}
+
+	/**
+	 * Sorts the slots by their current cell using counting sort
+	 */
+	private void sortByCell() {
+		Arrays.fill(cellStart, 0);
+		for (int slot = 0; slot < size; slot++) {
+			cellStart[cellOf[slot] + 1]++;
+		}
+		for (int cell = 0; cell < nrofCells; cell++) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+
+		/* cellStart[cell+1] is now the end of the cell; fill the cells
+		 * from the end so the slots stay in ascending order */
+		for (int slot = size - 1; slot >= 0; slot--) {
+			int cell = cellOf[slot];
+			sorted[--cellStart[cell + 1]] = slot;
+			sortedCellOf[slot] = cell;
+		}
+		/* cellStart[cell+1] is now the start of the cell; shift back */
+		System.arraycopy(cellStart, 1, cellStart, 0, nrofCells);
+		cellStart[nrofCells] = size;
+
+		for (int slot = 0; slot < size; slot++) {
+			if (isMoved[slot]) {
+				movedHead[cellOf[slot]] = -1;
+				isMoved[slot] = false;
+			}
+		}
+		nrofMoved = 0;
+	}
+
+	/**
+	 * Adds a slot to the moved list of a cell
+	 * @param slot The slot
+	 * @param cell The cell
+	 */
+	private void addMoved(int slot, int cell) {
+		movedNext[slot] = movedHead[cell];
+		movedHead[cell] = slot;
+		isMoved[slot] = true;
+		nrofMoved++;
+	}
+
+	/**
+	 * Removes a slot from the moved list of a cell
+	 * @param slot The slot
+	 * @param cell The cell
+	 */
+	private void removeMoved(int slot, int cell) {
+		if (movedHead[cell] == slot) {
+			movedHead[cell] = movedNext[slot];
+		}
+		else {
+			int prev = movedHead[cell];
+			while (movedNext[prev] != slot) {
+				prev = movedNext[prev];
+			}
+			movedNext[prev] = movedNext[slot];
+		}
+		isMoved[slot] = false;
+		nrofMoved--;
+	}
+
+	/**
+	 * Stores the cell of a new location for a slot
+	 * @param slot The slot
+	 * @param c The location
+	 */
+	private void setLocation(int slot, Coord c) {
+		int row = rowFromY(c.getY());
+		int col = colFromX(c.getX());
+
+		assert row > 0 && row <= rows && col > 0 && col <= cols : "Location " +
+		c + " is out of world's bounds";
+
+		cellOf[slot] = row * stride + col;
+	}
+
+	/**
+	 * Returns the row of the grid the y coordinate is in
+	 * @param y The y coordinate
+	 * @return The row index
+	 */
+	private int rowFromY(double y) {
+		// +1 due empty cells on both sides of the matrix
+		return (int)(y/cellSize) + 1;
+	}
+
+	/**
+	 * Returns the column of the grid the x coordinate is in
+	 * @param x The x coordinate
+	 * @return The column index
+	 */
+	private int colFromX(double x) {
+		// +1 due empty cells on both sides of the matrix
+		return (int)(x/cellSize) + 1;
+	}
+
+	/**
+	 * Returns the slot of an interface
+	 * @param ni The interface
+	 * @return The slot or -1 if the interface is not in the grid
+	 */
+	private int getSlot(NetworkInterface ni) {
+		int address = ni.getAddress();
+		if (address >= slotOfAddress.length) {
+			return -1;
+		}
+		int slot = slotOfAddress[address];
+		if (slot < 0 || interfaces[slot] != ni) {
+			return -1;
+		}
+		return slot;
+	}
+
+	/**
+	 * Makes sure the arrays have room for the given number of slots and
+	 * addresses
+	 * @param nrofSlots Number of slots needed
+	 * @param nrofAddresses Number of addresses needed
+	 */
+	private void ensureCapacity(int nrofSlots, int nrofAddresses) {
+		if (nrofAddresses > slotOfAddress.length) {
+			int oldLength = slotOfAddress.length;
+			slotOfAddress = Arrays.copyOf(slotOfAddress,
+					Math.max(nrofAddresses, 2 * oldLength));
+			Arrays.fill(slotOfAddress, oldLength, slotOfAddress.length, -1);
+		}
+		if (nrofSlots > interfaces.length) {
+			int newLength = Math.max(nrofSlots, 2 * interfaces.length);
+			interfaces = Arrays.copyOf(interfaces, newLength);
+			cellOf = Arrays.copyOf(cellOf, newLength);
+			sortedCellOf = Arrays.copyOf(sortedCellOf, newLength);
+			sorted = Arrays.copyOf(sorted, newLength);
+			movedNext = Arrays.copyOf(movedNext, newLength);
+			isMoved = Arrays.copyOf(isMoved, newLength);
+		}
+	}
+
+	/**
+	 * Sets the number of moved slots allowed before sorting again. The
+	 * moved slots don't slow down the queries much but the interfaces that
+	 * have moved away are still skipped in the sorted array.
+	 */
+	private void updateMovedLimit() {
+		this.movedLimit = Math.max(MIN_MOVED_LIMIT,
+				size / MOVED_LIMIT_DIVISOR);
+	}
+
+	/**
+	 * Returns a string representation of the grid
+	 * @return a string representation of the grid
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of size " +
+			this.cols + "x" + this.rows + ", cell size=" + this.cellSize +
+			", " + this.size + " interfaces";
+	}
+}
@@ -149,30 +149,23 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	}
 
 	/**
-	 * Finds all neighboring cells and the cell itself based on the coordinates
+	 * Returns the row of the grid cell matrix the coordinates are in
 	 * @param c The coordinates
-	 * @return Array of neighboring cells 
+	 * @return The row index
 	 */
-	private GridCell[] getNeighborCellsByCoord(Coord c) {
+	private int rowFromCoord(Coord c) {
 		// +1 due empty cells on both sides of the matrix
-		int row = (int)(c.getY()/cellSize) + 1;
-		int col = (int)(c.getX()/cellSize) + 1;
-		return getNeighborCells(row,col);
+		return (int)(c.getY()/cellSize) + 1;
 	}
 
 	/**
-	 * Returns an array of Cells that contains the neighbors of a certain
-	 * cell and the cell itself.
-	 * @param row Row index of the cell
-	 * @param col Column index of the cell
-	 * @return Array of neighboring Cells
+	 * Returns the column of the grid cell matrix the coordinates are in
+	 * @param c The coordinates
+	 * @return The column index
 	 */
-	private GridCell[] getNeighborCells(int row, int col) {
-		return new GridCell[] {
-			cells[row-1][col-1],cells[row-1][col],cells[row-1][col+1],//1st row
-			cells[row][col-1],cells[row][col],cells[row][col+1],//2nd row
-			cells[row+1][col-1],cells[row+1][col],cells[row+1][col+1]//3rd row
-		};
+	private int colFromCoord(Coord c) {
+		// +1 due empty cells on both sides of the matrix
+		return (int)(c.getX()/cellSize) + 1;
 	}
 
 	/**
@@ -181,9 +174,8 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 * @return The cell
 	 */
 	private GridCell cellFromCoord(Coord c) {
-		// +1 due empty cells on both sides of the matrix
-		int row = (int)(c.getY()/cellSize) + 1; 
-		int col = (int)(c.getX()/cellSize) + 1;
+		int row = rowFromCoord(c); 
+		int col = colFromCoord(c);
 
 		assert row > 0 && row <= rows && col > 0 && col <= cols : "Location " + 
 		c + " is out of world's bounds";
@@ -204,20 +196,43 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 */
 	public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface netinterf) {
-		ArrayList<NetworkInterface> ni = new ArrayList<NetworkInterface>();
-		ni.clear();
-
-		GridCell loc = (GridCell)ginterfaces.get(netinterf);
-		if (loc != null) {	
-			GridCell[] neighbors = 
-				getNeighborCellsByCoord(netinterf.getLocation());
-			for (int i=0; i < neighbors.length; i++) {
-				ni.addAll(neighbors[i].getInterfaces());
+		final ArrayList<NetworkInterface> ni = 
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(netinterf, new NeighborVisitor() {
+			public void visit(NetworkInterface near) {
+				ni.add(near);
 			}
-		}
+		});
 		return ni;
 	}
 
+	/**
+	 * Calls the visitor for all interfaces using the same technology and
+	 * channel that are in the cell of the interface or in the neighboring
+	 * cells. The cells are walked through in place so nothing is allocated
+	 * for the query.
+	 */
+	@Override
+	public void visitNearInterfaces(NetworkInterface netinterf, 
+			NeighborVisitor visitor) {
+		if (!ginterfaces.containsKey(netinterf)) {
+			return;
+		}
+
+		Coord c = netinterf.getLocation();
+		int row = rowFromCoord(c);
+		int col = colFromCoord(c);
+		for (int i = row-1; i <= row+1; i++) {
+			for (int j = col-1; j <= col+1; j++) {
+				ArrayList<NetworkInterface> cellInterfaces = 
+					cells[i][j].interfaces;
+				for (int k=0, n=cellInterfaces.size(); k < n; k++) {
+					visitor.visit(cellInterfaces.get(k));
+				}
+			}
+		}
+	}
+
 
 	/**
 	 * Returns a string representation of the ConnectivityCells object
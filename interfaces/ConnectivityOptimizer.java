@@ -40,6 +40,22 @@ abstract public class ConnectivityOptimizer {
 	abstract public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface ni);
 
+	/**
+	 * Calls the visitor for all network interfaces that might be located so
+	 * that they can be connected with the network interface. Optimizers
+	 * should override this to go through the interfaces without creating
+	 * a new collection for every query.
+	 * 
+	 * @param ni network interface that needs to be connected
+	 * @param visitor The visitor that is called for every near interface
+	 */
+	public void visitNearInterfaces(NetworkInterface ni, 
+			NeighborVisitor visitor) {
+		for (NetworkInterface near : getNearInterfaces(ni)) {
+			visitor.visit(near);
+		}
+	}
+
 	/**
 	 * Finds all other interfaces that are registered to the
 	 * ConnectivityOptimizer
@@ -0,0 +1,23 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+/**
+ * Interface for classes that connect and disconnect 
+ * {@link SimpleBroadcastInterface}s instead of the interfaces checking their
+ * neighbors themselves on every update.
+ * @see SimpleBroadcastInterface#setContactManager(ContactManager)
+ */
+public interface ContactManager {
+
+	/**
+	 * Method is called when the range, speed or scanning interval of a 
+	 * managed interface has been changed. If the manager can't handle the
+	 * interface anymore, it should remove the interface from the manager
+	 * and set the interface's manager to null.
+	 * @param ni The changed interface
+	 */
+	public void interfaceChanged(SimpleBroadcastInterface ni);
+}
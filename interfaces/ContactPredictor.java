@@ -0,0 +1,587 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package interfaces;
+
+import input.EventQueue;
+import input.ExternalEvent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import core.Connection;
+import core.Coord;
+import core.DTNHost;
+import core.IntHashMap;
+import core.NetworkInterface;
+import core.SimClock;
+import core.World;
+
+/**
+ * <P>
+ * Event-driven contact detection for {@link SimpleBroadcastInterface}s.
+ * Instead of every interface checking all its neighbors on every update,
+ * the predictor follows the linear movement of each host along its current
+ * path segment and computes the exact times when two interfaces get in, or
+ * out of, each other's range. These times are kept in a priority queue that
+ * the {@link World} processes like any other {@link EventQueue}, so the
+ * connections go up and down exactly at the predicted times. An event
+ * updates only the hosts of its two interfaces.</P>
+ *
+ * <P>An interface's contacts are predicted again (it is "rescanned") only
+ * when its host changes its movement (e.g. reaches a waypoint or starts
+ * waiting), when its range changes, and when the host has moved half of
+ * the largest radio range since the last rescan (to find interfaces that
+ * were too far away in the previous rescan). Hosts that don't move cost
+ * nothing between their contacts.</P>
+ *
+ * <P>Only interfaces without a scanning interval and activeness model can be
+ * predicted. Other interfaces keep checking their neighbors on every update.
+ * </P>
+ */
+public class ContactPredictor implements EventQueue, ContactManager {
+	/** how much (meters) the actual location of a host may differ from the
+	 * predicted location before the movement is considered changed */
+	private static final double LOCATION_DELTA = 0.000001;
+	/** how much (seconds) later a contact may start than predicted and
+	 * still be considered started */
+	private static final double TIME_DELTA = 0.000001;
+
+	/** all predicted interfaces */
+	private List<Track> tracks;
+	/** the tracks by the addresses of their interfaces */
+	private IntHashMap<Track> tracksByAddress;
+	/** tracks that need to be rescanned in the next update */
+	private List<Track> changedTracks;
+	/** the predicted contact events */
+	private PriorityQueue<ContactEvent> events;
+	/** largest radio range of the predicted interfaces */
+	private double maxRange;
+	/** how far a host may move until its contacts are rescanned */
+	private double rescanDistance;
+
+	/** overlay grid for finding the interfaces close to a host */
+	private Cell[][] cells;
+	private double cellSize;
+	private int rows;
+	private int cols;
+	/** has the first update been done */
+	private boolean initialized;
+
+	/**
+	 * Creates a predictor for the interfaces of the given hosts. All
+	 * interfaces that can be predicted are registered to the predictor.
+	 * @param hosts The hosts in the world
+	 * @param worldSizeX Width of the world
+	 * @param worldSizeY Height of the world
+	 */
+	public ContactPredictor(List<DTNHost> hosts, int worldSizeX,
+			int worldSizeY) {
+		this.tracks = new ArrayList<Track>();
+		this.tracksByAddress = new IntHashMap<Track>();
+		this.changedTracks = new ArrayList<Track>();
+		this.events = new PriorityQueue<ContactEvent>(11,
+				new EventComparator());
+		this.initialized = false;
+
+		List<SimpleBroadcastInterface> predicted =
+			new ArrayList<SimpleBroadcastInterface>();
+		for (DTNHost host : hosts) {
+			for (NetworkInterface ni : host.getInterfaces()) {
+				if (ni instanceof SimpleBroadcastInterface &&
+						((SimpleBroadcastInterface)ni).isManageable()) {
+					predicted.add((SimpleBroadcastInterface)ni);
+					if (ni.getTransmitRange() > maxRange) {
+						maxRange = ni.getTransmitRange();
+					}
+				}
+			}
+		}
+
+		/* all interfaces within cellSize are found from the neighbor cells
+		 * and a contact between two interfaces that are further away can't
+		 * start before one of them has moved rescanDistance */
+		this.rescanDistance = maxRange / 2;
+		this.cellSize = Math.max(2 * maxRange, 1);
+		this.rows = (int)(worldSizeY / cellSize) + 1;
+		this.cols = (int)(worldSizeX / cellSize) + 1;
+		this.cells = new Cell[rows][cols];
+		for (int i=0; i<rows; i++) {
+			for (int j=0; j<cols; j++) {
+				this.cells[i][j] = new Cell(i, j);
+			}
+		}
+
+		for (SimpleBroadcastInterface ni : predicted) {
+			Track t = new Track(ni, tracks.size());
+			tracks.add(t);
+			tracksByAddress.put(ni.getAddress(), t);
+			ni.setContactManager(this);
+		}
+	}
+
+	/**
+	 * Updates the predictions. Checks which hosts have changed their
+	 * movement since the last update and predicts their contacts again.
+	 * Also updates the interfaces' locations in the connectivity optimizers,
+	 * so the other interfaces find them even if their hosts aren't updated.
+	 * Should be called after the hosts have been moved, when the clock shows
+	 * the time of the new locations.
+	 */
+	public void update() {
+		double now = SimClock.getTime();
+
+		for (int i=0, n=tracks.size(); i<n; i++) {
+			Track t = tracks.get(i);
+			if (t.removed) {
+				continue;
+			}
+			t.updateCell();
+			t.ni.updateLocationInOptimizer(); // the host may be sleeping
+			if (!initialized || t.needsRescan || !t.isOnTrack(now)) {
+				t.setMovement(now);
+				t.version++; // invalidates the old predictions
+				t.needsRescan = true;
+				changedTracks.add(t);
+			}
+		}
+		initialized = true;
+
+		for (int i=0, n=changedTracks.size(); i<n; i++) {
+			rescan(changedTracks.get(i), now);
+		}
+		for (int i=0, n=changedTracks.size(); i<n; i++) {
+			changedTracks.get(i).needsRescan = false;
+		}
+		changedTracks.clear();
+	}
+
+	/**
+	 * Returns true if the predictor has been updated at least once
+	 * @return True if the predictor has been updated at least once
+	 */
+	public boolean isInitialized() {
+		return this.initialized;
+	}
+
+	/**
+	 * Requests the contacts of a changed interface to be predicted again in
+	 * the next update. If the interface's contacts can't be predicted 
+	 * anymore (it has got a scanning interval or a range bigger than the
+	 * largest range at the time the predictor was created), the interface is
+	 * removed from the predictor. The existing predictions of a removed
+	 * interface are discarded and it has to check its neighbors itself
+	 * from now on.
+	 * @param ni The changed interface
+	 */
+	public void interfaceChanged(SimpleBroadcastInterface ni) {
+		Track t = getTrack(ni);
+		if (t == null) {
+			return;
+		}
+
+		if (ni.isManageable() && ni.getTransmitRange() <= maxRange) {
+			t.needsRescan = true;
+		}
+		else {
+			t.removed = true;
+			t.version++;
+			t.cell.tracks.remove(t);
+			ni.setContactManager(null);
+		}
+	}
+
+	/**
+	 * Predicts all contacts of a track again
+	 * @param t The track
+	 * @param now Current simulation time
+	 */
+	private void rescan(Track t, double now) {
+		int row = t.cell.row;
+		int col = t.cell.col;
+
+		for (int i=Math.max(row-1, 0); i <= Math.min(row+1, rows-1); i++) {
+			for (int j=Math.max(col-1, 0); j <= Math.min(col+1, cols-1); j++){
+				List<Track> near = cells[i][j].tracks;
+				for (int k=0, n=near.size(); k<n; k++) {
+					Track other = near.get(k);
+					if (other == t || (other.needsRescan &&
+							other.index < t.index)) {
+						continue; // same track or the other one does this
+					}
+					if (!other.ni.getInterfaceType().equals(
+							t.ni.getInterfaceType())) {
+						continue;
+					}
+					if (t.index < other.index) {
+						predict(t, other, now);
+					}
+					else {
+						predict(other, t, now);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Predicts the next contact event (up or down) of two tracks and
+	 * adds it to the event queue (if the event happens while both tracks
+	 * are valid).
+	 * @param a The first track
+	 * @param b The second track
+	 * @param now Current simulation time
+	 */
+	private void predict(Track a, Track b, double now) {
+		double range = Math.min(a.ni.getTransmitRange(),
+				b.ni.getTransmitRange());
+		double dx = b.getX(now) - a.getX(now);
+		double dy = b.getY(now) - a.getY(now);
+		double dvx = b.vx - a.vx;
+		double dvy = b.vy - a.vy;
+
+		double qa = dvx*dvx + dvy*dvy;
+		double qb = 2 * (dx*dvx + dy*dvy);
+		double qc = dx*dx + dy*dy - range*range;
+		boolean connected = findConnection(a.ni, b.ni) != null;
+		double time;
+
+		if (!connected) {
+			if (qc <= 0) {
+				time = now; // already within range
+			}
+			else {
+				double disc = qb*qb - 4*qa*qc;
+				if (qa == 0 || disc < 0) {
+					return; // never gets within range
+				}
+				double tau = (-qb - Math.sqrt(disc)) / (2*qa);
+				if (tau < 0) {
+					return; // only getting further away
+				}
+				time = now + tau;
+			}
+		}
+		else {
+			double disc = qb*qb - 4*qa*qc;
+			if (qa == 0 || disc < 0) {
+				if (qc <= 0) {
+					return; // distance doesn't change
+				}
+				time = now; // out of range
+			}
+			else {
+				double sqrtDisc = Math.sqrt(disc);
+				double tauIn = (-qb - sqrtDisc) / (2*qa);
+				double tauOut = (-qb + sqrtDisc) / (2*qa);
+				if (tauOut < 0 || tauIn > TIME_DELTA) {
+					time = now; // already out of range
+				}
+				else { /* in range (or just got in range when the
+				          rounding errors may put it slightly out) */
+					time = now + tauOut;
+				}
+			}
+		}
+
+		if (time <= Math.min(a.validUntil, b.validUntil)) {
+			events.add(new ContactEvent(time, a, b, !connected));
+		}
+	}
+
+	/**
+	 * Returns the connection between two interfaces
+	 * @param a The first interface
+	 * @param b The second interface
+	 * @return The connection or null if the interfaces are not connected
+	 */
+	private Connection findConnection(NetworkInterface a,
+			NetworkInterface b) {
+		List<Connection> connections = a.getConnections();
+		for (int i=0, n=connections.size(); i<n; i++) {
+			Connection con = connections.get(i);
+			if (con.getOtherInterface(a) == b) {
+				return con;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Connects or disconnects the interfaces of an event and predicts the
+	 * next event for them. If the connection changed, the hosts of the
+	 * interfaces are updated (without simulating their connections).
+	 * @param e The event
+	 */
+	private void processContactEvent(ContactEvent e) {
+		Track a = e.a;
+		Track b = e.b;
+		Connection con = findConnection(a.ni, b.ni);
+		boolean changed = false;
+
+		if (e.up) {
+			if (con == null) {
+				a.ni.createConnection(b.ni);
+				changed = true;
+			}
+			predict(a, b, e.getTime());
+		}
+		else if (con != null) {
+			con.disconnect(a.ni);
+			changed = true;
+		}
+
+		if (changed) {
+			a.ni.getHost().update(false);
+			b.ni.getHost().update(false);
+		}
+	}
+
+	/**
+	 * Returns the track of an interface
+	 * @param ni The interface
+	 * @return The track or null if the interface isn't predicted
+	 */
+	private Track getTrack(SimpleBroadcastInterface ni) {
+		Track t = tracksByAddress.get(ni.getAddress());
+		return (t != null && t.ni == ni) ? t : null;
+	}
+
+	/**
+	 * Removes the events whose tracks have been rescanned after the event
+	 * was predicted
+	 */
+	private void removeStaleEvents() {
+		while (!events.isEmpty() && !events.peek().isValid()) {
+			events.poll();
+		}
+	}
+
+	/**
+	 * Returns the next contact event or an event with time Double.MAX_VALUE
+	 * if there are no contacts predicted
+	 * @return The next event
+	 */
+	public ExternalEvent nextEvent() {
+		removeStaleEvents();
+		if (events.isEmpty()) {
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		return events.poll();
+	}
+
+	/**
+	 * Returns the time of the next contact event or Double.MAX_VALUE if there
+	 * are no contacts predicted
+	 * @return The next event's time
+	 */
+	public double nextEventsTime() {
+		removeStaleEvents();
+		if (events.isEmpty()) {
+			return Double.MAX_VALUE;
+		}
+		return events.peek().getTime();
+	}
+
+	/**
+	 * Returns a string representation of the predictor
+	 * @return a string representation of the predictor
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of " + tracks.size() +
+			" interfaces with " + events.size() + " events";
+	}
+
+	/**
+	 * Linear movement of a predicted interface's host
+	 */
+	private class Track {
+		private SimpleBroadcastInterface ni;
+		/** index of the track; defines the order of the two tracks in
+		 * contact events */
+		private int index;
+		/** location at the start time */
+		private double x0, y0;
+		/** velocity */
+		private double vx, vy;
+		/** time when the movement started (or was last rescanned) */
+		private double startTime;
+		/** time until the movement is known */
+		private double validUntil;
+		/** time when the host has moved enough to require rescanning */
+		private double rescanTime;
+		/** version of the movement; incremented on every rescan */
+		private int version;
+		private boolean needsRescan;
+		private boolean removed;
+		private Cell cell;
+
+		public Track(SimpleBroadcastInterface ni, int index) {
+			this.ni = ni;
+			this.index = index;
+			this.version = 0;
+			this.needsRescan = true;
+			this.removed = false;
+			this.cell = cellFromCoord(ni.getLocation());
+			this.cell.tracks.add(this);
+		}
+
+		/**
+		 * Reads the current movement of the host
+		 * @param now Current simulation time
+		 */
+		public void setMovement(double now) {
+			DTNHost host = ni.getHost();
+			Coord loc = host.getLocation();
+			Coord dest = host.getDestination();
+			double speed = host.getSpeed();
+			double distance = (dest == null ? 0 : loc.distance(dest));
+
+			this.x0 = loc.getX();
+			this.y0 = loc.getY();
+			this.startTime = now;
+
+			if (distance == 0 || speed <= 0 || !host.isActive()) {
+				this.vx = 0;
+				this.vy = 0;
+				this.validUntil = Double.MAX_VALUE;
+				this.rescanTime = Double.MAX_VALUE;
+			}
+			else {
+				this.vx = speed * (dest.getX() - x0) / distance;
+				this.vy = speed * (dest.getY() - y0) / distance;
+				this.validUntil = now + distance / speed;
+				this.rescanTime = now + rescanDistance / speed;
+			}
+		}
+
+		/**
+		 * Returns true if the host is where its (unchanged) movement should
+		 * have taken it and no rescan is needed yet
+		 * @param now Current simulation time
+		 * @return True if the movement is still valid
+		 */
+		public boolean isOnTrack(double now) {
+			if (now >= validUntil || now >= rescanTime) {
+				return false;
+			}
+			Coord loc = ni.getLocation();
+			return Math.abs(loc.getX() - getX(now)) <= LOCATION_DELTA &&
+				Math.abs(loc.getY() - getY(now)) <= LOCATION_DELTA;
+		}
+
+		/**
+		 * Returns the predicted x coordinate of the host at the given time
+		 */
+		public double getX(double time) {
+			return x0 + vx * (time - startTime);
+		}
+
+		/**
+		 * Returns the predicted y coordinate of the host at the given time
+		 */
+		public double getY(double time) {
+			return y0 + vy * (time - startTime);
+		}
+
+		/**
+		 * Moves the track to the cell of the host's current location
+		 */
+		public void updateCell() {
+			Cell newCell = cellFromCoord(ni.getLocation());
+			if (newCell != cell) {
+				cell.tracks.remove(this);
+				newCell.tracks.add(this);
+				cell = newCell;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cell of the given location. Locations outside the world
+	 * are put to the closest cell.
+	 * @param c The location
+	 * @return The cell
+	 */
+	private Cell cellFromCoord(Coord c) {
+		int row = (int)(c.getY() / cellSize);
+		int col = (int)(c.getX() / cellSize);
+		row = Math.max(0, Math.min(row, rows-1));
+		col = Math.max(0, Math.min(col, cols-1));
+		return cells[row][col];
+	}
+
+	/**
+	 * A cell in the overlay grid
+	 */
+	private class Cell {
+		private int row;
+		private int col;
+		private ArrayList<Track> tracks;
+
+		public Cell(int row, int col) {
+			this.row = row;
+			this.col = col;
+			this.tracks = new ArrayList<Track>();
+		}
+	}
+
+	/**
+	 * Predicted connection up or down event between two tracks
+	 */
+	private class ContactEvent extends ExternalEvent {
+		private static final long serialVersionUID = 1L;
+		private Track a;
+		private Track b;
+		private int versionA;
+		private int versionB;
+		private boolean up;
+
+		public ContactEvent(double time, Track a, Track b, boolean up) {
+			super(time);
+			this.a = a;
+			this.b = b;
+			this.versionA = a.version;
+			this.versionB = b.version;
+			this.up = up;
+		}
+
+		/**
+		 * Returns true if neither of the tracks has been rescanned after
+		 * this event was predicted
+		 */
+		public boolean isValid() {
+			return a.version == versionA && b.version == versionB;
+		}
+
+		@Override
+		public void processEvent(World world) {
+			processContactEvent(this);
+		}
+
+		@Override
+		public String toString() {
+			return "CONTACT " + (up ? "up" : "down") + " @" + this.time +
+				" " + a.ni + "<->" + b.ni;
+		}
+	}
+
+	/**
+	 * Orders the events by time and then by the tracks' indexes
+	 */
+	private static class EventComparator implements Comparator<ContactEvent> {
+		public int compare(ContactEvent e1, ContactEvent e2) {
+			int c = e1.compareTo(e2);
+			if (c != 0) {
+				return c;
+			}
+			if (e1.a.index != e2.a.index) {
+				return e1.a.index - e2.a.index;
+			}
+			return e1.b.index - e2.b.index;
+		}
+	}
+}
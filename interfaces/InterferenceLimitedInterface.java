@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.Connection;
 import core.NetworkInterface;
 import core.Settings;
@@ -97,10 +95,7 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 		if(isActive())
 		{
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces = 
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) 
-			connect(i);
+		connectToNearInterfaces();
 		}
 		// Find the current number of transmissions
 		// (to calculate the current transmission speed
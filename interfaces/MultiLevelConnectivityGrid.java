@@ -0,0 +1,443 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import core.Coord;
+import core.DTNSim;
+import core.NetworkInterface;
+
+/**
+ * <P>
+ * Connectivity optimizer for interfaces with very different radio ranges.
+ * Instead of one grid whose cell size is set by the range of the first
+ * interface, the interfaces are bucketed by their range class: the
+ * interfaces whose range is at most 2<sup>k</sup> meters are put on level
+ * k, where the cells are 2<sup>k</sup> meters wide.</P>
+ *
+ * <P>When looking for the neighbors of an interface, on the levels of the
+ * shorter range classes the cells within one cell size of the interface are
+ * searched, while on the levels of the same and longer range classes only
+ * the cells overlapping the interface's own range are searched. So a
+ * long-range interface (e.g., an access point) doesn't make the short-range
+ * interfaces scan huge cells, and the long range interfaces still find
+ * everything within their range.</P>
+ *
+ * <P>The cells are stored in hash tables and exist only for the areas
+ * where there are interfaces (a cell is removed when the last interface
+ * leaves it), so the memory use follows the density of the
+ * interfaces instead of the world size and cell size. An interface moves
+ * to another level if its range changes.</P>
+ */
+public class MultiLevelConnectivityGrid extends ConnectivityOptimizer {
+	/** largest range class (level) */
+	private static final int MAX_LEVEL = 62;
+
+	static HashMap<Integer,MultiLevelConnectivityGrid> gridobjects;
+
+	/** levels by range class (null for unused levels) */
+	private Level[] levels;
+	/** levels in use */
+	private ArrayList<Level> usedLevels;
+	/** location of every interface in the grid by network address */
+	private ArrayList<Entry> entries;
+	/** all interfaces in the grid */
+	private ArrayList<NetworkInterface> allInterfaces;
+
+	static {
+		DTNSim.registerForReset(
+				MultiLevelConnectivityGrid.class.getCanonicalName());
+		reset();
+	}
+
+	public static void reset() {
+		gridobjects = new HashMap<Integer,MultiLevelConnectivityGrid>();
+	}
+
+	private MultiLevelConnectivityGrid() {
+		this.levels = new Level[MAX_LEVEL + 1];
+		this.usedLevels = new ArrayList<Level>();
+		this.entries = new ArrayList<Entry>();
+		this.allInterfaces = new ArrayList<NetworkInterface>();
+	}
+
+	/**
+	 * Returns a multi-level grid object based on a hash value. The grid
+	 * handles interfaces of any range so (unlike with the other grids) the
+	 * range of the first interface doesn't matter.
+	 * @param key A hash value that separates different interfaces from each
+	 * other
+	 * @return The multi-level grid object for a specific interface
+	 */
+	public static MultiLevelConnectivityGrid MultiLevelConnectivityGridFactory(
+			int key) {
+		MultiLevelConnectivityGrid grid = gridobjects.get(key);
+		if (grid == null) {
+			grid = new MultiLevelConnectivityGrid();
+			gridobjects.put(key, grid);
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds a network interface to the grid (unless it is already present)
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		if (getEntry(ni) != null) {
+			return;
+		}
+
+		int address = ni.getAddress();
+		while (entries.size() <= address) {
+			entries.add(null);
+		}
+		Entry e = new Entry(ni);
+		entries.set(address, e);
+		allInterfaces.add(ni);
+		place(e);
+	}
+
+	/**
+	 * Adds interfaces to the grid
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Checks and updates (if necessary) interface's level and cell
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		Entry e = getEntry(ni);
+		if (e == null) {
+			return;
+		}
+
+		Level level = getLevel(levelOf(ni.getTransmitRange()));
+		Coord c = ni.getLocation();
+		long key = level.cellKey(c.getX(), c.getY());
+		if (level != e.level || key != e.cellKey) {
+			e.cell.remove(ni);
+			e.level.size--;
+			if (e.cell.isEmpty()) {
+				e.level.removeCell(e.cellKey);
+			}
+			place(e);
+		}
+	}
+
+	/**
+	 * Returns all interfaces using the same technology and channel that
+	 * might be within range of the interface
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface ni) {
+		final ArrayList<NetworkInterface> near =
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(ni, new NeighborVisitor() {
+			public void visit(NetworkInterface other) {
+				near.add(other);
+			}
+		});
+		return near;
+	}
+
+	/**
+	 * Calls the visitor for all interfaces using the same technology and
+	 * channel that might be within range of the interface. On every level,
+	 * the cells overlapping the square around the interface whose half-edge
+	 * is the smaller of the interface's range and the level's cell size are
+	 * visited. The cells of the other interfaces are as fresh as their last
+	 * location update, so a pair missed because the other interface has not
+	 * been updated yet is found when the other interface is updated.
+	 */
+	@Override
+	public void visitNearInterfaces(NetworkInterface ni,
+			NeighborVisitor visitor) {
+		if (getEntry(ni) == null) {
+			return;
+		}
+
+		Coord c = ni.getLocation();
+		double x = c.getX();
+		double y = c.getY();
+		double range = ni.getTransmitRange();
+
+		for (int i=0, n=usedLevels.size(); i<n; i++) {
+			Level level = usedLevels.get(i);
+			if (level.size == 0) {
+				continue;
+			}
+			/* interfaces on the shorter range levels can't connect to
+			 * anything further than their cell size */
+			level.visit(x, y, Math.min(range, level.cellSize), visitor);
+		}
+	}
+
+	/**
+	 * Returns all interfaces that use the same technology and channel
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return allInterfaces;
+	}
+
+	/**
+	 * Returns the number of cells on all levels. Method is public only to
+	 * make testing easier.
+	 * @return the number of cells
+	 */
+	public int getNrofCells() {
+		int nrofCells = 0;
+		for (Level level : usedLevels) {
+			nrofCells += level.nrofCells;
+		}
+		return nrofCells;
+	}
+
+	/**
+	 * Puts an interface's entry to the cell of its current location on the
+	 * level of its current range
+	 * @param e The entry
+	 */
+	private void place(Entry e) {
+		Level level = getLevel(levelOf(e.ni.getTransmitRange()));
+		Coord c = e.ni.getLocation();
+		e.level = level;
+		e.cellKey = level.cellKey(c.getX(), c.getY());
+		e.cell = level.getCell(e.cellKey);
+		e.cell.add(e.ni);
+		level.size++;
+	}
+
+	/**
+	 * Returns the grid entry of an interface
+	 * @param ni The interface
+	 * @return The entry or null if the interface is not in the grid
+	 */
+	private Entry getEntry(NetworkInterface ni) {
+		int address = ni.getAddress();
+		if (address >= entries.size()) {
+			return null;
+		}
+		Entry e = entries.get(address);
+		return (e != null && e.ni == ni) ? e : null;
+	}
+
+	/**
+	 * Returns the level (creates it if needed)
+	 * @param index Index of the level
+	 * @return The level
+	 */
+	private Level getLevel(int index) {
+		if (levels[index] == null) {
+			levels[index] = new Level(index);
+			usedLevels.add(levels[index]);
+		}
+		return levels[index];
+	}
+
+	/**
+	 * Returns the range class of a range, i.e., the smallest k for which
+	 * 2<sup>k</sup> is at least the range
+	 * @param range The range
+	 * @return The range class
+	 */
+	private static int levelOf(double range) {
+		int level = 0;
+		while (level < MAX_LEVEL && (double)(1L << level) < range) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Returns a string representation of the grid
+	 * @return a string representation of the grid
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " with " + usedLevels.size() +
+			" levels and " + allInterfaces.size() + " interfaces";
+	}
+
+	/**
+	 * Location of an interface in the grid
+	 */
+	private static class Entry {
+		private NetworkInterface ni;
+		private Level level;
+		private long cellKey;
+		private ArrayList<NetworkInterface> cell;
+
+		public Entry(NetworkInterface ni) {
+			this.ni = ni;
+		}
+	}
+
+	/**
+	 * A level of the grid. The cells are stored in a hash table (with open
+	 * addressing) keyed by the cell's row and column.
+	 */
+	private static class Level {
+		private static final int INITIAL_CAPACITY = 64;
+		private double cellSize;
+		/** number of interfaces on this level */
+		private int size;
+		private long[] keys;
+		private ArrayList<NetworkInterface>[] cells;
+		private int nrofCells;
+
+		public Level(int index) {
+			this.cellSize = (double)(1L << index);
+			this.size = 0;
+			this.keys = new long[INITIAL_CAPACITY];
+			this.cells = newCellArray(INITIAL_CAPACITY);
+			this.nrofCells = 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static ArrayList<NetworkInterface>[] newCellArray(int size) {
+			return (ArrayList<NetworkInterface>[])new ArrayList<?>[size];
+		}
+
+		/**
+		 * Returns the key of the cell the coordinates are in
+		 */
+		public long cellKey(double x, double y) {
+			return key((int)Math.floor(y / cellSize),
+					(int)Math.floor(x / cellSize));
+		}
+
+		/**
+		 * Calls the visitor for the interfaces in all cells overlapping the
+		 * square around the coordinates
+		 * @param x The x coordinate of the center
+		 * @param y The y coordinate of the center
+		 * @param radius Half of the square's edge length
+		 * @param visitor The visitor
+		 */
+		public void visit(double x, double y, double radius,
+				NeighborVisitor visitor) {
+			int firstRow = (int)Math.floor((y - radius) / cellSize);
+			int lastRow = (int)Math.floor((y + radius) / cellSize);
+			int firstCol = (int)Math.floor((x - radius) / cellSize);
+			int lastCol = (int)Math.floor((x + radius) / cellSize);
+
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int col = firstCol; col <= lastCol; col++) {
+					ArrayList<NetworkInterface> cell = findCell(key(row,col));
+					if (cell == null) {
+						continue;
+					}
+					for (int k=0, n=cell.size(); k<n; k++) {
+						visitor.visit(cell.get(k));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the cell with the given key (creates it if needed)
+		 */
+		public ArrayList<NetworkInterface> getCell(long key) {
+			int i = index(key, keys.length);
+			while (cells[i] != null) {
+				if (keys[i] == key) {
+					return cells[i];
+				}
+				i = (i + 1) & (keys.length - 1);
+			}
+
+			ArrayList<NetworkInterface> cell = new ArrayList<NetworkInterface>();
+			keys[i] = key;
+			cells[i] = cell;
+			nrofCells++;
+			if (nrofCells * 2 > keys.length) {
+				rehash();
+			}
+			return cell;
+		}
+
+		/**
+		 * Removes the cell with the given key (if there is such a cell)
+		 */
+		public void removeCell(long key) {
+			int mask = keys.length - 1;
+			int i = index(key, keys.length);
+			while (cells[i] != null && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (cells[i] == null) {
+				return;
+			}
+			cells[i] = null;
+			nrofCells--;
+
+			/* move the following cells of the same run so that there are no
+			 * holes between them and their slots */
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (cells[j] == null) {
+					return;
+				}
+				int slot = index(keys[j], keys.length);
+				if (i <= j ? (slot <= i || slot > j) : (slot <= i && slot > j)) {
+					keys[i] = keys[j];
+					cells[i] = cells[j];
+					cells[j] = null;
+					i = j;
+				}
+			}
+		}
+
+		/**
+		 * Returns the cell with the given key or null if there is no such
+		 * cell
+		 */
+		private ArrayList<NetworkInterface> findCell(long key) {
+			for (int i = index(key, keys.length); cells[i] != null;
+					i = (i + 1) & (keys.length - 1)) {
+				if (keys[i] == key) {
+					return cells[i];
+				}
+			}
+			return null;
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			ArrayList<NetworkInterface>[] oldCells = cells;
+			this.keys = new long[oldKeys.length * 2];
+			this.cells = newCellArray(oldKeys.length * 2);
+			for (int j=0; j<oldKeys.length; j++) {
+				if (oldCells[j] != null) {
+					int i = index(oldKeys[j], keys.length);
+					while (cells[i] != null) {
+						i = (i + 1) & (keys.length - 1);
+					}
+					keys[i] = oldKeys[j];
+					cells[i] = oldCells[j];
+				}
+			}
+		}
+
+		private static long key(int row, int col) {
+			return ((long)row << 32) | (col & 0xFFFFFFFFL);
+		}
+
+		private static int index(long key, int capacity) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h >>> 32) & (capacity - 1);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import core.NetworkInterface;
+
+/**
+ * Interface for classes that want to go through the network interfaces near
+ * another interface without collecting them to a new collection first.
+ * @see ConnectivityOptimizer#visitNearInterfaces(NetworkInterface, 
+ * NeighborVisitor)
+ */
+public interface NeighborVisitor {
+
+	/**
+	 * Method is called for every interface near the queried interface
+	 * (including the queried interface itself)
+	 * @param ni The near interface
+	 */
+	public void visit(NetworkInterface ni);
+}
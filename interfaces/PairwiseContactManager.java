@@ -0,0 +1,312 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import core.Connection;
+import core.Coord;
+import core.DTNHost;
+import core.NetworkInterface;
+
+/**
+ * <P>
+ * Symmetric connectivity pass for {@link SimpleBroadcastInterface}s. Instead
+ * of both interfaces of a pair checking each other in their own update, the
+ * World calls {@link #update()} once before updating the hosts and every
+ * unordered pair of managed interfaces in neighboring grid cells is checked
+ * only once (by the interface with the smaller address).</P>
+ *
+ * <P>The connections between the managed interfaces are also kept in a hash
+ * table keyed by the pair of interface addresses, so checking if two
+ * interfaces are connected doesn't depend on the number of connections the
+ * interfaces have.</P>
+ *
+ * <P>Only interfaces without a scanning interval and activeness model can be
+ * managed. Other interfaces keep checking their neighbors on every update.
+ * </P>
+ */
+public class PairwiseContactManager implements ContactManager {
+	/** all managed interfaces */
+	private List<SimpleBroadcastInterface> managed;
+	/** connections between the managed interfaces */
+	private ConnectionTable connections;
+	/** the interface whose neighbors are currently checked */
+	private SimpleBroadcastInterface current;
+	/** checks the pairs of the current interface */
+	private NeighborVisitor pairChecker;
+
+	/**
+	 * Creates a manager for the interfaces of the given hosts. All
+	 * interfaces that can be managed (and don't have a manager yet) are
+	 * registered to this manager.
+	 * @param hosts The hosts in the world
+	 */
+	public PairwiseContactManager(List<DTNHost> hosts) {
+		this.managed = new ArrayList<SimpleBroadcastInterface>();
+		this.connections = new ConnectionTable();
+		this.pairChecker = new NeighborVisitor() {
+			public void visit(NetworkInterface ni) {
+				checkPair(current, ni);
+			}
+		};
+
+		for (DTNHost host : hosts) {
+			for (NetworkInterface ni : host.getInterfaces()) {
+				if (!(ni instanceof SimpleBroadcastInterface)) {
+					continue;
+				}
+				SimpleBroadcastInterface sbi = (SimpleBroadcastInterface)ni;
+				if (sbi.isManageable() && sbi.getContactManager() == null) {
+					sbi.setContactManager(this);
+					managed.add(sbi);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connects and disconnects the managed interfaces. Tears down the
+	 * connections that are out of range and then creates connections
+	 * between all pairs of interfaces that are within range.
+	 */
+	public void update() {
+		for (int i=0, n=managed.size(); i<n; i++) {
+			managed.get(i).updateLocationInOptimizer();
+		}
+
+		/* first break the old ones */
+		for (int i=0, n=managed.size(); i<n; i++) {
+			SimpleBroadcastInterface ni = managed.get(i);
+			List<Connection> cons = ni.getConnections();
+			for (int j=0; j<cons.size(); ) {
+				Connection con = cons.get(j);
+				NetworkInterface other = con.getOtherInterface(ni);
+				if (isManaged(other) && ni.getAddress() < other.getAddress()
+						&& !isWithinRange(ni, other)) {
+					connections.remove(ni.getAddress(), other.getAddress());
+					con.disconnect(ni);
+				}
+				else {
+					j++;
+				}
+			}
+		}
+
+		/* then find the new ones */
+		for (int i=0, n=managed.size(); i<n; i++) {
+			SimpleBroadcastInterface ni = managed.get(i);
+			if (ni.getContactManager() != this) {
+				continue; // not managed anymore
+			}
+			current = ni;
+			ni.visitNearInterfaces(pairChecker);
+		}
+		current = null;
+	}
+
+	/**
+	 * Connects the interfaces if they are within range and not connected
+	 * yet. Does nothing if the other interface isn't managed by this manager
+	 * or it has a smaller address (i.e., the pair is checked from the other
+	 * interface).
+	 * @param ni The interface whose neighbors are checked
+	 * @param other The neighbor interface
+	 */
+	private void checkPair(SimpleBroadcastInterface ni,
+			NetworkInterface other) {
+		if (other.getAddress() <= ni.getAddress() || !isManaged(other) ||
+				!isWithinRange(ni, other)) {
+			return;
+		}
+
+		Connection con = connections.get(ni.getAddress(), other.getAddress());
+		if (con != null && con.isUp()) {
+			return; // already connected
+		}
+
+		ni.createConnection(other);
+		List<Connection> cons = ni.getConnections();
+		for (int i = cons.size() - 1; i >= 0; i--) {
+			if (cons.get(i).getOtherInterface(ni) == other) {
+				connections.put(ni.getAddress(), other.getAddress(),
+						cons.get(i));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the interfaces are within each other's range
+	 * @param a The first interface
+	 * @param b The second interface
+	 * @return True if the distance of the interfaces is not more than the
+	 * smaller range of the two interfaces
+	 */
+	private boolean isWithinRange(NetworkInterface a, NetworkInterface b) {
+		double smallerRangeSq = Math.min(a.getTransmitRangeSquared(),
+				b.getTransmitRangeSquared());
+		Coord aLoc = a.getLocation();
+		return aLoc.distanceSquared(b.getLocation()) <= smallerRangeSq;
+	}
+
+	/**
+	 * Returns true if the interface is managed by this manager
+	 * @param ni The interface
+	 * @return True if the interface is managed by this manager
+	 */
+	private boolean isManaged(NetworkInterface ni) {
+		return ni instanceof SimpleBroadcastInterface &&
+			((SimpleBroadcastInterface)ni).getContactManager() == this;
+	}
+
+	/**
+	 * Removes the interface from this manager if it can't be managed
+	 * anymore (it has got a scanning interval). Range changes are noticed
+	 * on the next update.
+	 * @param ni The changed interface
+	 */
+	public void interfaceChanged(SimpleBroadcastInterface ni) {
+		if (!ni.isManageable()) {
+			ni.setContactManager(null);
+			managed.remove(ni);
+		}
+	}
+
+	/**
+	 * Returns a string representation of the manager
+	 * @return a string representation of the manager
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of " + managed.size() +
+			" interfaces with " + connections.size() + " connections";
+	}
+
+	/**
+	 * Hash table (with open addressing) of connections keyed by the pair of
+	 * interface addresses. Doesn't create objects on lookups.
+	 */
+	private static class ConnectionTable {
+		private static final int INITIAL_CAPACITY = 64;
+		private static final long EMPTY = -1;
+		private long[] keys;
+		private Connection[] values;
+		private int size;
+
+		public ConnectionTable() {
+			this.keys = new long[INITIAL_CAPACITY];
+			Arrays.fill(keys, EMPTY);
+			this.values = new Connection[INITIAL_CAPACITY];
+			this.size = 0;
+		}
+
+		/**
+		 * Returns the connection of an address pair
+		 * @param a Address of the first interface (smaller one)
+		 * @param b Address of the second interface
+		 * @return The connection or null if there is no connection
+		 */
+		public Connection get(int a, int b) {
+			long key = key(a, b);
+			for (int i = index(key); keys[i] != EMPTY; i = next(i)) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Sets the connection of an address pair
+		 * @param a Address of the first interface (smaller one)
+		 * @param b Address of the second interface
+		 * @param con The connection
+		 */
+		public void put(int a, int b, Connection con) {
+			long key = key(a, b);
+			int i = index(key);
+			for (; keys[i] != EMPTY; i = next(i)) {
+				if (keys[i] == key) {
+					values[i] = con;
+					return;
+				}
+			}
+			keys[i] = key;
+			values[i] = con;
+			size++;
+			if (size * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+		}
+
+		/**
+		 * Removes the connection of an address pair
+		 * @param a Address of the first interface (smaller one)
+		 * @param b Address of the second interface
+		 */
+		public void remove(int a, int b) {
+			long key = key(a, b);
+			int i = index(key);
+			while (keys[i] != key) {
+				if (keys[i] == EMPTY) {
+					return; // not in the table
+				}
+				i = next(i);
+			}
+
+			/* shift the following entries of the same probe chain back */
+			int gap = i;
+			for (i = next(i); keys[i] != EMPTY; i = next(i)) {
+				int home = index(keys[i]);
+				if ((i > gap && (home <= gap || home > i)) ||
+						(i < gap && home <= gap && home > i)) {
+					keys[gap] = keys[i];
+					values[gap] = values[i];
+					gap = i;
+				}
+			}
+			keys[gap] = EMPTY;
+			values[gap] = null;
+			size--;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			Connection[] oldValues = values;
+			this.keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			this.values = new Connection[capacity];
+			for (int j=0; j<oldKeys.length; j++) {
+				if (oldKeys[j] != EMPTY) {
+					int i = index(oldKeys[j]);
+					while (keys[i] != EMPTY) {
+						i = next(i);
+					}
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+
+		private static long key(int a, int b) {
+			return ((long)a << 32) | b;
+		}
+
+		private int index(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h >>> 32) & (keys.length - 1);
+		}
+
+		private int next(int i) {
+			return (i + 1) & (keys.length - 1);
+		}
+	}
+}
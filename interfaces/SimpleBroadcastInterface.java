@@ -6,8 +6,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.CBRConnection;
 import core.Connection;
 import core.NetworkInterface;
@@ -18,6 +16,10 @@ import core.Settings;
  * one transmission can be on at a time.
  */
 public class SimpleBroadcastInterface extends NetworkInterface {
+	/** manager that handles the contacts of this interface (or null if
+	 * the interface checks its neighbors itself) */
+	private ContactManager contactManager;
+
 	/**
 	 * Reads the interface settings from the Settings file
 	 *  
@@ -44,11 +46,11 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 	 * @param anotherInterface The interface to connect to
 	 */
 	public void connect(NetworkInterface anotherInterface) {
-		if (isScanning()  
+		if ((this != anotherInterface)
+				&& isScanning()  
 				&& anotherInterface.acceptingConnections() 
 				&& isWithinRange(anotherInterface) 
-				&& !isConnected(anotherInterface)
-				&& (this != anotherInterface)) {
+				&& !isConnected(anotherInterface)) {
 			// new contact within range
 			// connection speed is the lower one of the two speeds 
 			int conSpeed = anotherInterface.getTransmitSpeed();
@@ -71,6 +73,9 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 	public void update() {
 		// First break the old ones
 		optimizer.updateLocation(this);
+		if (contactManager != null) {
+			return; // connections are handled by the manager
+		}
 		if(!isActive())
 		{
 			for(int i=0; i < connections.size();)
@@ -97,11 +102,7 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 		}
 		
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces =
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) {
-			connect(i);
-		}
+		connectToNearInterfaces();
 	}
 
 	/** 
@@ -123,6 +124,67 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 		}
 	}
 
+	/**
+	 * Returns true if the contacts of this interface can be handled by a
+	 * {@link ContactManager}, i.e., the interface is always scanning and
+	 * active.
+	 * @return True if the contacts can be handled by a manager
+	 */
+	public boolean isManageable() {
+		return isAlwaysScanning();
+	}
+
+	/**
+	 * Sets the manager that handles the contacts of this interface
+	 * @param manager The manager (or null if the interface should check its
+	 * neighbors itself)
+	 */
+	public void setContactManager(ContactManager manager) {
+		this.contactManager = manager;
+		if (manager == null && host != null) {
+			host.wakeUp(); // the interface has to be updated again
+		}
+	}
+
+	/**
+	 * Returns true if the interface has a contact manager
+	 * @return true if the interface has a contact manager
+	 */
+	@Override
+	public boolean isManaged() {
+		return this.contactManager != null;
+	}
+
+	/**
+	 * Returns the manager that handles the contacts of this interface
+	 * @return The manager or null if the interface checks its neighbors
+	 * itself
+	 */
+	public ContactManager getContactManager() {
+		return this.contactManager;
+	}
+
+	/**
+	 * Calls the visitor for all interfaces near this interface (according to
+	 * the connectivity optimizer)
+	 * @param visitor The visitor
+	 */
+	void visitNearInterfaces(NeighborVisitor visitor) {
+		optimizer.visitNearInterfaces(this, visitor);
+	}
+
+	/**
+	 * Updates the changed value and tells the contact manager (if any)
+	 * about the change.
+	 */
+	@Override
+	public void moduleValueChanged(String key, Object newValue) {
+		super.moduleValueChanged(key, newValue);
+		if (contactManager != null) {
+			contactManager.interfaceChanged(this);
+		}
+	}
+
 	/**
 	 * Returns a string representation of the object.
 	 * @return a string representation of the object.
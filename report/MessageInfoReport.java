@@ -58,7 +58,7 @@ public class MessageInfoReport extends Report implements MessageListener
 			this.delays.put(id, delay );
 			
 			write(id + ' ' + createtime + ' ' + delay + ' ' + 
-					(m.getHops().size() - 1));
+					m.getHopCount());
 		}
 
 	}
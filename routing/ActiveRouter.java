@@ -7,15 +7,23 @@ package routing;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
 import core.Connection;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
 import core.MessageListener;
+import core.NetworkInterface;
 import core.Settings;
+import core.SettingsError;
 import core.SimClock;
+import core.TimerWheel;
+import core.TransferCompletionQueue;
 import core.Tuple;
 
 /**
@@ -31,15 +39,84 @@ public abstract class ActiveRouter extends MessageRouter {
 	/** should messages that final recipient marks as delivered be deleted
 	 * from message buffer */
 	protected boolean deleteDelivered;
+
+	/**
+	 * Drop policy -setting id ({@value}). Integer valued. Defines the order
+	 * the messages are dropped when there's no room for a new message.
+	 * Valid values are<BR>
+	 * <UL>
+	 * <LI/> 1 : FIFO (the message received first is dropped first)
+	 * <LI/> 2 : LIFO (the message received last is dropped first)
+	 * <LI/> 3 : TTL (the message with the shortest remaining TTL is dropped
+	 * first)
+	 * <LI/> 4 : MOFO (the message forwarded most times is dropped first;
+	 * FIFO between equally forwarded messages)
+	 * <LI/> 5 : router specific order (e.g., MaxProp's delivery cost order)
+	 * or FIFO for routers that don't define an order (default option)
+	 * </UL>
+	 */
+	public static final String DROP_POLICY_S = "dropPolicy";
+	/** Setting value for FIFO drop policy */
+	public static final int DROP_FIFO = 1;
+	/** Setting value for LIFO drop policy */
+	public static final int DROP_LIFO = 2;
+	/** Setting value for shortest TTL first drop policy */
+	public static final int DROP_TTL = 3;
+	/** Setting value for most forwarded first drop policy */
+	public static final int DROP_MOFO = 4;
+	/** Setting value for router specific drop policy */
+	public static final int DROP_ROUTER = 5;
+	/** Default value for the drop policy setting ({@value}) */
+	public static final int DEF_DROP_POLICY = DROP_ROUTER;
+	/** the drop policy */
+	private int dropPolicy;
+	/** the messages in the buffer in drop and expiry order */
+	private MessageBufferIndex bufferIndex;
+
+	/** Maximum number of concurrent transfers -setting id ({@value}).
+	 * Integer valued. Both outgoing and incoming transfers are counted.
+	 * Default = {@link #DEF_MAX_TRANSFERS} */
+	public static final String MAX_TRANSFERS_S = "maxTransfers";
+	/** Default value for the maximum number of concurrent transfers
+	 * ({@value}) */
+	public static final int DEF_MAX_TRANSFERS = 1;
+	/**
+	 * Bandwidth sharing -setting id ({@value}). Integer valued. Defines how
+	 * concurrent outgoing transfers of the same interface share the
+	 * interface's bandwidth. Valid values are<BR>
+	 * <UL>
+	 * <LI/> 1 : no sharing; every transfer gets the full speed of its
+	 * connection (default option)
+	 * <LI/> 2 : fair; the transfers get equal shares of the bandwidth
+	 * <LI/> 3 : deliverable first; the transfers of messages to their final
+	 * recipients get equal shares of the bandwidth and the other transfers
+	 * are paused until they are done
+	 * </UL>
+	 */
+	public static final String BANDWIDTH_SHARING_S = "bandwidthSharing";
+	/** Setting value for no bandwidth sharing */
+	public static final int SHARE_NONE = 1;
+	/** Setting value for fair bandwidth sharing */
+	public static final int SHARE_FAIR = 2;
+	/** Setting value for deliverable first bandwidth sharing */
+	public static final int SHARE_DELIVERABLE_FIRST = 3;
+	/** the maximum number of concurrent transfers */
+	private int maxTransfers;
+	/** the bandwidth sharing mode */
+	private int bandwidthSharing;
 	
 	/** prefix of all response message IDs */
 	public static final String RESPONSE_PREFIX = "R_";
-	/** how often TTL check (discarding old messages) is performed */
-	public static int TTL_CHECK_INTERVAL = 60;
 	/** connection(s) that are currently used for sending */
 	protected ArrayList<Connection> sendingConnections;
-	/** sim time when the last TTL check was done */
-	private double lastTtlCheck;
+	/** TTL expiry timers of the messages in the buffer by message ID */
+	private HashMap<String, ExpiryTimer> expiryTimers;
+	/** expired messages that are dropped when their transfer is over */
+	private List<Message> expiredWhileSending;
+	/** for the connections whose exchange state has been requested, the
+	 * messages this router has and the other end of the connection doesn't
+	 * have by their ID indexes (see {@link #getMessagesToExchange(Connection)}) */
+	private HashMap<Connection, IntHashMap<Message>> exchangeStates;
 	
 
 	/**
@@ -56,6 +133,40 @@ public abstract class ActiveRouter extends MessageRouter {
 		else {
 			this.deleteDelivered = false;
 		}
+
+		if (s.contains(DROP_POLICY_S)) {
+			this.dropPolicy = s.getInt(DROP_POLICY_S);
+			if (dropPolicy < DROP_FIFO || dropPolicy > DROP_ROUTER) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(DROP_POLICY_S));
+			}
+		}
+		else {
+			this.dropPolicy = DEF_DROP_POLICY;
+		}
+
+		if (s.contains(MAX_TRANSFERS_S)) {
+			this.maxTransfers = s.getInt(MAX_TRANSFERS_S);
+			if (maxTransfers < 1) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(MAX_TRANSFERS_S));
+			}
+		}
+		else {
+			this.maxTransfers = DEF_MAX_TRANSFERS;
+		}
+
+		if (s.contains(BANDWIDTH_SHARING_S)) {
+			this.bandwidthSharing = s.getInt(BANDWIDTH_SHARING_S);
+			if (bandwidthSharing < SHARE_NONE ||
+					bandwidthSharing > SHARE_DELIVERABLE_FIRST) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(BANDWIDTH_SHARING_S));
+			}
+		}
+		else {
+			this.bandwidthSharing = SHARE_NONE;
+		}
 	}
 	
 	/**
@@ -65,13 +176,195 @@ public abstract class ActiveRouter extends MessageRouter {
 	protected ActiveRouter(ActiveRouter r) {
 		super(r);
 		this.deleteDelivered = r.deleteDelivered;
+		this.dropPolicy = r.dropPolicy;
+		this.maxTransfers = r.maxTransfers;
+		this.bandwidthSharing = r.bandwidthSharing;
 	}
 	
 	@Override
 	public void initialize(DTNHost host, List<MessageListener> mListeners) {
 		super.initialize(host, mListeners);
 		this.sendingConnections = new ArrayList<Connection>(1);
-		this.lastTtlCheck = 0;
+		this.expiryTimers = new HashMap<String, ExpiryTimer>();
+		this.expiredWhileSending = new ArrayList<Message>();
+		this.exchangeStates = new HashMap<Connection, IntHashMap<Message>>();
+
+		int policy = this.dropPolicy;
+		if (policy == DROP_ROUTER && !hasRouterDropOrder()) {
+			policy = DROP_FIFO;
+		}
+		this.bufferIndex = new MessageBufferIndex(policy);
+	}
+
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		super.addToMessages(m, newMessage);
+		this.bufferIndex.add(m);
+		scheduleExpiry(m);
+		updateExchangeStates(m, true);
+	}
+
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null) {
+			this.bufferIndex.remove(id);
+			ExpiryTimer timer = this.expiryTimers.remove(id);
+			if (timer != null) {
+				TimerWheel.getInstance().cancel(timer);
+			}
+			updateExchangeStates(m, false);
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the messages this router has and the host at the other end of
+	 * the connection doesn't have, i.e., the difference of the summary
+	 * vectors of the hosts. The difference is computed when it is first
+	 * requested for a connection and after that it is kept up to date when
+	 * either of the hosts gets or loses a message, as long as the connection
+	 * is up. The returned collection must not be modified and it changes
+	 * when the buffers change. The messages are in no particular order (see
+	 * {@link #tryMessagesForConnected(List, Comparator)} for trying them in
+	 * a router specific order). Method is public only to make testing
+	 * easier.
+	 * @param con The connection
+	 * @return The messages the other host doesn't have
+	 */
+	public Collection<Message> getMessagesToExchange(Connection con) {
+		IntHashMap<Message> state = this.exchangeStates.get(con);
+		if (state == null) {
+			MessageRouter other = con.getOtherNode(getHost()).getRouter();
+			state = new IntHashMap<Message>();
+			for (Message m : getMessageCollection()) {
+				if (!other.hasMessage(m.getId())) {
+					state.put(m.getIdIndex(), m);
+				}
+			}
+			if (other instanceof ActiveRouter && con.isUp()) {
+				/* keep it up to date (see updateExchangeStates) */
+				this.exchangeStates.put(con, state);
+			}
+		}
+		return Collections.unmodifiableCollection(state.values());
+	}
+
+	/**
+	 * Updates the exchange states of this router's and the connected
+	 * routers' connections after this router got or lost a message
+	 * @param m The message that was added or removed
+	 * @param added True if the message was added, false if it was removed
+	 * @see #getMessagesToExchange(Connection)
+	 */
+	private void updateExchangeStates(Message m, boolean added) {
+		String id = m.getId();
+		int index = m.getIdIndex();
+		for (Connection con : getHost()) {
+			MessageRouter other = con.getOtherNode(getHost()).getRouter();
+			IntHashMap<Message> mine = this.exchangeStates.get(con);
+			if (mine != null) {
+				if (added && !other.hasMessage(id)) {
+					mine.put(index, m);
+				}
+				else {
+					mine.remove(index);
+				}
+			}
+
+			if (!(other instanceof ActiveRouter)) {
+				continue;
+			}
+			IntHashMap<Message> theirs =
+				((ActiveRouter)other).exchangeStates.get(con);
+			if (theirs != null) {
+				Message otherCopy = other.getMessage(id);
+				if (!added && otherCopy != null) {
+					theirs.put(index, otherCopy);
+				}
+				else {
+					theirs.remove(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedules a message to be dropped when its TTL expires (i.e., when
+	 * {@link Message#getTtl()} drops to zero). Messages with infinite TTL
+	 * are not scheduled.
+	 * @param m The message
+	 */
+	private void scheduleExpiry(Message m) {
+		ExpiryTimer timer = this.expiryTimers.remove(m.getId());
+		if (timer != null) {
+			TimerWheel.getInstance().cancel(timer);
+		}
+		if (m.getInitTtl() == Message.INFINITE_TTL) {
+			return;
+		}
+
+		timer = new ExpiryTimer(m);
+		this.expiryTimers.put(m.getId(), timer);
+		/* the TTL is zero when less than a minute of it is left */
+		double expiry = m.getCreationTime() + (m.getInitTtl() - 1) * 60.0;
+		TimerWheel.getInstance().schedule(timer, Math.nextUp(expiry));
+	}
+
+	/**
+	 * Drops a message whose TTL has expired. If the message is being sent,
+	 * it is dropped when the transfer is over.
+	 * @param m The message
+	 */
+	private void messageExpired(Message m) {
+		String id = m.getId();
+		if (getMessage(id) != m) {
+			return; // not in the buffer anymore
+		}
+		if (m.getTtl() > 0) { // rounding error in the expiry time
+			TimerWheel.getInstance().schedule(this.expiryTimers.get(id),
+					Math.nextUp(SimClock.getTime()));
+			return;
+		}
+
+		this.expiryTimers.remove(id);
+		if (isSending(id)) {
+			this.expiredWhileSending.add(m);
+		}
+		else {
+			deleteMessage(id, true);
+		}
+	}
+
+	/**
+	 * Returns true if this router defines its own order for dropping
+	 * messages (see {@link #setDropOrder(Comparator)}). This version returns
+	 * false so the router specific drop policy is the same as FIFO.
+	 * @return true if the router defines its own drop order
+	 */
+	protected boolean hasRouterDropOrder() {
+		return false;
+	}
+
+	/**
+	 * Returns true if the messages are dropped in the router specific order
+	 * @return true if the messages are dropped in the router specific order
+	 */
+	protected boolean isRouterDropOrder() {
+		return this.bufferIndex.isRouterOrder();
+	}
+
+	/**
+	 * Sets the router specific drop order. Routers that define their own
+	 * order should call this every time the order of the messages may have
+	 * changed (except for new messages) before the next message to drop is
+	 * requested. Has no effect unless the router specific drop policy is
+	 * used.
+	 * @param order Comparator that orders the messages so that the message
+	 * that should be dropped first is the first one
+	 */
+	protected void setDropOrder(Comparator<Message> order) {
+		this.bufferIndex.setOrder(order);
 	}
 	
 	/**
@@ -170,6 +463,7 @@ public abstract class ActiveRouter extends MessageRouter {
 		retVal = con.startTransfer(getHost(), m);
 		if (retVal == RCV_OK) { // started transfer
 			addToSendingConnections(con);
+			scheduleTransferCompletion(con);
 		}
 		else if (deleteDelivered && retVal == DENIED_OLD && 
 				m.getTo() == con.getOtherNode(this.getHost())) {
@@ -261,15 +555,17 @@ public abstract class ActiveRouter extends MessageRouter {
 	}
 	
 	/**
-	 * Drops messages whose TTL is less than zero.
+	 * Drops messages whose TTL is less than zero. The messages are checked
+	 * in the order their TTLs expire, so only the expired messages (and the
+	 * first one that hasn't expired) are checked. The messages are also
+	 * dropped automatically when their TTL expires, so this is needed only
+	 * if the TTLs are changed while the messages are in the buffer.
 	 */
 	protected void dropExpiredMessages() {
-		Message[] messages = getMessageCollection().toArray(new Message[0]);
-		for (int i=0; i<messages.length; i++) {
-			int ttl = messages[i].getTtl(); 
-			if (ttl <= 0) {
-				deleteMessage(messages[i].getId(), true);
-			}
+		Message m = bufferIndex.getFirstToExpire();
+		while (m != null && m.getTtl() <= 0) {
+			deleteMessage(m.getId(), true);
+			m = bufferIndex.getFirstToExpire();
 		}
 	}
 	
@@ -286,8 +582,11 @@ public abstract class ActiveRouter extends MessageRouter {
 
 	
 	/**
-	 * Returns the oldest (by receive time) message in the message buffer 
-	 * (that is not being sent if excludeMsgBeingSent is true).
+	 * Returns the next message to drop from the message buffer, according
+	 * to the drop policy (see {@link #DROP_POLICY_S}), that is not being sent
+	 * if excludeMsgBeingSent is true. With the default policy, this is the
+	 * oldest (by receive time) message unless the router defines its own
+	 * order.
 	 * @param excludeMsgBeingSent If true, excludes message(s) that are
 	 * being sent from the oldest message check (i.e. if oldest message is
 	 * being sent, the second oldest message is returned)
@@ -296,23 +595,16 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * exludeMsgBeingSent is true)
 	 */
 	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		Message oldest = null;
-		for (Message m : messages) {
-			
+		Iterator<Message> i = bufferIndex.dropOrderIterator();
+		while (i.hasNext()) {
+			Message m = i.next();
 			if (excludeMsgBeingSent && isSending(m.getId())) {
 				continue; // skip the message(s) that router is sending
 			}
-			
-			if (oldest == null ) {
-				oldest = m;
-			}
-			else if (oldest.getReceiveTime() > m.getReceiveTime()) {
-				oldest = m;
-			}
+			return m;
 		}
-		
-		return oldest;
+
+		return null;
 	}
 	
 	/**
@@ -366,16 +658,45 @@ public abstract class ActiveRouter extends MessageRouter {
 		return null;
 	}
 	
+	/**
+	 * Tries to send messages for the connections that are mentioned in the
+	 * tuples in the order given by a comparator until one of the
+	 * connections starts transferring or all tuples have been tried. The
+	 * result is the same as with {@link #tryMessagesForConnected(List)} for
+	 * a list sorted with the comparator (tuples that are equal by the
+	 * comparator are tried in the order of the list), but the list is not
+	 * sorted: the tuples are put to a binary heap and taken out one at a
+	 * time, so when one of the first tuples is accepted (as it usually is)
+	 * ordering the tuples takes linear time.
+	 * @param tuples The tuples to try
+	 * @param comparator The comparator that gives the order
+	 * @return The tuple whose connection accepted the message or null if
+	 * none of the connections accepted the message that was meant for them.
+	 */
+	protected Tuple<Message, Connection> tryMessagesForConnected(
+			List<Tuple<Message, Connection>> tuples,
+			Comparator<Tuple<Message, Connection>> comparator) {
+		TupleHeap heap = new TupleHeap(tuples, comparator);
+		Tuple<Message, Connection> t;
+		while ((t = heap.poll()) != null) {
+			if (startTransfer(t.getKey(), t.getValue()) == RCV_OK) {
+				return t;
+			}
+		}
+		return null;
+	}
+
 	 /**
 	  * Goes trough the messages until the other node accepts one
 	  * for receiving (or doesn't accept any). If a transfer is started, the
 	  * connection is included in the list of sending connections.
 	  * @param con Connection trough which the messages are sent
-	  * @param messages A list of messages to try
+	  * @param messages The messages to try
 	  * @return The message whose transfer was started or null if no 
 	  * transfer was started. 
 	  */
-	protected Message tryAllMessages(Connection con, List<Message> messages) {
+	protected Message tryAllMessages(Connection con,
+			Iterable<Message> messages) {
 		for (Message m : messages) {
 			int retVal = startTransfer(m, con); 
 			if (retVal == RCV_OK) {
@@ -434,7 +755,7 @@ public abstract class ActiveRouter extends MessageRouter {
 	/**
 	 * Tries to send all messages that this router is carrying to all
 	 * connections this node has. Messages are ordered using the 
-	 * {@link MessageRouter#sortByQueueMode(List)}. See 
+	 * {@link MessageRouter#getMessagesInQueueOrder()}. See 
 	 * {@link #tryMessagesToConnections(List, List)} for sending details.
 	 * @return The connections that started a transfer or null if no connection
 	 * accepted a message.
@@ -445,13 +766,17 @@ public abstract class ActiveRouter extends MessageRouter {
 			return null;
 		}
 		
-		//List<Connection> connections = getConnections();
-
-		List<Message> messages = 
-			new ArrayList<Message>(this.getMessageCollection());
-		this.sortByQueueMode(messages);
+		/* the messages are ordered lazily, only as far as they're tried */
+		Iterable<Message> messages = getMessagesInQueueOrder();
 
-		return tryMessagesToAllConnections(messages);
+		for (Connection con : getHost()) {
+			Message started = tryAllMessages(con, messages); 
+			if (started != null) { 
+				return con;
+			}
+		}
+		
+		return null;
 	}
 		
 	/**
@@ -511,39 +836,115 @@ public abstract class ActiveRouter extends MessageRouter {
 	 */
 	protected void addToSendingConnections(Connection con) {
 		this.sendingConnections.add(con);
+		updateSpeedShares();
 	}
 		
 	/**
 	 * Returns true if this router is transferring something at the moment or
-	 * some transfer has not been finalized.
+	 * some transfer has not been finalized and it can't start new transfers,
+	 * i.e., there are at least as many ongoing (outgoing or incoming)
+	 * transfers as the maximum number of concurrent transfers
+	 * (see {@link #MAX_TRANSFERS_S}).
 	 * @return true if this router is transferring something
 	 */
 	public boolean isTransferring() {
-		if (this.sendingConnections.size() > 0) {
+		int nrofTransfers = this.sendingConnections.size();
+		if (nrofTransfers >= this.maxTransfers) {
 			return true; // sending something
 		}
 		
-		/*if (this.getHost().getConnections().size() == 0) {
-			return false; // not connected
-		}*/
-		
-		/*List<Connection> connections = getConnections();
-		for (int i=0, n=connections.size(); i<n; i++) {
-			Connection con = connections.get(i);
-			if (!con.isReadyForTransfer()) {
-				return true;	// a connection isn't ready for new transfer
-			}
-		}*/
-		
 		for(Connection con : getHost()) {
-			if(!con.isReadyForTransfer()) {
-				return true;
+			if(!con.isReadyForTransfer() && !sendingConnections.contains(con)) {
+				nrofTransfers++;
+				if (nrofTransfers >= this.maxTransfers) {
+					return true;
+				}
 			}
 		}
 		
 		return false;		
 	}
 	
+	/**
+	 * Shares the bandwidth of the interfaces between the outgoing transfers
+	 * according to the bandwidth sharing mode
+	 * (see {@link #BANDWIDTH_SHARING_S})
+	 */
+	private void updateSpeedShares() {
+		if (this.bandwidthSharing == SHARE_NONE) {
+			return;
+		}
+		
+		for (int i=0, n=this.sendingConnections.size(); i<n; i++) {
+			Connection con = this.sendingConnections.get(i);
+			if (con.getMessage() == null) {
+				continue; // transfer is over
+			}
+			NetworkInterface ni = getInterface(con);
+			boolean deliverable = isDeliverable(con);
+			
+			/* count the transfers of the same interface that share its
+			 * bandwidth with this one */
+			int nrofSharing = 0;
+			boolean othersDeliverable = false;
+			for (int j=0; j<n; j++) {
+				Connection other = this.sendingConnections.get(j);
+				if (other.getMessage() == null || getInterface(other) != ni) {
+					continue;
+				}
+				boolean otherDeliverable = isDeliverable(other);
+				othersDeliverable |= otherDeliverable;
+				if (bandwidthSharing == SHARE_FAIR ||
+						otherDeliverable == deliverable) {
+					nrofSharing++;
+				}
+			}
+			
+			double share = 1.0 / nrofSharing;
+			if (bandwidthSharing == SHARE_DELIVERABLE_FIRST &&
+					!deliverable && othersDeliverable) {
+				share = 0; // wait for the deliverable ones
+			}
+			if (share != con.getSpeedShare()) {
+				con.setSpeedShare(share);
+				scheduleTransferCompletion(con); // finishing time changed
+			}
+		}
+	}
+
+	/**
+	 * Schedules the completion of a connection's ongoing transfer if the
+	 * transfers are pipelined
+	 * (see {@link core.World#PIPELINED_TRANSFERS_S})
+	 * @param con The connection
+	 */
+	private void scheduleTransferCompletion(Connection con) {
+		TransferCompletionQueue q = TransferCompletionQueue.getInstance();
+		if (q != null) {
+			q.schedule(con, getHost());
+		}
+	}
+	
+	/**
+	 * Returns this host's interface of a connection
+	 * @param con The connection
+	 * @return The interface
+	 */
+	private NetworkInterface getInterface(Connection con) {
+		return con.isInitiator(getHost()) ? con.getInterface1() :
+			con.getInterface2();
+	}
+	
+	/**
+	 * Returns true if the message transferred over the connection is
+	 * transferred to its final recipient
+	 * @param con The connection
+	 * @return true if the transfer is to the final recipient
+	 */
+	private boolean isDeliverable(Connection con) {
+		return con.getMessage().getTo() == con.getOtherNode(getHost());
+	}
+	
 	/**
 	 * Returns true if this router is currently sending a message with 
 	 * <CODE>msgId</CODE>.
@@ -562,10 +963,20 @@ public abstract class ActiveRouter extends MessageRouter {
 		return false;
 	}
 	
+	/**
+	 * Returns true if the router has no messages, transfers or applications
+	 * @return true if the router has no messages, transfers or applications
+	 */
+	@Override
+	public boolean isIdle() {
+		return getNrofMessages() == 0 && sendingConnections.size() == 0 &&
+			!hasApplications();
+	}
+
 	/**
 	 * Checks out all sending connections to finalize the ready ones 
-	 * and abort those whose connection went down. Also drops messages
-	 * whose TTL <= 0 (checking every one simulated minute).
+	 * and abort those whose connection went down. Also drops the messages
+	 * whose TTL expired while they were being sent.
 	 * @see #addToSendingConnections(Connection)
 	 */
 	@Override
@@ -573,8 +984,9 @@ public abstract class ActiveRouter extends MessageRouter {
 		
 		super.update();
 		
-		/* in theory we can have multiple sending connections even though
-		  currently all routers allow only one concurrent sending connection */
+		/* there can be multiple sending connections if the router allows
+		 * more than one concurrent transfer */
+		boolean removed = false;
 		for (int i=0; i<this.sendingConnections.size(); ) {
 			boolean removeCurrent = false;
 			Connection con = sendingConnections.get(i);
@@ -582,6 +994,7 @@ public abstract class ActiveRouter extends MessageRouter {
 			/* finalize ready transfers */
 			if (con.isMessageTransferred()) {
 				if (con.getMessage() != null) {
+					bufferIndex.forwarded(con.getMessage().getId());
 					transferDone(con);
 					con.finalizeTransfer();
 				} /* else: some other entity aborted transfer */
@@ -602,18 +1015,38 @@ public abstract class ActiveRouter extends MessageRouter {
 					this.makeRoomForMessage(0);
 				}
 				sendingConnections.remove(i);
+				removed = true;
 			}
 			else {
 				/* index increase needed only if nothing was removed */
 				i++;
 			}
 		}
+		if (removed) {
+			updateSpeedShares();
+		}
 		
-		/* time to do a TTL check and drop old messages? Only if not sending */
-		if (SimClock.getTime() - lastTtlCheck >= TTL_CHECK_INTERVAL && 
-				sendingConnections.size() == 0) {
-			dropExpiredMessages();
-			lastTtlCheck = SimClock.getTime();
+		/* forget the exchange states of the connections that are down */
+		if (!this.exchangeStates.isEmpty()) {
+			Iterator<Connection> i = this.exchangeStates.keySet().iterator();
+			while (i.hasNext()) {
+				if (!i.next().isUp()) {
+					i.remove();
+				}
+			}
+		}
+
+		/* drop the expired messages whose transfer is over */
+		for (int i=0; i<this.expiredWhileSending.size(); ) {
+			Message m = this.expiredWhileSending.get(i);
+			if (isSending(m.getId())) {
+				i++;
+				continue;
+			}
+			this.expiredWhileSending.remove(i);
+			if (getMessage(m.getId()) == m) {
+				deleteMessage(m.getId(), true);
+			}
 		}
 	}
 	
@@ -638,4 +1071,85 @@ public abstract class ActiveRouter extends MessageRouter {
 	protected int getConnectionCount() {
 		return getHost().getConnectionCount();
 	}
+
+	/**
+	 * Timer that drops a message from the buffer when its TTL expires
+	 */
+	private class ExpiryTimer extends TimerWheel.Timer {
+		private Message message;
+
+		public ExpiryTimer(Message message) {
+			this.message = message;
+		}
+
+		@Override
+		protected void expired() {
+			messageExpired(this.message);
+		}
+	}
+
+	/**
+	 * Binary min-heap of the indexes of a list of tuples, ordered by a
+	 * comparator and then by the index (i.e., the tuples come out in the
+	 * order a stable sort would give)
+	 */
+	private static class TupleHeap {
+		private List<Tuple<Message, Connection>> tuples;
+		private Comparator<Tuple<Message, Connection>> comparator;
+		private int[] heap;
+		private int size;
+
+		public TupleHeap(List<Tuple<Message, Connection>> tuples,
+				Comparator<Tuple<Message, Connection>> comparator) {
+			this.tuples = tuples;
+			this.comparator = comparator;
+			this.size = tuples.size();
+			this.heap = new int[size];
+			for (int i=0; i<size; i++) {
+				heap[i] = i;
+			}
+			for (int i = (size >>> 1) - 1; i >= 0; i--) {
+				siftDown(i);
+			}
+		}
+
+		/**
+		 * Removes and returns the first tuple
+		 * @return The tuple or null if the heap is empty
+		 */
+		public Tuple<Message, Connection> poll() {
+			if (size == 0) {
+				return null;
+			}
+			int top = heap[0];
+			size--;
+			if (size > 0) {
+				heap[0] = heap[size];
+				siftDown(0);
+			}
+			return tuples.get(top);
+		}
+
+		private void siftDown(int i) {
+			int index = heap[i];
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && less(heap[child+1], heap[child])) {
+					child++;
+				}
+				if (!less(heap[child], index)) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = index;
+		}
+
+		private boolean less(int i1, int i2) {
+			int c = comparator.compare(tuples.get(i1), tuples.get(i2));
+			return c < 0 || (c == 0 && i1 < i2);
+		}
+	}
 }
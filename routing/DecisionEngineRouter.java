@@ -91,7 +91,7 @@ public class DecisionEngineRouter extends ActiveRouter
 	protected RoutingDecisionEngine decider;
 	protected List<Tuple<Message, Connection>> outgoingMessages;
 	
-	protected Set<String> tombstones;
+	protected BitSet tombstones;
 	
 	/** 
 	 * Used to save state machine when new connections are made. See comment in
@@ -116,7 +116,7 @@ public class DecisionEngineRouter extends ActiveRouter
 			tombstoning = false;
 		
 		if(tombstoning)
-			tombstones = new HashSet<String>(10);
+			tombstones = new BitSet();
 		conStates = new HashMap<Connection, Integer>(4);
 	}
 
@@ -128,7 +128,7 @@ public class DecisionEngineRouter extends ActiveRouter
 		tombstoning = r.tombstoning;
 		
 		if(this.tombstoning)
-			tombstones = new HashSet<String>(10);
+			tombstones = new BitSet();
 		conStates = new HashMap<Connection, Integer>(4);
 	}
 
@@ -328,7 +328,7 @@ public class DecisionEngineRouter extends ActiveRouter
 		else if(tombstoning && retVal == DENIED_DELIVERED)
 		{
 			this.deleteMessage(m.getId(), false);
-			tombstones.add(m.getId());
+			tombstones.set(m.getIdIndex());
 		}
 		else if (deleteDelivered && (retVal == DENIED_OLD || retVal == DENIED_DELIVERED) && 
 				decider.shouldDeleteOldMessage(m, con.getOtherNode(getHost()))) {
@@ -344,7 +344,7 @@ public class DecisionEngineRouter extends ActiveRouter
 	@Override
 	public int receiveMessage(Message m, DTNHost from)
 	{
-		if(isDeliveredMessage(m) || (tombstoning && tombstones.contains(m.getId())))
+		if(isDeliveredMessage(m) || (tombstoning && tombstones.get(m.getIdIndex())))
 			return DENIED_DELIVERED;
 			
 		return super.receiveMessage(m, from);
@@ -388,7 +388,7 @@ public class DecisionEngineRouter extends ActiveRouter
 		
 		if (isFirstDelivery)
 		{
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.put(incoming.getIdIndex(), aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
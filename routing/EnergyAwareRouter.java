@@ -169,6 +169,14 @@ public class EnergyAwareRouter extends ActiveRouter
 		}
 	}
 	
+	/**
+	 * Returns false; the energy is consumed on every update
+	 */
+	@Override
+	public boolean isIdle() {
+		return false;
+	}
+
 	@Override
 	public void update() {
 		super.update();
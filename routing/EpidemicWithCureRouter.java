@@ -7,25 +7,26 @@ import core.*;
 public class EpidemicWithCureRouter extends ActiveRouter
 {
 	/**
-	 * Stores the IDs of messages that have been delivered to their final 
-	 * destination, which is not necessarily this host. This info is used to
+	 * Stores the ID indexes (see {@link Message#getIdIndex()}) of messages
+	 * that have been delivered to their final destination, which is not
+	 * necessarily this host. This info is used to
 	 * inform nodes of a message's completion. Thus, if a node is carrying one of 
 	 * these messages and it tries to send to a neighbor, it will be informed that
 	 * the message has already been delivered and it can be deleted from the
 	 * buffer.
 	 */
-	protected Set<String> finishedMessages;
+	protected BitSet finishedMessages;
 	
 	public EpidemicWithCureRouter(Settings s)
 	{
 		super(s);
-		finishedMessages = new HashSet<String>();
+		finishedMessages = new BitSet();
 	}
 
 	public EpidemicWithCureRouter(EpidemicWithCureRouter r)
 	{
 		super(r);
-		finishedMessages = new HashSet<String>(r.finishedMessages);
+		finishedMessages = (BitSet)r.finishedMessages.clone();
 	}
 
 	//@Override
@@ -37,7 +38,7 @@ public class EpidemicWithCureRouter extends ActiveRouter
 	@Override
 	public int receiveMessage(Message m, DTNHost from)
 	{
-		if(finishedMessages.contains(m.getId()))
+		if(finishedMessages.get(m.getIdIndex()))
 			return DENIED_DELIVERED;
 		return super.receiveMessage(m, from);
 	}
@@ -49,7 +50,7 @@ public class EpidemicWithCureRouter extends ActiveRouter
 		if(retVal == DENIED_DELIVERED)
 		{
 			String id = m.getId();
-			finishedMessages.add(id);
+			finishedMessages.set(m.getIdIndex());
 			if(hasMessage(id))
 				deleteMessage(id, false);
 		}
@@ -61,7 +62,7 @@ public class EpidemicWithCureRouter extends ActiveRouter
 	{
 		Message m = super.messageTransferred(id, from);
 		if(isDeliveredMessage(m))
-			finishedMessages.add(m.getId());
+			finishedMessages.set(m.getIdIndex());
 		return m;
 	}
 
@@ -5,16 +5,14 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import routing.maxprop.MaxPropDijkstra;
+import routing.maxprop.MeetingProbabilityTable;
 import routing.maxprop.MeetingProbabilitySet;
 import core.Connection;
 import core.DTNHost;
@@ -49,17 +47,17 @@ public class MaxPropRouter extends ActiveRouter {
 	private MeetingProbabilitySet probs;
 	/** meeting probabilities of all hosts from this host's point of view 
 	 * mapped using host's network address */
-	private Map<Integer, MeetingProbabilitySet> allProbs;
+	private MeetingProbabilityTable allProbs;
 	/** the cost-to-node calculator */
 	private MaxPropDijkstra dijkstra;	
-	/** IDs of the messages that are known to have reached the final dst */
-	private Set<String> ackedMessageIds;
-	/** mapping of the current costs for all messages. This should be set to
-	 * null always when the costs should be updated (a host is met or a new
-	 * message is received) */
-	private Map<Integer, Double> costsForMessages;
-	/** From host of the last cost calculation */
-	private DTNHost lastCostFrom;
+	/** ID indexes of the messages that are known to have reached the final
+	 * dst (see {@link Message#getIdIndex()}) */
+	private BitSet ackedMessages;
+	/** has the drop order changed (i.e., have the costs changed) since it
+	 * was last set */
+	private boolean dropOrderChanged = true;
+	/** the threshold the drop order was last set with */
+	private int dropOrderThreshold;
 		
 	/** Over how many samples the "average number of bytes transferred per
 	 * transfer opportunity" is taken */
@@ -109,16 +107,16 @@ public class MaxPropRouter extends ActiveRouter {
 		super(r);
 		this.alpha = r.alpha;
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
-		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
-		this.dijkstra = new MaxPropDijkstra(this.allProbs);
-		this.ackedMessageIds = new HashSet<String>();
+		this.allProbs = new MeetingProbabilityTable();
+		this.dijkstra = new MaxPropDijkstra(this.allProbs.getAll());
+		this.ackedMessages = new BitSet();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 	}	
 
 	@Override
 	public void changedConnection(Connection con) {
 		if (con.isUp()) { // new connection
-			this.costsForMessages = null; // invalidate old cost estimates
+			this.dropOrderChanged = true;
 			
 			if (con.isInitiator(getHost())) {
 				/* initiator performs all the actions on behalf of the
@@ -132,22 +130,22 @@ public class MaxPropRouter extends ActiveRouter {
 				MaxPropRouter otherRouter = (MaxPropRouter)mRouter;
 				
 				/* exchange ACKed message data */
-				this.ackedMessageIds.addAll(otherRouter.ackedMessageIds);
-				otherRouter.ackedMessageIds.addAll(this.ackedMessageIds);
+				this.ackedMessages.or(otherRouter.ackedMessages);
+				otherRouter.ackedMessages.or(this.ackedMessages);
 				deleteAckedMessages();
 				otherRouter.deleteAckedMessages();
 				
 				/* update both meeting probabilities */
 				probs.updateMeetingProbFor(otherHost.getAddress());
 				otherRouter.probs.updateMeetingProbFor(getHost().getAddress());
+				this.ownProbsChanged();
+				otherRouter.ownProbsChanged();
 				
-				/* exchange the transitive probabilities */
-				this.updateTransitiveProbs(otherRouter.allProbs);
-				otherRouter.updateTransitiveProbs(this.allProbs);
-				this.allProbs.put(otherHost.getAddress(),
-						otherRouter.probs.replicate());
-				otherRouter.allProbs.put(getHost().getAddress(),
-						this.probs.replicate());
+				/* exchange the transitive probabilities (including the
+				 * updated own probabilities) */
+				this.updateTransitiveProbs(otherRouter, otherHost);
+				otherRouter.updateTransitiveProbs(this, getHost());
+				otherRouter.dropOrderChanged = true;
 			}
 		}
 		else {
@@ -158,17 +156,28 @@ public class MaxPropRouter extends ActiveRouter {
 
 	/**
 	 * Updates transitive probability values by replacing the current 
-	 * MeetingProbabilitySets with the values from the given mapping
-	 * if the given sets have more recent updates.
-	 * @param p Mapping of the values of the other host
+	 * MeetingProbabilitySets with the ones known by the other host
+	 * if the other host has more recent versions of them.
+	 * @param other The other host's router
+	 * @param otherHost The other host
 	 */
-	private void updateTransitiveProbs(Map<Integer, MeetingProbabilitySet> p) {
-		for (Map.Entry<Integer, MeetingProbabilitySet> e : p.entrySet()) {
-			MeetingProbabilitySet myMps = this.allProbs.get(e.getKey()); 
-			if (myMps == null || 
-				e.getValue().getLastUpdateTime() > myMps.getLastUpdateTime() ) {
-				this.allProbs.put(e.getKey(), e.getValue().replicate());
-			}
+	private void updateTransitiveProbs(MaxPropRouter other,
+			DTNHost otherHost) {
+		long seq = this.allProbs.getSeq();
+		this.allProbs.updateFrom(other.allProbs, otherHost.getAddress());
+		for (int address : this.allProbs.getReplacedSince(seq)) {
+			this.dijkstra.probsChanged(address);
+		}
+	}
+
+	/**
+	 * Stores the current version of this host's meeting probabilities to
+	 * the known probabilities and tells the cost calculator about the change
+	 */
+	private void ownProbsChanged() {
+		int address = getHost().getAddress();
+		if (this.allProbs.put(address, this.probs)) {
+			this.dijkstra.probsChanged(address);
 		}
 	}
 	
@@ -176,20 +185,24 @@ public class MaxPropRouter extends ActiveRouter {
 	 * Deletes the messages from the message buffer that are known to be ACKed
 	 */
 	private void deleteAckedMessages() {
-		for (String id : this.ackedMessageIds) {
-			if (this.hasMessage(id) && !isSending(id)) {
-				this.deleteMessage(id, false);
+		List<String> acked = new ArrayList<String>();
+		for (Message m : getMessageCollection()) {
+			if (this.ackedMessages.get(m.getIdIndex()) &&
+					!isSending(m.getId())) {
+				acked.add(m.getId());
 			}
 		}
+		for (String id : acked) {
+			this.deleteMessage(id, false);
+		}
 	}
 	
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
-		this.costsForMessages = null; // new message -> invalidate costs
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
-			this.ackedMessageIds.add(id);
+			this.ackedMessages.set(m.getIdIndex());
 		}
 		return m;
 	}
@@ -205,7 +218,7 @@ public class MaxPropRouter extends ActiveRouter {
 		Message m = con.getMessage();
 		/* was the message delivered to the final recipient? */
 		if (m.getTo() == con.getOtherNode(getHost())) { 
-			this.ackedMessageIds.add(m.getId()); // yes, add to ACKed messages
+			this.ackedMessages.set(m.getIdIndex()); // yes, add to ACKed msgs
 			this.deleteMessage(m.getId(), false); // delete from buffer
 		}
 	}
@@ -251,20 +264,23 @@ public class MaxPropRouter extends ActiveRouter {
 	 */
     @Override
 	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		List<Message> validMessages = new ArrayList<Message>();
-
-		for (Message m : messages) {	
-			if (excludeMsgBeingSent && isSending(m.getId())) {
-				continue; // skip the message(s) that router is sending
+		if (isRouterDropOrder()) {
+			int threshold = this.calcThreshold();
+			if (dropOrderChanged || threshold != dropOrderThreshold) {
+				/* the message that would be sent last is dropped first */
+				setDropOrder(Collections.reverseOrder(
+						new MaxPropComparator(threshold)));
+				this.dropOrderChanged = false;
+				this.dropOrderThreshold = threshold;
 			}
-			validMessages.add(m);
 		}
-		
-		Collections.sort(validMessages, 
-				new MaxPropComparator(this.calcThreshold())); 
-		
-		return validMessages.get(validMessages.size()-1); // return last message
+
+		return super.getOldestMessage(excludeMsgBeingSent);
+	}
+
+	@Override
+	protected boolean hasRouterDropOrder() {
+		return true;
 	}
 	
 	@Override
@@ -285,40 +301,26 @@ public class MaxPropRouter extends ActiveRouter {
 	/**
 	 * Returns the message delivery cost between two hosts from this host's
 	 * point of view. If there is no path between "from" and "to" host, 
-	 * Double.MAX_VALUE is returned. Paths are calculated only to hosts
-	 * that this host has messages to.
+	 * Double.MAX_VALUE is returned.
 	 * @param from The host where a message is coming from
 	 * @param to The host where a message would be destined to
 	 * @return The cost of the cheapest path to the destination or 
 	 * Double.MAX_VALUE if such a path doesn't exist
 	 */
 	public double getCost(DTNHost from, DTNHost to) {
-		/* check if the cached values are OK */
-		if (this.costsForMessages == null || lastCostFrom != from) {
-			/* cached costs are invalid -> calculate new costs */
-			this.allProbs.put(getHost().getAddress(), this.probs);
-			int fromIndex = from.getAddress();
-			
-			/* calculate paths only to nodes we have messages to 
-			 * (optimization) */
-			Set<Integer> toSet = new HashSet<Integer>();
-			for (Message m : getMessageCollection()) {
-				toSet.add(m.getTo().getAddress());
-			}
-						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
-			this.lastCostFrom = from; // store source host for caching checks
-		}
-		
-		if (costsForMessages.containsKey(to.getAddress())) {
-			return costsForMessages.get(to.getAddress());
-		}
-		else {
-			/* there's no known path to the given host */
-			return Double.MAX_VALUE;
-		}
+		return dijkstra.getCost(from.getAddress(), to.getAddress());
 	}
-	
+
+	/**
+	 * Returns the meeting probabilities this host knows for a host. Method
+	 * is public only to make testing easier.
+	 * @param host The host whose meeting probabilities are requested
+	 * @return The meeting probabilities or null if they aren't known
+	 */
+	public MeetingProbabilitySet getKnownProbs(DTNHost host) {
+		return this.allProbs.get(host.getAddress());
+	}
+
 	/**
 	 * Tries to send all other messages to all connected hosts ordered by
 	 * hop counts and their delivery probability
@@ -328,8 +330,6 @@ public class MaxPropRouter extends ActiveRouter {
 		List<Tuple<Message, Connection>> messages = 
 			new ArrayList<Tuple<Message, Connection>>(); 
 	
-		Collection<Message> msgCollection = getMessageCollection();
-		
 		/* for all connected hosts that are not transferring at the moment,
 		 * collect all the messages that could be sent */
 		for(Connection con : getHost()) {
@@ -341,11 +341,10 @@ public class MaxPropRouter extends ActiveRouter {
 				continue; // skip hosts that are transferring
 			}
 			
-			for (Message m : msgCollection) {
-				/* skip messages that the other host has or that have
-				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+			for (Message m : getMessagesToExchange(con)) {
+				/* skip messages that have passed the other host (the
+				 * ones the other host has are not exchanged) */
+				if (m.hasVisited(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
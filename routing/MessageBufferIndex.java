@@ -0,0 +1,331 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import core.Message;
+
+/**
+ * <P>
+ * Index of the messages in a router's buffer. Keeps the messages in the
+ * order they should be dropped (according to a drop policy) and in the
+ * order their TTLs expire, so that the next message to drop or to expire
+ * is found without going through the whole buffer.</P>
+ *
+ * <P>With the fixed drop policies (see {@link ActiveRouter#DROP_POLICY_S})
+ * the messages are kept in balanced search trees and adding, removing and
+ * finding the next message to drop are O(log n) operations. With the
+ * router specific policy, the order is given by the router as a comparator
+ * that may depend on the state of the router (e.g., MaxProp's delivery
+ * costs), so the messages are sorted only when the order is needed and
+ * the order has been changed (see {@link #setOrder(Comparator)}) or new
+ * messages have been added since the last sort.</P>
+ */
+public class MessageBufferIndex {
+	/** drop policy of the index */
+	private int policy;
+	/** all messages in the index by message ID */
+	private HashMap<String, Entry> entries;
+	/** messages in the drop order (fixed policies) */
+	private TreeSet<Entry> dropOrder;
+	/** messages in the order of expiry */
+	private TreeSet<Entry> expiryOrder;
+	/** router specific drop order (or null if not given) */
+	private Comparator<Message> routerOrder;
+	/** messages sorted by the router specific order (may contain removed
+	 * entries) */
+	private ArrayList<Entry> sorted;
+	/** is the sorted list up to date (except for removed entries) */
+	private boolean isSorted;
+	/** number of removed entries still in the sorted list */
+	private int nrofRemovedInSorted;
+	/** sequence number of the next added message; breaks ties */
+	private long nextSeq;
+
+	/**
+	 * Creates a new index
+	 * @param policy The drop policy (one of the ActiveRouter's DROP_
+	 * constants)
+	 */
+	public MessageBufferIndex(int policy) {
+		this.policy = policy;
+		this.entries = new HashMap<String, Entry>();
+		this.dropOrder = new TreeSet<Entry>(new DropComparator());
+		this.expiryOrder = new TreeSet<Entry>(new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				int c = Double.compare(e1.expiryTime, e2.expiryTime);
+				return c != 0 ? c : compareSeq(e1, e2);
+			}
+		});
+		this.sorted = new ArrayList<Entry>();
+		this.isSorted = true;
+		this.nextSeq = 0;
+	}
+
+	/**
+	 * Adds a message to the index. If there already is a message with the
+	 * same ID, it is replaced.
+	 * @param m The message to add
+	 */
+	public void add(Message m) {
+		remove(m.getId());
+		Entry e = new Entry(m, nextSeq++);
+		entries.put(m.getId(), e);
+		expiryOrder.add(e);
+		if (isRouterOrder()) {
+			sorted.add(e);
+			isSorted = false;
+		}
+		else {
+			dropOrder.add(e);
+		}
+	}
+
+	/**
+	 * Removes a message from the index
+	 * @param id ID of the message to remove
+	 */
+	public void remove(String id) {
+		Entry e = entries.remove(id);
+		if (e == null) {
+			return;
+		}
+		expiryOrder.remove(e);
+		if (isRouterOrder()) {
+			e.removed = true;
+			nrofRemovedInSorted++;
+			if (nrofRemovedInSorted > entries.size()) {
+				compactSorted();
+			}
+		}
+		else {
+			dropOrder.remove(e);
+		}
+	}
+
+	/**
+	 * Informs the index that a message was forwarded to another host
+	 * (changes the message's place in the MOFO order)
+	 * @param id ID of the message
+	 */
+	public void forwarded(String id) {
+		Entry e = entries.get(id);
+		if (e == null) {
+			return;
+		}
+		if (policy == ActiveRouter.DROP_MOFO) {
+			dropOrder.remove(e);
+			e.nrofForwards++;
+			dropOrder.add(e);
+		}
+		else {
+			e.nrofForwards++;
+		}
+	}
+
+	/**
+	 * Sets the router specific drop order. Should be called every time the
+	 * order of the messages may have changed. Has no effect if the index
+	 * doesn't use the router specific policy.
+	 * @param order Comparator that orders the messages so that the message
+	 * to drop first is the first one
+	 */
+	public void setOrder(Comparator<Message> order) {
+		this.routerOrder = order;
+		this.isSorted = false;
+	}
+
+	/**
+	 * Returns true if the index uses the router specific drop order
+	 * @return true if the index uses the router specific drop order
+	 */
+	public boolean isRouterOrder() {
+		return this.policy == ActiveRouter.DROP_ROUTER;
+	}
+
+	/**
+	 * Returns the message whose TTL expires first
+	 * @return the message whose TTL expires first or null if the index is
+	 * empty
+	 */
+	public Message getFirstToExpire() {
+		return expiryOrder.isEmpty() ? null : expiryOrder.first().message;
+	}
+
+	/**
+	 * Returns an iterator over the messages in the order they should be
+	 * dropped. The index must not be modified while iterating.
+	 * @return an iterator over the messages in the drop order
+	 */
+	public Iterator<Message> dropOrderIterator() {
+		if (!isRouterOrder()) {
+			return new MessageIterator(dropOrder.iterator());
+		}
+
+		if (!isSorted) {
+			compactSorted();
+			if (routerOrder != null) {
+				final Comparator<Message> order = routerOrder;
+				Collections.sort(sorted, new Comparator<Entry>() {
+					public int compare(Entry e1, Entry e2) {
+						int c = order.compare(e1.message, e2.message);
+						return c != 0 ? c : compareSeq(e1, e2);
+					}
+				});
+			}
+			else { // no order given; same as FIFO
+				Collections.sort(sorted, new DropComparator(
+						ActiveRouter.DROP_FIFO));
+			}
+			isSorted = true;
+		}
+		return new MessageIterator(sorted.iterator());
+	}
+
+	/**
+	 * Returns the number of messages in the index
+	 * @return the number of messages in the index
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes the removed entries from the sorted list
+	 */
+	private void compactSorted() {
+		if (nrofRemovedInSorted == 0) {
+			return;
+		}
+		int j = 0;
+		for (int i=0, n=sorted.size(); i<n; i++) {
+			Entry e = sorted.get(i);
+			if (!e.removed) {
+				sorted.set(j++, e);
+			}
+		}
+		for (int i = sorted.size() - 1; i >= j; i--) {
+			sorted.remove(i);
+		}
+		nrofRemovedInSorted = 0;
+	}
+
+	private static int compareSeq(Entry e1, Entry e2) {
+		return e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+	}
+
+	/**
+	 * A message in the index. The values the messages are ordered by are
+	 * stored when the message is added so that they can't change while the
+	 * message is in the index.
+	 */
+	private static class Entry {
+		private Message message;
+		private long seq;
+		private double receiveTime;
+		private double expiryTime;
+		private int nrofForwards;
+		private boolean removed;
+
+		public Entry(Message m, long seq) {
+			this.message = m;
+			this.seq = seq;
+			this.receiveTime = m.getReceiveTime();
+			if (m.getInitTtl() == Message.INFINITE_TTL) {
+				this.expiryTime = Double.MAX_VALUE;
+			}
+			else {
+				this.expiryTime = m.getCreationTime() + m.getInitTtl() * 60.0;
+			}
+			this.nrofForwards = 0;
+			this.removed = false;
+		}
+	}
+
+	/**
+	 * Orders the entries by one of the fixed drop policies. Ties are broken
+	 * by the order the messages were added to the index.
+	 */
+	private class DropComparator implements Comparator<Entry> {
+		private int policy;
+
+		public DropComparator() {
+			this(MessageBufferIndex.this.policy);
+		}
+
+		public DropComparator(int policy) {
+			this.policy = policy;
+		}
+
+		public int compare(Entry e1, Entry e2) {
+			int c;
+			switch (policy) {
+			case ActiveRouter.DROP_LIFO:
+				c = Double.compare(e2.receiveTime, e1.receiveTime);
+				break;
+			case ActiveRouter.DROP_TTL:
+				c = Double.compare(e1.expiryTime, e2.expiryTime);
+				break;
+			case ActiveRouter.DROP_MOFO:
+				c = e2.nrofForwards - e1.nrofForwards;
+				if (c == 0) { // equally forwarded -> oldest first
+					c = Double.compare(e1.receiveTime, e2.receiveTime);
+				}
+				break;
+			default: // FIFO
+				c = Double.compare(e1.receiveTime, e2.receiveTime);
+			}
+			return c != 0 ? c : compareSeq(e1, e2);
+		}
+	}
+
+	/**
+	 * Iterator over the messages of entries (skips removed entries)
+	 */
+	private static class MessageIterator implements Iterator<Message> {
+		private Iterator<Entry> entryIterator;
+		private Entry next;
+
+		public MessageIterator(Iterator<Entry> entryIterator) {
+			this.entryIterator = entryIterator;
+			findNext();
+		}
+
+		private void findNext() {
+			next = null;
+			while (entryIterator.hasNext()) {
+				Entry e = entryIterator.next();
+				if (!e.removed) {
+					next = e;
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Message next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Message m = next.message;
+			findNext();
+			return m;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
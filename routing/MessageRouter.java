@@ -4,17 +4,21 @@
  */
 package routing;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 import core.Application;
 import core.Connection;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
 import core.MessageListener;
 import core.Settings;
@@ -70,20 +74,42 @@ public abstract class MessageRouter {
 	public static final int DENIED_CHECKIN = -6;
 	
 	protected List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	private HashMap<String, Message> incomingMessages;
+	/** The messages being transferred and the hosts they are from (there are
+	 * only a few at a time, so a list is faster than a map) */
+	private ArrayList<Tuple<Message, DTNHost>> incomingMessages;
 	/** The messages this router is carrying */
 	private HashMap<String, Message> messages; 
-	/** The messages this router has received as the final recipient */
-	protected HashMap<String, Message> deliveredMessages;
+	/** The messages this router has received as the final recipient by
+	 * their ID indexes (see {@link Message#getIdIndex()}) */
+	protected IntHashMap<Message> deliveredMessages;
 	/** Host where this router belongs to */
 	private DTNHost host;
 	/** size of the buffer */
 	private int bufferSize;
+	/** sum of the sizes of the messages in the buffer */
+	private long bufferOccupancy;
 	/** TTL for all messages */
 	protected int msgTtl;
 	/** Queue mode for sending messages */
 	private int sendQueueMode;
+	/** the messages in the order they were added to the buffer; may also
+	 * contain messages that have been removed since
+	 * (see {@link #getMessagesInQueueOrder()}) */
+	private ArrayList<Message> arrivalOrder;
+	/** number of removed messages in the arrival order list */
+	private int nrofRemovedInArrivalOrder;
+	/** are the messages in the arrival order list in the order of their
+	 * receive times */
+	private boolean isArrivalOrderSorted;
+	
+	/** Orders messages by their receive times */
+	private static final Comparator<Message> RECEIVE_TIME_ORDER =
+		new Comparator<Message>() {
+			public int compare(Message m1, Message m2) {
+				return Double.compare(m1.getReceiveTime(),
+						m2.getReceiveTime());
+			}
+		};
 
 	/** applications attached to the host */
 	private HashMap<String, Collection<Application>>	applications = null;
@@ -126,9 +152,13 @@ public abstract class MessageRouter {
 	 * @param mListeners The message listeners
 	 */
 	public void initialize(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
+		this.incomingMessages = new ArrayList<Tuple<Message, DTNHost>>();
 		this.messages = new HashMap<String, Message>();
-		this.deliveredMessages = new HashMap<String, Message>();
+		this.bufferOccupancy = 0;
+		this.deliveredMessages = new IntHashMap<Message>();
+		this.arrivalOrder = new ArrayList<Message>();
+		this.nrofRemovedInArrivalOrder = 0;
+		this.isArrivalOrderSorted = true;
 		this.mListeners = mListeners;
 		this.host = host;
 	}
@@ -163,6 +193,27 @@ public abstract class MessageRouter {
 		}
 	}
 	
+	/**
+	 * Returns true if updating this router would do nothing until the host
+	 * gets a new message or connection. Hosts whose routers are idle (and
+	 * whose connections are handled by contact managers) can be left out of
+	 * the updates (see {@link core.World#SKIP_IDLE_HOSTS_S}). Routers that
+	 * do something periodically in their update must not be idle. The
+	 * default implementation always returns false.
+	 * @return True if the router is idle
+	 */
+	public boolean isIdle() {
+		return false;
+	}
+
+	/**
+	 * Returns true if there are applications attached to this router
+	 * @return true if there are applications attached to this router
+	 */
+	protected boolean hasApplications() {
+		return !this.applications.isEmpty();
+	}
+
 	/**
 	 * Informs the router about change in connections state.
 	 * @param con The connection that changed
@@ -196,7 +247,7 @@ public abstract class MessageRouter {
 	 * this host as the final recipient.
 	 */
 	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
+		return (this.deliveredMessages.containsKey(m.getIdIndex()));
 	}
 	
 	/**
@@ -235,17 +286,27 @@ public abstract class MessageRouter {
 	 * size isn't defined)
 	 */
 	public int getFreeBufferSize() {
-		int occupancy = 0;
-		
 		if (this.getBufferSize() == Integer.MAX_VALUE) {
 			return Integer.MAX_VALUE;
 		}
 		
+		assert this.bufferOccupancy == countBufferOccupancy() : 
+			"Buffer occupancy of " + host + " is " + this.bufferOccupancy + 
+			" but the messages take " + countBufferOccupancy() + " bytes";
+		return (int)(this.getBufferSize() - this.bufferOccupancy);
+	}
+	
+	/**
+	 * Counts the sizes of all messages in the buffer. Used for checking the
+	 * incrementally updated buffer occupancy when assertions are enabled.
+	 * @return The sum of the sizes of the messages in the buffer
+	 */
+	private long countBufferOccupancy() {
+		long occupancy = 0;
 		for (Message m : getMessageCollection()) {
 			occupancy += m.getSize();
 		}
-		
-		return this.getBufferSize() - occupancy;
+		return occupancy;
 	}
 	
 	/**
@@ -345,7 +406,7 @@ public abstract class MessageRouter {
 			addToMessages(aMessage, false);
 		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.put(incoming.getIdIndex(), aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
@@ -363,7 +424,8 @@ public abstract class MessageRouter {
 	 * @param from Who the message was from (previous hop).
 	 */
 	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
+		removeFromIncomingBuffer(m.getId(), from);
+		this.incomingMessages.add(new Tuple<Message, DTNHost>(m, from));
 	}
 	
 	/**
@@ -374,7 +436,13 @@ public abstract class MessageRouter {
 	 * @return The found message or null if such message wasn't found
 	 */
 	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
+		for (int i=0, n=this.incomingMessages.size(); i<n; i++) {
+			Tuple<Message, DTNHost> t = this.incomingMessages.get(i);
+			if (t.getValue() == from && t.getKey().getId().equals(id)) {
+				return this.incomingMessages.remove(i).getKey();
+			}
+		}
+		return null;
 	}
 	
 	/**
@@ -384,7 +452,12 @@ public abstract class MessageRouter {
 	 * @return True if such message is incoming right now
 	 */
 	protected boolean isIncomingMessage(String id) {
-		return this.incomingMessages.containsKey(id);
+		for (int i=0, n=this.incomingMessages.size(); i<n; i++) {
+			if (this.incomingMessages.get(i).getKey().getId().equals(id)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -395,7 +468,28 @@ public abstract class MessageRouter {
 	 * message, if false, nothing is informed.
 	 */
 	protected void addToMessages(Message m, boolean newMessage) {
-		this.messages.put(m.getId(), m);
+		Message old = this.messages.put(m.getId(), m);
+		if (old != null) {
+			this.bufferOccupancy -= old.getSize();
+			if (old != m) {
+				this.nrofRemovedInArrivalOrder++;
+			}
+		}
+		this.bufferOccupancy += m.getSize();
+		
+		/* a message that is put again keeps its place in the arrival order */
+		if (this.sendQueueMode == Q_MODE_FIFO && old != m) {
+			int last = this.arrivalOrder.size() - 1;
+			if (last >= 0 && this.arrivalOrder.get(last).getReceiveTime() >
+					m.getReceiveTime()) {
+				this.isArrivalOrderSorted = false;
+			}
+			this.arrivalOrder.add(m);
+			if (this.nrofRemovedInArrivalOrder > this.messages.size()) {
+				compactArrivalOrder();
+			}
+		}
+		this.host.wakeUp();
 		
 		if (newMessage) {
 			for (MessageListener ml : this.mListeners) {
@@ -411,6 +505,10 @@ public abstract class MessageRouter {
 	 */
 	protected Message removeFromMessages(String id) {
 		Message m = this.messages.remove(id);
+		if (m != null) {
+			this.bufferOccupancy -= m.getSize();
+			this.nrofRemovedInArrivalOrder++;
+		}
 		return m;
 	}
 	
@@ -514,6 +612,57 @@ public abstract class MessageRouter {
 		return list;
 	}
 
+	/**
+	 * Returns the messages of this router in the order defined by the
+	 * current queue mode. The order is created lazily while the messages are
+	 * iterated over, so going through only the first few messages is cheap
+	 * also with big buffers: in FIFO mode the messages are kept in the order
+	 * they arrived and in random mode only the iterated messages are
+	 * shuffled. All iterators of the returned object give the messages in
+	 * the same order. Messages that are removed from the buffer while
+	 * iterating are skipped and the messages that are added aren't included.
+	 * @return The messages in the queue mode order
+	 */
+	protected Iterable<Message> getMessagesInQueueOrder() {
+		switch (sendQueueMode) {
+		case Q_MODE_RANDOM:
+			List<Message> copy = new ArrayList<Message>(this.messages.values());
+			return new QueueOrder(copy, copy.size(),
+					new Random(SimClock.getIntTime()));
+		case Q_MODE_FIFO:
+			if (!this.isArrivalOrderSorted || this.nrofRemovedInArrivalOrder >
+					this.messages.size()) {
+				compactArrivalOrder();
+			}
+			return new QueueOrder(this.arrivalOrder, this.arrivalOrder.size(),
+					null);
+		/* add more queue modes here */
+		default:
+			throw new SimError("Unknown queue mode " + sendQueueMode);
+		}
+	}
+	
+	/**
+	 * Removes the removed messages from the arrival order list and sorts
+	 * it by the receive times if needed. A new list is created so that the
+	 * existing QueueOrders aren't affected.
+	 */
+	private void compactArrivalOrder() {
+		ArrayList<Message> current = new ArrayList<Message>(
+				this.messages.size());
+		for (Message m : this.arrivalOrder) {
+			if (this.messages.get(m.getId()) == m) {
+				current.add(m);
+			}
+		}
+		if (!this.isArrivalOrderSorted) {
+			Collections.sort(current, RECEIVE_TIME_ORDER); // stable sort
+		}
+		this.arrivalOrder = current;
+		this.nrofRemovedInArrivalOrder = 0;
+		this.isArrivalOrderSorted = true;
+	}
+	
 	/**
 	 * Gives the order of the two given messages as defined by the current
 	 * queue mode 
@@ -558,8 +707,8 @@ public abstract class MessageRouter {
 		ri.addMoreInfo(delivered);
 		ri.addMoreInfo(cons);
 		
-		for (Message m : this.incomingMessages.values()) {
-			incoming.addMoreInfo(new RoutingInfo(m));
+		for (Tuple<Message, DTNHost> t : this.incomingMessages) {
+			incoming.addMoreInfo(new RoutingInfo(t.getKey()));
 		}
 		
 		for (Message m : this.deliveredMessages.values()) {
@@ -629,4 +778,75 @@ public abstract class MessageRouter {
 	}
 	
 	public abstract MessageRouter replicate();
+	/**
+	 * Messages in queue mode order (see {@link #getMessagesInQueueOrder()})
+	 */
+	private class QueueOrder implements Iterable<Message> {
+		/** the messages (only the first size ones are used) */
+		private List<Message> order;
+		private int size;
+		/** random number generator for shuffling or null if the messages
+		 * are already in order */
+		private Random rng;
+		/** number of messages in the beginning of the list that are in
+		 * their final places */
+		private int nrofShuffled;
+		
+		public QueueOrder(List<Message> order, int size, Random rng) {
+			this.order = order;
+			this.size = size;
+			this.rng = rng;
+			this.nrofShuffled = 0;
+		}
+		
+		/**
+		 * Returns the message at the given index of the order
+		 * @param index The index
+		 * @return The message
+		 */
+		private Message get(int index) {
+			/* Fisher-Yates shuffle up to the index */
+			if (rng != null) {
+				for (; nrofShuffled <= index; nrofShuffled++) {
+					Collections.swap(order, nrofShuffled, nrofShuffled +
+							rng.nextInt(size - nrofShuffled));
+				}
+			}
+			return order.get(index);
+		}
+		
+		public Iterator<Message> iterator() {
+			return new Iterator<Message>() {
+				private int index = 0;
+				private Message next = findNext();
+				
+				private Message findNext() {
+					while (index < size) {
+						Message m = get(index++);
+						if (messages.get(m.getId()) == m) {
+							return m;
+						}
+					}
+					return null;
+				}
+				
+				public boolean hasNext() {
+					return next != null;
+				}
+				
+				public Message next() {
+					if (next == null) {
+						throw new NoSuchElementException();
+					}
+					Message m = next;
+					next = findNext();
+					return m;
+				}
+				
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
 }
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+
+import core.SimClock;
+
+/**
+ * <P>
+ * Table of PRoPHET style delivery predictabilities that age as
+ * <CODE>P(a,b) = P(a,b)_old * (GAMMA ^ k)</CODE>, where k is the number of
+ * time units that have elapsed since the value was set.</P>
+ *
+ * <P>Since all the values age at the same rate, the aging is not applied
+ * to the values but to a common decay that grows linearly with the time
+ * from a decay epoch. The values are stored as natural logarithms of the
+ * values they would have at the epoch, so the current value of an entry is
+ * <CODE>exp(log value - decay)</CODE> and aging costs nothing, no matter
+ * how often the values are looked up. The transitive updates scale the
+ * other table's values in the log space too.</P>
+ *
+ * <P>The entries are indexed by small non-negative integers, e.g., host
+ * addresses. While only a few of the indexes have an entry, the values are
+ * kept in an open addressing hash table of primitive keys and values; when
+ * the table fills up, the values are moved to a plain array indexed by the
+ * index. Neither of the stores creates any objects per entry.</P>
+ */
+public class PredictabilityTable {
+	/** the values are moved to an array when more than 1/DENSE_FILL of
+	 * the array's slots would be used (an array slot takes 8 bytes and
+	 * a hash table entry at least 24) */
+	private static final int DENSE_FILL = 3;
+	/** minimum number of entries before the values are moved to an array */
+	private static final int MIN_DENSE_SIZE = 8;
+	/** initial capacity of the hash table (a power of two) */
+	private static final int INIT_CAPACITY = 8;
+
+	/** logarithms of the values at the decay epoch by index (NaN if there
+	 * is no entry), or null if the hash table is used */
+	private double[] dense;
+	/** indexes of the hash table entries + 1 (0 for an empty slot) */
+	private int[] sparseKeys;
+	/** logarithms of the values of the hash table entries */
+	private double[] sparseValues;
+	/** number of entries */
+	private int size;
+	/** biggest index that has (or has had) an entry */
+	private int maxIndex;
+
+	/** number of seconds in a time unit */
+	private double secondsInTimeUnit;
+	/** decay of the logarithms per second */
+	private double decayRate;
+	/** time of the decay epoch */
+	private double epochTime;
+	/** decay at the epoch */
+	private double epochDecay;
+	/** time when the table was last accessed */
+	private double lastAccess;
+	/** time of the cached decay (NaN if nothing is cached) */
+	private double cachedTime;
+	/** decay at the cached time */
+	private double cachedDecay;
+
+	/**
+	 * Creates a new, empty, table
+	 * @param gamma The aging constant (per time unit)
+	 * @param secondsInTimeUnit Number of seconds in a time unit
+	 */
+	public PredictabilityTable(double gamma, double secondsInTimeUnit) {
+		this.dense = null;
+		this.sparseKeys = new int[INIT_CAPACITY];
+		this.sparseValues = new double[INIT_CAPACITY];
+		this.size = 0;
+		this.maxIndex = -1;
+		this.secondsInTimeUnit = secondsInTimeUnit;
+		this.decayRate = -Math.log(gamma) / secondsInTimeUnit;
+		this.epochTime = 0;
+		this.epochDecay = 0;
+		this.lastAccess = 0;
+		this.cachedTime = Double.NaN;
+	}
+
+	/**
+	 * Changes the aging constant. The values are aged with the new constant
+	 * from the time the table was last accessed.
+	 * @param gamma The new aging constant (per time unit)
+	 */
+	public void setGamma(double gamma) {
+		this.epochDecay = decayAt(this.lastAccess);
+		this.epochTime = this.lastAccess;
+		this.decayRate = -Math.log(gamma) / secondsInTimeUnit;
+		this.cachedTime = Double.NaN;
+	}
+
+	/**
+	 * Returns the current value for an index
+	 * @param index The index
+	 * @return The current (aged) value or 0 if there is no entry for the
+	 * index
+	 */
+	public double get(int index) {
+		double decay = getDecay();
+		double logValue = getLog(index);
+		if (Double.isNaN(logValue)) {
+			return 0;
+		}
+		return Math.exp(logValue - decay);
+	}
+
+	/**
+	 * Returns true if there is an entry for the index
+	 * @param index The index
+	 * @return true if there is an entry for the index
+	 */
+	public boolean contains(int index) {
+		return !Double.isNaN(getLog(index));
+	}
+
+	/**
+	 * Sets the current value for an index
+	 * @param index The index (non-negative)
+	 * @param value The value (0-1)
+	 */
+	public void put(int index, double value) {
+		putLog(index, Math.log(value) + getDecay());
+	}
+
+	/**
+	 * Removes the entry of an index
+	 * @param index The index
+	 */
+	public void remove(int index) {
+		if (dense != null) {
+			if (index < dense.length && !Double.isNaN(dense[index])) {
+				dense[index] = Double.NaN;
+				size--;
+			}
+			return;
+		}
+
+		int i = sparseSlotOf(index);
+		if (sparseKeys[i] == 0) {
+			return;
+		}
+		sparseKeys[i] = 0;
+		size--;
+
+		/* move the following entries of the same run so that there are no
+		 * holes between them and their slots */
+		int mask = sparseKeys.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (sparseKeys[j] == 0) {
+				return;
+			}
+			int slot = hash(sparseKeys[j] - 1) & mask;
+			if (i <= j ? (slot <= i || slot > j) : (slot <= i && slot > j)) {
+				sparseKeys[i] = sparseKeys[j];
+				sparseValues[i] = sparseValues[j];
+				sparseKeys[j] = 0;
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the indexes that have an entry
+	 * @return the indexes in ascending order
+	 */
+	public int[] getIndexes() {
+		int[] indexes = new int[size];
+		int n = 0;
+		if (dense != null) {
+			for (int i=0; i < dense.length; i++) {
+				if (!Double.isNaN(dense[i])) {
+					indexes[n++] = i;
+				}
+			}
+		}
+		else {
+			for (int i=0; i < sparseKeys.length; i++) {
+				if (sparseKeys[i] != 0) {
+					indexes[n++] = sparseKeys[i] - 1;
+				}
+			}
+			Arrays.sort(indexes);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns the indexes that have an entry in this or the other table
+	 * @param other The other table
+	 * @return the indexes in ascending order
+	 */
+	public int[] getIndexesWith(PredictabilityTable other) {
+		int[] mine = getIndexes();
+		int[] others = other.getIndexes();
+		int[] indexes = new int[mine.length + others.length];
+		int i = 0, j = 0, n = 0;
+		while (i < mine.length || j < others.length) {
+			if (j == others.length ||
+					(i < mine.length && mine[i] < others[j])) {
+				indexes[n++] = mine[i++];
+			}
+			else {
+				if (i < mine.length && mine[i] == others[j]) {
+					i++; // in both
+				}
+				indexes[n++] = others[j++];
+			}
+		}
+		return Arrays.copyOf(indexes, n);
+	}
+
+	/**
+	 * Updates the transitive (A->B->C) values from the table of B.
+	 * <CODE>P(a,c) = P(a,c)_old + (1 - P(a,c)_old) * P(a,b) * P(b,c) * BETA
+	 * </CODE> for all the entries c of B's table.
+	 * @param other The table of B
+	 * @param pForOther The current value P(a,b)
+	 * @param beta The transitivity scaling constant
+	 * @param exclude Index of A (not updated)
+	 */
+	public void updateTransitive(PredictabilityTable other,
+			double pForOther, double beta, int exclude) {
+		double decay = getDecay();
+		/* log(P(a,b) * BETA) - B's decay */
+		double logScale = Math.log(pForOther * beta) - other.getDecay();
+
+		if (other.dense == null) {
+			int[] keys = other.sparseKeys;
+			double[] values = other.sparseValues;
+			for (int i=0; i < keys.length; i++) {
+				if (keys[i] != 0 && keys[i] - 1 != exclude) {
+					updateTransitive(keys[i] - 1, logScale + values[i], decay);
+				}
+			}
+			return;
+		}
+
+		double[] values = other.dense;
+		ensureDense(other.maxIndex);
+		if (this.dense == null) { // still sparse
+			for (int i=0; i < values.length; i++) {
+				if (!Double.isNaN(values[i]) && i != exclude) {
+					updateTransitive(i, logScale + values[i], decay);
+				}
+			}
+			return;
+		}
+
+		/* both are arrays; one pass over the other's indexes */
+		if (this.dense.length <= other.maxIndex) {
+			growDense(other.maxIndex);
+		}
+		double[] mine = this.dense;
+		int n = other.maxIndex + 1;
+		for (int i=0; i < n; i++) {
+			double logOther = values[i];
+			if (logOther != logOther || i == exclude) { // NaN: no entry
+				continue;
+			}
+			double transitive = Math.exp(logScale + logOther);
+			double logOld = mine[i];
+			double pOld;
+			if (logOld != logOld) {
+				pOld = 0;
+				size++;
+			}
+			else {
+				pOld = Math.exp(logOld - decay);
+			}
+			mine[i] = Math.log(pOld + (1 - pOld) * transitive) + decay;
+		}
+		if (other.maxIndex > this.maxIndex) {
+			this.maxIndex = other.maxIndex;
+		}
+	}
+
+	/**
+	 * Updates the transitive value of one index
+	 * @param index The index
+	 * @param logTransitive Logarithm of the transitive value
+	 * <CODE>P(a,b) * P(b,c) * BETA</CODE>
+	 * @param decay The current decay of this table
+	 */
+	private void updateTransitive(int index, double logTransitive,
+			double decay) {
+		double logOld = getLog(index);
+		double pOld = (Double.isNaN(logOld) ? 0 : Math.exp(logOld - decay));
+		double pNew = pOld + (1 - pOld) * Math.exp(logTransitive);
+		putLog(index, Math.log(pNew) + decay);
+	}
+
+	/**
+	 * Returns the stored logarithm of an index's value
+	 * @param index The index
+	 * @return The logarithm or NaN if there is no entry for the index
+	 */
+	private double getLog(int index) {
+		if (dense != null) {
+			return index < dense.length ? dense[index] : Double.NaN;
+		}
+		int i = sparseSlotOf(index);
+		return sparseKeys[i] != 0 ? sparseValues[i] : Double.NaN;
+	}
+
+	/**
+	 * Stores the logarithm of an index's value
+	 * @param index The index
+	 * @param logValue The logarithm
+	 */
+	private void putLog(int index, double logValue) {
+		if (index > maxIndex) {
+			maxIndex = index;
+		}
+		if (dense == null) {
+			int i = sparseSlotOf(index);
+			if (sparseKeys[i] != 0) {
+				sparseValues[i] = logValue;
+				return;
+			}
+			sparseKeys[i] = index + 1;
+			sparseValues[i] = logValue;
+			size++;
+			if (size * 2 > sparseKeys.length) { // at most half full
+				resizeSparse(sparseKeys.length * 2);
+			}
+			ensureDense(maxIndex);
+			return;
+		}
+
+		if (index >= dense.length) {
+			growDense(index);
+		}
+		if (Double.isNaN(dense[index])) {
+			size++;
+		}
+		dense[index] = logValue;
+	}
+
+	/**
+	 * Returns the hash table slot of an index: either the slot where the
+	 * index is or the empty slot where it would be put
+	 * @param index The index
+	 * @return The slot
+	 */
+	private int sparseSlotOf(int index) {
+		int mask = sparseKeys.length - 1;
+		int i = hash(index) & mask;
+		int key = index + 1;
+		while (sparseKeys[i] != 0 && sparseKeys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int hash(int index) {
+		int h = index * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Moves the hash table entries to a new table
+	 * @param capacity Capacity of the new table (a power of two)
+	 */
+	private void resizeSparse(int capacity) {
+		int[] oldKeys = this.sparseKeys;
+		double[] oldValues = this.sparseValues;
+		this.sparseKeys = new int[capacity];
+		this.sparseValues = new double[capacity];
+		for (int i=0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int j = sparseSlotOf(oldKeys[i] - 1);
+				sparseKeys[j] = oldKeys[i];
+				sparseValues[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Moves the values from the hash table to an array if the array, with
+	 * room for the given index, would be filled enough
+	 * @param index The biggest index the array should have room for
+	 */
+	private void ensureDense(int index) {
+		if (dense != null || size < MIN_DENSE_SIZE ||
+				(long)size * DENSE_FILL <= Math.max(index, maxIndex)) {
+			return;
+		}
+		double[] values = new double[Math.max(index, maxIndex) + 1];
+		Arrays.fill(values, Double.NaN);
+		for (int i=0; i < sparseKeys.length; i++) {
+			if (sparseKeys[i] != 0) {
+				values[sparseKeys[i] - 1] = sparseValues[i];
+			}
+		}
+		this.dense = values;
+		this.sparseKeys = null;
+		this.sparseValues = null;
+	}
+
+	/**
+	 * Grows the array so that it has room for the given index
+	 * @param index The index
+	 */
+	private void growDense(int index) {
+		int length = Math.max(dense.length * 2, index + 1);
+		double[] values = Arrays.copyOf(dense, length);
+		Arrays.fill(values, dense.length, length, Double.NaN);
+		this.dense = values;
+	}
+
+	/**
+	 * Returns the decay at the current time
+	 * @return the decay at the current time
+	 */
+	private double getDecay() {
+		double now = SimClock.getTime();
+		this.lastAccess = now;
+		if (now != this.cachedTime) {
+			this.cachedDecay = decayAt(now);
+			this.cachedTime = now;
+		}
+		return this.cachedDecay;
+	}
+
+	/**
+	 * Returns the decay at the given time
+	 * @param time The time
+	 * @return the decay
+	 */
+	private double decayAt(double time) {
+		return epochDecay + (time - epochTime) * decayRate;
+	}
+}
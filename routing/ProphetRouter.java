@@ -5,18 +5,14 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import core.Connection;
 import core.DTNHost;
 import core.Message;
 import core.Settings;
-import core.SimClock;
+import core.SimScenario;
 import core.Tuple;
 
 public class ProphetRouter extends ActiveRouter {
@@ -30,8 +26,7 @@ public class ProphetRouter extends ActiveRouter {
 
 	private int secondsInTimeUnit;
 	private double beta;
-	private Map<DTNHost, Double> preds;
-	private double lastAgeUpdate;
+	private PredictabilityTable preds;
 
 	public ProphetRouter(Settings s) {
 		super(s);
@@ -54,7 +49,8 @@ public class ProphetRouter extends ActiveRouter {
 	}
 
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new PredictabilityTable(GAMMA,
+				secondsInTimeUnit);
 	}
 
 	@Override
@@ -69,17 +65,11 @@ public class ProphetRouter extends ActiveRouter {
 	private void updateDeliveryPredFor(DTNHost host) {
 		double oldValue = getPredFor(host);
 		double newValue = oldValue + (1 - oldValue) * P_INIT;
-		preds.put(host, newValue);
+		preds.put(host.getAddress(), newValue);
 	}
 
 	public double getPredFor(DTNHost host) {
-		ageDeliveryPreds();
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host.getAddress());
 	}
 
 	private void updateTransitivePreds(DTNHost host) {
@@ -88,39 +78,8 @@ public class ProphetRouter extends ActiveRouter {
 				" with other routers of same type";
 
 		double pForHost = getPredFor(host);
-		Map<DTNHost, Double> othersPreds =
-				((ProphetRouter)otherRouter).getDeliveryPreds();
-
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
-				continue;
-			}
-
-			double pOld = getPredFor(e.getKey());
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
-		}
-	}
-
-	private void ageDeliveryPreds() {
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate) /
-				secondsInTimeUnit;
-
-		if (timeDiff == 0) {
-			return;
-		}
-
-		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
-		}
-
-		this.lastAgeUpdate = SimClock.getTime();
-	}
-
-	private Map<DTNHost, Double> getDeliveryPreds() {
-		ageDeliveryPreds();
-		return this.preds;
+		preds.updateTransitive(((ProphetRouter)otherRouter).preds, pForHost,
+				beta, getHost().getAddress());
 	}
 
 	@Override
@@ -141,8 +100,6 @@ public class ProphetRouter extends ActiveRouter {
 		List<Tuple<Message, Connection>> messages =
 				new ArrayList<Tuple<Message, Connection>>();
 
-		Collection<Message> msgCollection = getMessageCollection();
-
 		for(Connection con : getHost()) {
 			DTNHost other = con.getOtherNode(getHost());
 			ProphetRouter othRouter = (ProphetRouter)other.getRouter();
@@ -151,10 +108,7 @@ public class ProphetRouter extends ActiveRouter {
 				continue;
 			}
 
-			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
-					continue;
-				}
+			for (Message m : getMessagesToExchange(con)) {
 				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
 					messages.add(new Tuple<Message, Connection>(m,con));
 				}
@@ -165,8 +119,7 @@ public class ProphetRouter extends ActiveRouter {
 			return null;
 		}
 
-		Collections.sort(messages, new TupleComparator());
-		return tryMessagesForConnected(messages);
+		return tryMessagesForConnected(messages, new TupleComparator());
 	}
 
 	private class TupleComparator implements Comparator<Tuple<Message, Connection>> {
@@ -185,14 +138,14 @@ public class ProphetRouter extends ActiveRouter {
 
 	@Override
 	public RoutingInfo getRoutingInfo() {
-		ageDeliveryPreds();
 		RoutingInfo top = super.getRoutingInfo();
 		RoutingInfo ri = new RoutingInfo(preds.size() +
 				" delivery prediction(s)");
 
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		List<DTNHost> hosts = SimScenario.getInstance().getHosts();
+		for (int address : preds.getIndexes()) {
+			DTNHost host = hosts.get(address);
+			double value = preds.get(address);
 
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f",
 					host, value)));
@@ -5,8 +5,6 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -16,6 +14,7 @@ import core.Connection;
 import core.DTNHost;
 import core.Message;
 import core.Settings;
+import core.SimScenario;
 import core.SimClock;
 import core.Tuple;
 
@@ -68,17 +67,14 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	private int timescale;
 	private double ptavg;
 
-	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
+	/** delivery predictabilities (aged with gamma per second) */
+	private PredictabilityTable preds;
 
 	/** last meeting time with a node */
 	private Map<DTNHost, Double> meetings;
 	private int nrofSamples;
 	private double meanIET;
 
-	/** last delivery predictability update (sim)time */
-	private double lastAgeUpdate;
-
 
 	/**
 	 * Constructor. Creates a new message router based on the settings in
@@ -115,6 +111,8 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		this.timescale = r.timescale;
 		this.ptavg = r.ptavg;
 		this.beta = r.beta;
+		this.gamma = r.gamma;
+		this.pinit = r.pinit;
 		initPreds();
 		initMeetings();
 	}
@@ -123,7 +121,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 * Initializes predictability hash
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new PredictabilityTable(gamma, 1);
 	}
 
 	/**
@@ -312,6 +310,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		}
 		gamma = Math.exp(-b);
 		pinit = 1-zeta;
+		preds.setGamma(gamma);
 	}
 
 	/**
@@ -322,7 +321,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	private void updateDeliveryPredFor(DTNHost host) {
 		double oldValue = getPredFor(host);
 		double newValue = oldValue + (1 - oldValue) * pinit;
-		preds.put(host, newValue);
+		preds.put(host.getAddress(), newValue);
 	}
 
 	/**
@@ -332,13 +331,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 * @return the current P value
 	 */
 	public double getPredFor(DTNHost host) {
-		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host.getAddress());
 	}
 
 	/**
@@ -353,48 +346,9 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		" with other routers of same type";
 
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
-			((ProphetRouterWithEstimation)otherRouter).getDeliveryPreds();
-
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
-				continue; // don't add yourself
-			}
-
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
-		}
-	}
-
-	/**
-	 * Ages all entries in the delivery predictions.
-	 * <CODE>P(a,b) = P(a,b)_old * (GAMMA ^ k)</CODE>, where k is number of
-	 * time units that have elapsed since the last time the metric was aged.
-	 * @see #SECONDS_IN_UNIT_S
-	 */
-	private void ageDeliveryPreds() {
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate);
-
-		if (timeDiff == 0) {
-			return;
-		}
-
-		double mult = Math.pow(gamma, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
-		}
-
-		this.lastAgeUpdate = SimClock.getTime();
-	}
-
-	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
-	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
-		ageDeliveryPreds(); // make sure the aging is done
-		return this.preds;
+		preds.updateTransitive(
+				((ProphetRouterWithEstimation)otherRouter).preds, pForHost,
+				beta, getHost().getAddress());
 	}
 
 	@Override
@@ -415,14 +369,13 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	/**
 	 * Tries to send all other messages to all connected hosts ordered by
 	 * their delivery probability
-	 * @return The return value of {@link #tryMessagesForConnected(List)}
+	 * @return The return value of
+	 * {@link #tryMessagesForConnected(List, Comparator)}
 	 */
 	private Tuple<Message, Connection> tryOtherMessages() {
 		List<Tuple<Message, Connection>> messages = 
 			new ArrayList<Tuple<Message, Connection>>(); 
 
-		Collection<Message> msgCollection = getMessageCollection();
-
 		/* for all connected hosts collect all messages that have a higher
 		   probability of delivery by the other host */
 		for(Connection con : getHost()) {
@@ -434,10 +387,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 				continue; // skip hosts that are transferring
 			}
 
-			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
-					continue; // skip messages that the other one has
-				}
+			for (Message m : getMessagesToExchange(con)) {
 				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
 					// the other node has higher probability of delivery
 					messages.add(new Tuple<Message, Connection>(m,con));
@@ -449,9 +399,8 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 			return null;
 		}
 
-		// sort the message-connection tuples
-		Collections.sort(messages, new TupleComparator());
-		return tryMessagesForConnected(messages);	// try to send messages
+		// try to send the messages in the order of the tuple comparator
+		return tryMessagesForConnected(messages, new TupleComparator());
 	}
 
 	/**
@@ -489,14 +438,14 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 
 	@Override
 	public RoutingInfo getRoutingInfo() {
-		ageDeliveryPreds();
 		RoutingInfo top = super.getRoutingInfo();
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 		" delivery prediction(s)");
 
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		List<DTNHost> hosts = SimScenario.getInstance().getHosts();
+		for (int address : preds.getIndexes()) {
+			DTNHost host = hosts.get(address);
+			double value = preds.get(address);
 
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
@@ -180,7 +180,7 @@ public class PubSubRouter extends ActiveRouter
 			}
 		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.put(incoming.getIdIndex(), aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
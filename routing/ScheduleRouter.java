@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import routing.schedule.ContactPlan;
+import routing.schedule.ScheduleOracle;
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+import core.Tuple;
+
+/**
+ * Router that forwards messages along the earliest arrival routes of a
+ * known contact plan. The plan is read from a file that contains a
+ * serialized {@link ScheduleOracle} whose entries are the planned contacts
+ * between the hosts (mapped by host address). Such a file can be created
+ * from a text schedule with {@link ScheduleOracle#main(String[])}. A
+ * message is given to a connected host only if that host is the next hop
+ * of the message's earliest arrival route from this host at the current
+ * time. For the entries with a carrier ("via"), the next hop is the
+ * carrier, which then gives the message to the entry's destination (see
+ * {@link ContactPlan}).
+ */
+public class ScheduleRouter extends ActiveRouter {
+	/** Router's setting namespace ({@value})*/
+	public static final String SCHEDULE_NS = "ScheduleRouter";
+	/**
+	 * Contact plan file -setting id ({@value}). Path to a file with a
+	 * serialized ScheduleOracle.
+	 */
+	public static final String SCHEDULE_FILE_S = "scheduleFile";
+
+	/** the contact plan (shared by all the routers of the prototype) */
+	private ContactPlan plan;
+
+	/**
+	 * Constructor. Creates a new prototype router based on the settings in
+	 * the given Settings object.
+	 * @param s The settings object
+	 */
+	public ScheduleRouter(Settings s) {
+		super(s);
+		Settings scheduleSettings = new Settings(SCHEDULE_NS);
+		File file = new File(scheduleSettings.getSetting(SCHEDULE_FILE_S));
+		this.plan = new ContactPlan(readOracle(file));
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param r The router prototype where setting values are copied from
+	 */
+	protected ScheduleRouter(ScheduleRouter r) {
+		super(r);
+		this.plan = r.plan;
+	}
+
+	/**
+	 * Reads a serialized schedule oracle from a file
+	 * @param file The file
+	 * @return The oracle
+	 */
+	private static ScheduleOracle readOracle(File file) {
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new FileInputStream(file));
+			return (ScheduleOracle)in.readObject();
+		} catch (IOException e) {
+			throw new SettingsError("Couldn't read the contact plan from " +
+					file.getAbsolutePath(), e);
+		} catch (ClassNotFoundException e) {
+			throw new SettingsError("Invalid contact plan file " +
+					file.getAbsolutePath(), e);
+		} catch (ClassCastException e) {
+			throw new SettingsError("Invalid contact plan file " +
+					file.getAbsolutePath(), e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+	@Override
+	public void update() {
+		super.update();
+		if (isTransferring() || !canStartTransfer()) {
+			return; // can't start a new transfer
+		}
+
+		// try messages that could be delivered to final recipient
+		if (exchangeDeliverableMessages() != null) {
+			return;
+		}
+
+		tryOtherMessages();
+	}
+
+	/**
+	 * Tries to send the messages to the connected hosts that are the next
+	 * hops of the messages' routes. The messages that arrive the earliest
+	 * are tried first.
+	 * @return The return value of
+	 * {@link #tryMessagesForConnected(List, Comparator)}
+	 */
+	private Tuple<Message, Connection> tryOtherMessages() {
+		List<Tuple<Message, Connection>> messages =
+			new ArrayList<Tuple<Message, Connection>>();
+		int address = getHost().getAddress();
+		double now = SimClock.getTime();
+
+		for (Connection con : getHost()) {
+			DTNHost other = con.getOtherNode(getHost());
+			ScheduleRouter othRouter = (ScheduleRouter)other.getRouter();
+			if (othRouter.isTransferring()) {
+				continue; // skip hosts that are transferring
+			}
+
+			for (Message m : getMessagesToExchange(con)) {
+				int nextHop = plan.getNextHop(address, m.getTo().getAddress(),
+						now);
+				if (nextHop == other.getAddress()) {
+					messages.add(new Tuple<Message, Connection>(m, con));
+				}
+			}
+		}
+
+		if (messages.size() == 0) {
+			return null;
+		}
+
+		return tryMessagesForConnected(messages,
+				new ArrivalComparator(address, now));
+	}
+
+	/**
+	 * Orders message-connection tuples by the earliest arrival time of
+	 * their messages
+	 */
+	private class ArrivalComparator
+			implements Comparator<Tuple<Message, Connection>> {
+		private int address;
+		private double time;
+
+		public ArrivalComparator(int address, double time) {
+			this.address = address;
+			this.time = time;
+		}
+
+		public int compare(Tuple<Message, Connection> tuple1,
+				Tuple<Message, Connection> tuple2) {
+			double t1 = plan.getArrivalTime(address,
+					tuple1.getKey().getTo().getAddress(), time);
+			double t2 = plan.getArrivalTime(address,
+					tuple2.getKey().getTo().getAddress(), time);
+			int c = Double.compare(t1, t2);
+			if (c == 0) {
+				return compareByQueueMode(tuple1.getKey(), tuple2.getKey());
+			}
+			return c;
+		}
+	}
+
+	@Override
+	public ScheduleRouter replicate() {
+		return new ScheduleRouter(this);
+	}
+}
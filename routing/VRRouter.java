@@ -165,14 +165,15 @@ public class VRRouter extends ActiveRouter
 	protected Map<DTNHost, NeighborEntry> neighborhood;
 	
 	/**
-	 * Stores the IDs of messages that have been delivered to their final 
-	 * destination, which is not necessarily this host. This info is used to
+	 * Stores the ID indexes (see {@link Message#getIdIndex()}) of messages
+	 * that have been delivered to their final destination, which is not
+	 * necessarily this host. This info is used to
 	 * inform nodes of a message's completion. Thus, if a node is carrying one of 
 	 * these messages and it tries to send to a neighbor, it will be informed that
 	 * the message has already been delivered and it can be deleted from the
 	 * buffer.
 	 */
-	protected Set<String> finishedMessages;
+	protected BitSet finishedMessages;
 	
 	/**
 	 * The time at which another check-in message should be generated. 
@@ -204,7 +205,7 @@ public class VRRouter extends ActiveRouter
 	protected void init()
 	{
 		neighborhood = new HashMap<DTNHost, NeighborEntry>();
-		finishedMessages = new HashSet<String>();
+		finishedMessages = new BitSet();
 		nextCheckInTime = SimClock.getTime() + (double)(checkInInterval * 2) * Math.random();
 		checkInSeqNum = 0;
 	}
@@ -284,7 +285,7 @@ public class VRRouter extends ActiveRouter
 			}
 		}
 		
-		if(finishedMessages.contains(vrm.getId()))
+		if(finishedMessages.get(vrm.getIdIndex()))
 			return DENIED_FINISHED;
 		
 		return super.checkReceiving(m);
@@ -301,7 +302,7 @@ public class VRRouter extends ActiveRouter
 			return DENIED_ALREADY_IN_VR;
 		if(isCheckInMessage(m) && m.getTo().equals(getHost()))
 			return DENIED_CHECKIN;
-		if(finishedMessages.contains(m.getId()))
+		if(finishedMessages.get(m.getIdIndex()))
 			return DENIED_DELIVERED;
 		
 		return super.receiveMessage(m, from);
@@ -323,7 +324,7 @@ public class VRRouter extends ActiveRouter
 		if(retVal == DENIED_DELIVERED)
 		{
 //			System.out.println("Peer says msg " + m.getId() + " is finished");
-			finishedMessages.add(m.getId());
+			finishedMessages.set(m.getIdIndex());
 			if(hasMessage(m.getId()))
 				deleteMessage(m.getId(), false);
 		}
@@ -405,7 +406,7 @@ public class VRRouter extends ActiveRouter
 	{
 		if(from == vrm.getTo())
 		{
-			finishedMessages.add(vrm.getId());
+			finishedMessages.set(vrm.getIdIndex());
 			if(hasMessage(vrm.getId()))
 				deleteMessage(vrm.getId(), false);
 			return;
@@ -488,6 +489,15 @@ public class VRRouter extends ActiveRouter
 		}
 	}
 	
+	/**
+	 * Returns false; the check-in messages are created on the updates
+	 */
+	@Override
+	public boolean isIdle()
+	{
+		return false;
+	}
+	
 	@Override
 	public void update()
 	{
@@ -1,39 +1,72 @@
-/* 
+/*
  * Copyright 2010 Aalto University, ComNet
- * Released under GPLv3. See LICENSE.txt for details. 
+ * Released under GPLv3. See LICENSE.txt for details.
  */
 package routing.maxprop;
 
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 
 /**
- * Dijkstra's shortest path implementation for MaxProp Router module.
+ * <P>
+ * Incremental Dijkstra's shortest path implementation for MaxProp Router
+ * module. The cost of a link from node A to node B is the complement of
+ * the probability that the next node A meets is B.</P>
+ *
+ * <P>The links are stored in primitive arrays that are indexed by the node
+ * indexes (addresses) and the shortest path trees of the most recently used
+ * source nodes are cached. When the meeting probabilities of some nodes
+ * change (see {@link #probsChanged(int)}), the cached trees are not
+ * recalculated from scratch: only the nodes whose shortest paths went
+ * through the changed nodes' links are reset and the paths are updated
+ * from the rest of the tree (and from the changed links) using an indexed
+ * binary heap.</P>
  */
 public class MaxPropDijkstra {
 	/** Value for infinite distance  */
-	private static final Double INFINITY = Double.MAX_VALUE;
-	/** Initial size of the priority queue */
-	private static final int PQ_INIT_SIZE = 11;
-
-	/** Map of node distances from the source node */
-	private DistanceMap distancesFromStart;
-	/** Set of already visited nodes (where the shortest path is known) */
-	private Set<Integer> visited;
-	/** Priority queue of unvisited nodes discovered so far */
-	private Queue<Integer> unvisited;
-	/** Map of previous nodes on the shortest path(s) -- only used for
-	 * debugging purposes */
-	private Map<Integer, Integer> prevNodes;
+	private static final double INFINITY = Double.MAX_VALUE;
+	/** Maximum number of source nodes whose shortest path trees are cached */
+	private static final int MAX_TREES = 8;
+	/** Initial capacity of the per node arrays */
+	private static final int INIT_CAPACITY = 16;
+
 	/** Mapping of to other nodes' (whom this node has met) probability sets */
 	private Map<Integer, MeetingProbabilitySet> probs;
-	
+
+	/** Link destinations and costs by the link source node */
+	private int[][] outNodes;
+	private double[][] outCosts;
+	private int[] outDegrees;
+	/** Link sources and costs by the link destination node */
+	private int[][] inNodes;
+	private double[][] inCosts;
+	private int[] inDegrees;
+	/** Number of nodes the arrays have room for */
+	private int capacity;
+
+	/** Nodes whose probabilities have changed since the last query */
+	private int[] changedNodes;
+	private int nrofChangedNodes;
+	private boolean[] isChanged;
+	/** Have all the probability sets been read to the link arrays */
+	private boolean allLoaded;
+
+	/** Version of the links; increased every time some links change */
+	private long version;
+	/** The link version when the links of a node last changed, by node */
+	private long[] changedIn;
+
+	/** Cached shortest path trees (the most recently used first) */
+	private Tree[] trees;
+	private int nrofTrees;
+
+	/** Priority queue of the nodes whose distance is not yet known */
+	private NodeHeap heap;
+	/** Work array for marking the nodes affected by changes */
+	private byte[] marks;
+
 	/**
 	 * Constructor.
 	 * @param probs A reference to the mapping of the known hosts meeting
@@ -41,184 +74,506 @@ public class MaxPropDijkstra {
 	 */
 	public MaxPropDijkstra(Map<Integer, MeetingProbabilitySet> probs) {
 		this.probs = probs;
+		this.capacity = 0;
+		this.outNodes = new int[0][];
+		this.outCosts = new double[0][];
+		this.outDegrees = new int[0];
+		this.inNodes = new int[0][];
+		this.inCosts = new double[0][];
+		this.inDegrees = new int[0];
+		this.changedNodes = new int[INIT_CAPACITY];
+		this.isChanged = new boolean[0];
+		this.changedIn = new long[0];
+		this.marks = new byte[0];
+		this.trees = new Tree[MAX_TREES];
+		this.nrofTrees = 0;
+		this.version = 0;
+		this.allLoaded = false;
+		this.heap = new NodeHeap();
+		ensureCapacity(INIT_CAPACITY);
 	}
 
 	/**
-	 * Initializes a new search with the first hop router node
-	 * @param firstHop The first hop router node
+	 * Tells that the probability set of a node has been changed or replaced
+	 * in the probability set mapping. The changes are taken into account in
+	 * the next cost query.
+	 * @param index The index (address) of the node
 	 */
-	private void initWith(Integer firstHop) {
-		this.unvisited = new PriorityQueue<Integer>(PQ_INIT_SIZE, 
-				new DistanceComparator());
-		this.visited = new HashSet<Integer>();
-		this.prevNodes = new HashMap<Integer, Integer>();
-		this.distancesFromStart = new DistanceMap();
-		
-		// set distance to source 0 and initialize unvisited queue
-		this.distancesFromStart.put(firstHop, 0);
-		this.unvisited.add(firstHop);
+	public void probsChanged(int index) {
+		ensureCapacity(index + 1);
+		if (isChanged[index]) {
+			return;
+		}
+		isChanged[index] = true;
+		if (nrofChangedNodes == changedNodes.length) {
+			changedNodes = Arrays.copyOf(changedNodes, nrofChangedNodes * 2);
+		}
+		changedNodes[nrofChangedNodes++] = index;
 	}
-	
+
 	/**
-	 * Calculates total costs to the given set of target nodes. The cost to 
+	 * Calculates total costs to the given set of target nodes. The cost to
 	 * a node is the sum of complements of probabilities that all the links
-	 * come up as the next contact of the nodes. 
+	 * come up as the next contact of the nodes.
 	 * @param from The index (address) of the start node
 	 * @param to The address set of destination nodes
 	 * @return A map of (destination node, cost) tuples
 	 */
 	public Map<Integer, Double> getCosts(Integer from, Set<Integer> to) {
 		Map<Integer, Double> distMap = new HashMap<Integer, Double>();
-		int nrofNodesToFind = to.size();
-		
-		initWith(from);
-		Integer node = null;
-		
-		// always take the node with shortest distance
-		while ((node = unvisited.poll()) != null) {
-			if (to.contains(node)) {
-				// found one of the requested nodes
-				distMap.put(node, distancesFromStart.get(node));
-				nrofNodesToFind--;
-				if (nrofNodesToFind == 0) {
-					break; // all requested nodes found
-				}
-			} 
-			
-			visited.add(node); // mark the node as visited
-			relax(node);       // add/update neighbor nodes' distances
+		for (Integer node : to) {
+			double cost = getCost(from, node);
+			if (cost != INFINITY) {
+				distMap.put(node, cost);
+			}
 		}
-			
 		return distMap;
 	}
-	
+
 	/**
-	 * Relaxes the neighbors of a node (updates the shortest distances).
-	 * @param node The node whose neighbors are relaxed
+	 * Returns the total cost of the cheapest path between two nodes
+	 * (see {@link #getCosts(Integer, Set)}).
+	 * @param from The index (address) of the start node
+	 * @param to The index (address) of the destination node
+	 * @return The cost or Double.MAX_VALUE if there is no path between the
+	 * nodes
 	 */
-	private void relax(Integer node) {
-		double nodeDist = distancesFromStart.get(node);
-		Collection<Integer> neighbors;
-		
-		if (!this.probs.containsKey(node)) {
-			return; // node's neighbors are not known
+	public double getCost(int from, int to) {
+		Tree tree = getTree(from);
+		if (to < 0 || to >= tree.dist.length) {
+			return INFINITY;
 		}
-		
-		neighbors =	this.probs.get(node).getAllProbs().keySet();
-		
-		for (Integer n : neighbors) {
-			if (visited.contains(n)) {
-				continue; // skip visited nodes
+		return tree.dist[to];
+	}
+
+	/**
+	 * Returns an up-to-date shortest path tree for a source node
+	 * @param source The source node
+	 * @return The tree
+	 */
+	private Tree getTree(int source) {
+		if (nrofChangedNodes > 0 || !allLoaded) {
+			loadChanges();
+		}
+
+		int i = 0;
+		while (i < nrofTrees && trees[i].source != source) {
+			i++;
+		}
+		Tree tree;
+		if (i < nrofTrees) {
+			tree = trees[i];
+			if (tree.version != version) {
+				updateTree(tree);
 			}
-						
-			// n node's distance from path's source node
-			double nDist = nodeDist + getDistance(node, n);
-			
-			if (distancesFromStart.get(n) > nDist) { 
-				// stored distance > found dist -> update
-				prevNodes.put(n, node); // for debugging
-				setDistance(n, nDist);
+		}
+		else {
+			ensureCapacity(source + 1);
+			if (nrofTrees < MAX_TREES) {
+				nrofTrees++;
 			}
+			i = nrofTrees - 1; // replaces the least recently used tree
+			tree = new Tree(source, capacity);
+			calculateTree(tree);
+		}
+
+		/* move the tree to the front */
+		System.arraycopy(trees, 0, trees, 1, i);
+		trees[0] = tree;
+		return tree;
+	}
+
+	/**
+	 * Reads the links of the nodes whose probabilities have changed (or of
+	 * all the nodes, on the first query) from the probability sets
+	 */
+	private void loadChanges() {
+		if (!allLoaded) {
+			for (Integer node : probs.keySet()) {
+				probsChanged(node);
+			}
+			allLoaded = true;
+		}
+		if (nrofChangedNodes == 0) {
+			return;
 		}
+
+		version++;
+		for (int i=0; i<nrofChangedNodes; i++) {
+			int node = changedNodes[i];
+			isChanged[node] = false;
+			changedIn[node] = version;
+			setLinks(node, probs.get(node));
+		}
+		nrofChangedNodes = 0;
 	}
-	
+
 	/**
-	 * Sets the distance from source node to a node
-	 * @param n The node whose distance is set
-	 * @param distance The distance of the node from the source node
+	 * Replaces the links of a node with the ones of a probability set
+	 * @param node The node
+	 * @param mps The node's probability set (or null if not known)
 	 */
-	private void setDistance(Integer n, double distance) {
-		unvisited.remove(n); // remove node from old place in the queue
-		distancesFromStart.put(n, distance); // update distance
-		unvisited.add(n); // insert node to the new place in the queue
+	private void setLinks(int node, MeetingProbabilitySet mps) {
+		int[] nodes = outNodes[node];
+		for (int i=0, n=outDegrees[node]; i<n; i++) {
+			removeInLink(nodes[i], node);
+		}
+		outDegrees[node] = 0;
+		if (mps == null) {
+			return; // node's neighbors are not known
+		}
+
+		Map<Integer, Double> p = mps.getAllProbs();
+		int degree = 0;
+		if (nodes.length < p.size()) {
+			nodes = outNodes[node] = new int[p.size()];
+			outCosts[node] = new double[p.size()];
+		}
+		double[] costs = outCosts[node];
+		for (Map.Entry<Integer, Double> e : p.entrySet()) {
+			int other = e.getKey();
+			ensureCapacity(other + 1);
+			double cost = 1 - e.getValue();
+			nodes[degree] = other;
+			costs[degree] = cost;
+			degree++;
+			addInLink(other, node, cost);
+		}
+		outDegrees[node] = degree;
 	}
-	
+
 	/**
-	 * Returns the "distance" between two nodes, i.e., the complement of the 
-	 * probability that the next node "from" meets is "to". Works only if there
-	 * exist a probability value for "from" meeting "to". 
-	 * @param from The first node
-	 * @param to The second node
-	 * @return The distance between the two nodes
+	 * Adds a link to the incoming links of a node
+	 * @param node The destination of the link
+	 * @param from The source of the link
+	 * @param cost Cost of the link
 	 */
-	private double getDistance(Integer from, Integer to) {
-		assert probs.containsKey(from) : "Node " + from + " has not met " + to +
-			" (it has met nodes " + probs.keySet() + ")";
-		return ( 1 - probs.get(from).getProbFor(to) );
+	private void addInLink(int node, int from, double cost) {
+		int degree = inDegrees[node];
+		if (degree == inNodes[node].length) {
+			int newLength = Math.max(4, degree * 2);
+			inNodes[node] = Arrays.copyOf(inNodes[node], newLength);
+			inCosts[node] = Arrays.copyOf(inCosts[node], newLength);
+		}
+		inNodes[node][degree] = from;
+		inCosts[node][degree] = cost;
+		inDegrees[node] = degree + 1;
 	}
-	
+
 	/**
-	 * Comparator that compares two nodes by their distance from
-	 * the source node.
+	 * Removes a link from the incoming links of a node
+	 * @param node The destination of the link
+	 * @param from The source of the link
 	 */
-	private class DistanceComparator implements 
-		Comparator<Integer> {
-		
-		/**
-		 * Compares two map nodes by their distance from the source node
-		 * @return -1, 0 or 1 if node1's distance is smaller, equal to, or
-		 * bigger than node2's distance
-		 */
-		public int compare(Integer node1, Integer node2) {
-			double dist1 = distancesFromStart.get(node1);
-			double dist2 = distancesFromStart.get(node2);
-			
-			if (dist1 > dist2) {
-				return 1;
-			}
-			else if (dist1 < dist2) {
-				return -1;
+	private void removeInLink(int node, int from) {
+		int[] nodes = inNodes[node];
+		int last = inDegrees[node] - 1;
+		for (int i=0; i<=last; i++) {
+			if (nodes[i] == from) {
+				nodes[i] = nodes[last];
+				inCosts[node][i] = inCosts[node][last];
+				inDegrees[node] = last;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Calculates a shortest path tree from scratch
+	 * @param tree The tree (with all the distances infinite)
+	 */
+	private void calculateTree(Tree tree) {
+		tree.dist[tree.source] = 0;
+		heap.init(tree.dist);
+		heap.update(tree.source);
+		run(tree);
+	}
+
+	/**
+	 * Updates a shortest path tree after the links of some nodes have
+	 * changed. The nodes whose shortest path went through a changed node
+	 * (i.e., used a changed link) are reset and their distances are searched
+	 * again starting from the unaffected nodes and the changed links.
+	 * @param tree The tree to update
+	 */
+	private void updateTree(Tree tree) {
+		tree.ensureCapacity(capacity);
+		double[] dist = tree.dist;
+		int[] parents = tree.parents;
+		long treeVersion = tree.version;
+		heap.init(dist);
+
+		/* mark the descendants of changed nodes (1 = affected,
+		 * 2 = not affected) */
+		Arrays.fill(marks, (byte)0);
+		int nrofAffected = 0;
+		for (int node=0; node<capacity; node++) {
+			if (dist[node] == INFINITY || marks[node] != 0) {
+				continue;
+			}
+			/* find the first ancestor whose state is known */
+			int n = node;
+			byte mark = 2;
+			while (parents[n] >= 0) {
+				int parent = parents[n];
+				if (changedIn[parent] > treeVersion) {
+					mark = 1;
+					break;
+				}
+				if (marks[parent] != 0) {
+					mark = marks[parent];
+					break;
+				}
+				n = parent;
+			}
+			/* and set the state of the nodes on the way */
+			for (n = node; marks[n] == 0; n = parents[n]) {
+				marks[n] = mark;
+				if (mark == 1) {
+					nrofAffected++;
+				}
+				if (parents[n] < 0 || changedIn[parents[n]] > treeVersion) {
+					break;
+				}
+			}
+		}
+
+		if (nrofAffected > 0) {
+			for (int node=0; node<capacity; node++) {
+				if (marks[node] == 1) {
+					dist[node] = INFINITY;
+					parents[node] = -1;
+				}
+			}
+			/* the best paths to the affected nodes from unaffected ones */
+			for (int node=0; node<capacity; node++) {
+				if (marks[node] != 1) {
+					continue;
+				}
+				int[] nodes = inNodes[node];
+				double[] costs = inCosts[node];
+				for (int i=0, n=inDegrees[node]; i<n; i++) {
+					int from = nodes[i];
+					if (marks[from] == 1 || dist[from] == INFINITY) {
+						continue;
+					}
+					double d = dist[from] + costs[i];
+					if (d < dist[node]) {
+						dist[node] = d;
+						parents[node] = from;
+					}
+				}
+				if (dist[node] != INFINITY) {
+					heap.update(node);
+				}
 			}
-			else {
-				return node1.compareTo(node2);
+		}
+
+		/* the changed links of the unaffected nodes */
+		for (int node=0; node<capacity; node++) {
+			if (changedIn[node] > treeVersion && marks[node] == 2) {
+				relax(tree, node);
 			}
 		}
+
+		run(tree);
 	}
-	
+
+	/**
+	 * Takes the nodes from the heap in the order of their distance and
+	 * relaxes their links until the heap is empty. Marks the tree up to date.
+	 * @param tree The tree whose nodes are in the heap
+	 */
+	private void run(Tree tree) {
+		int node;
+		while ((node = heap.poll()) >= 0) {
+			relax(tree, node);
+		}
+		tree.version = version;
+	}
+
+	/**
+	 * Relaxes the links of a node (updates the shortest distances).
+	 * @param tree The tree
+	 * @param node The node whose links are relaxed
+	 */
+	private void relax(Tree tree, int node) {
+		double[] dist = tree.dist;
+		double nodeDist = dist[node];
+		int[] nodes = outNodes[node];
+		double[] costs = outCosts[node];
+
+		for (int i=0, n=outDegrees[node]; i<n; i++) {
+			int other = nodes[i];
+			double d = nodeDist + costs[i];
+			if (d < dist[other]) {
+				dist[other] = d;
+				tree.parents[other] = node;
+				heap.update(other);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the per node arrays have room for the given number of nodes
+	 * @param size The number of nodes
+	 */
+	private void ensureCapacity(int size) {
+		if (size <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(size, capacity * 2);
+		outNodes = Arrays.copyOf(outNodes, newCapacity);
+		outCosts = Arrays.copyOf(outCosts, newCapacity);
+		inNodes = Arrays.copyOf(inNodes, newCapacity);
+		inCosts = Arrays.copyOf(inCosts, newCapacity);
+		for (int i=capacity; i<newCapacity; i++) {
+			outNodes[i] = new int[0];
+			outCosts[i] = new double[0];
+			inNodes[i] = new int[0];
+			inCosts[i] = new double[0];
+		}
+		outDegrees = Arrays.copyOf(outDegrees, newCapacity);
+		inDegrees = Arrays.copyOf(inDegrees, newCapacity);
+		isChanged = Arrays.copyOf(isChanged, newCapacity);
+		changedIn = Arrays.copyOf(changedIn, newCapacity);
+		marks = new byte[newCapacity];
+		capacity = newCapacity;
+	}
+
 	/**
-	 * Simple Map implementation for storing distances. 
+	 * Shortest path tree from a source node
 	 */
-	private class DistanceMap {
-		private HashMap<Integer, Double> map;
-		
+	private static class Tree {
+		private int source;
+		/** distances from the source by node */
+		private double[] dist;
+		/** previous nodes on the shortest paths by node (-1 for none) */
+		private int[] parents;
+		/** the link version the tree was calculated with */
+		private long version;
+
+		public Tree(int source, int capacity) {
+			this.source = source;
+			this.dist = new double[0];
+			this.parents = new int[0];
+			ensureCapacity(capacity);
+		}
+
 		/**
-		 * Constructor. Creates an empty distance map
+		 * Makes sure the arrays have room for the given number of nodes
+		 * @param size The number of nodes
 		 */
-		public DistanceMap() {
-			this.map = new HashMap<Integer, Double>(); 
+		public void ensureCapacity(int size) {
+			int old = dist.length;
+			if (size <= old) {
+				return;
+			}
+			dist = Arrays.copyOf(dist, size);
+			parents = Arrays.copyOf(parents, size);
+			Arrays.fill(dist, old, size, INFINITY);
+			Arrays.fill(parents, old, size, -1);
+		}
+	}
+
+	/**
+	 * Binary min-heap of node indexes ordered by their distances (and
+	 * indexes). Knows the position of every node in the heap so the
+	 * position of a node can be updated when its distance decreases.
+	 */
+	private static class NodeHeap {
+		private int[] nodes;
+		/** positions of the nodes in the heap by node (-1 if not in heap) */
+		private int[] positions;
+		private int size;
+		private double[] dist;
+
+		public NodeHeap() {
+			this.nodes = new int[INIT_CAPACITY];
+			this.positions = new int[0];
+			this.size = 0;
 		}
-		
+
 		/**
-		 * Returns the distance to a node. If no distance value
-		 * is found, returns {@link MaxPropDijkstra#INFINITY} as the value.
-		 * @param node The node whose distance is requested
-		 * @return The distance to that node
+		 * Empties the heap and sets the distances the heap is ordered by
+		 * @param dist The distances by node
 		 */
-		public double get(Integer node) {
-			Double value = map.get(node);
-			if (value != null) {
-				return value;
-			}
-			else {
-				return INFINITY;
+		public void init(double[] dist) {
+			this.dist = dist;
+			if (positions.length < dist.length) {
+				positions = new int[dist.length];
+				nodes = new int[dist.length];
 			}
+			Arrays.fill(positions, -1);
+			size = 0;
 		}
-		
+
 		/**
-		 * Puts a new distance value for a map node
+		 * Adds a node to the heap or moves it towards the top after its
+		 * distance has decreased
 		 * @param node The node
-		 * @param distance Distance to that node
 		 */
-		public void  put(Integer node, double distance) {
-			map.put(node, distance);
+		public void update(int node) {
+			int i = positions[node];
+			if (i < 0) {
+				i = size++;
+			}
+			siftUp(i, node);
 		}
-		
+
 		/**
-		 * Returns a string representation of the map's contents
-		 * @return a string representation of the map's contents
+		 * Removes and returns the node with the smallest distance
+		 * @return The node or -1 if the heap is empty
 		 */
-		public String toString() {
-			return map.toString();
+		public int poll() {
+			if (size == 0) {
+				return -1;
+			}
+			int top = nodes[0];
+			positions[top] = -1;
+			size--;
+			if (size > 0) {
+				siftDown(0, nodes[size]);
+			}
+			return top;
+		}
+
+		private boolean less(int n1, int n2) {
+			return dist[n1] < dist[n2] || (dist[n1] == dist[n2] && n1 < n2);
+		}
+
+		private void siftUp(int i, int node) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!less(node, nodes[parent])) {
+					break;
+				}
+				set(i, nodes[parent]);
+				i = parent;
+			}
+			set(i, node);
+		}
+
+		private void siftDown(int i, int node) {
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				int right = child + 1;
+				if (right < size && less(nodes[right], nodes[child])) {
+					child = right;
+				}
+				if (!less(nodes[child], node)) {
+					break;
+				}
+				set(i, nodes[child]);
+				i = child;
+			}
+			set(i, node);
+		}
+
+		private void set(int i, int node) {
+			nodes[i] = node;
+			positions[node] = i;
 		}
 	}
-}
\ No newline at end of file
+}
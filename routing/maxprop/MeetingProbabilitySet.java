@@ -4,6 +4,7 @@
  */
 package routing.maxprop;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,7 +13,9 @@ import core.SimClock;
 
 /**
  * Class for storing and manipulating the meeting probabilities for the MaxProp
- * router module.
+ * router module. Every update of a set increases its version number. The
+ * sets that routers pass to each other are immutable snapshots (see
+ * {@link #snapshot()}) that can be shared by any number of routers.
  */
 public class MeetingProbabilitySet {
 	public static final int INFINITE_SET_SIZE = Integer.MAX_VALUE;
@@ -23,6 +26,12 @@ public class MeetingProbabilitySet {
 	/** the alpha parameter */
 	private double alpha;
     private int maxSetSize;
+	/** number of times this set has been updated */
+	private int version;
+	/** is this set an immutable snapshot */
+	private boolean immutable;
+	/** snapshot of the current version of this set (or null if not taken) */
+	private MeetingProbabilitySet snapshot;
 	
 	/**
 	 * Constructor. Creates a probability set with empty node-probability
@@ -41,6 +50,8 @@ public class MeetingProbabilitySet {
             this.maxSetSize = maxSetSize;
         }
 		this.lastUpdateTime = 0;
+		this.version = 0;
+		this.immutable = false;
 	}
 	
 	/**
@@ -71,11 +82,13 @@ public class MeetingProbabilitySet {
 	 * I.e., The probability of the given node index is increased by one and
 	 * then all the probabilities are normalized so that their sum equals to 1.
 	 * @param index The node index to update the probability for
+	 * @throws UnsupportedOperationException if this set is a snapshot
 	 */
 	public void updateMeetingProbFor(Integer index) {
         Map.Entry<Integer, Double> smallestEntry = null;
         double smallestValue = Double.MAX_VALUE;
 
+		changed();
 		this.lastUpdateTime = SimClock.getTime();
 		
 		if (probs.size() == 0) { // first entry
@@ -104,8 +117,22 @@ public class MeetingProbabilitySet {
 	}
 	
 	public void updateMeetingProbFor(Integer index, double iet)	{
+		changed();
 		probs.put(index, iet);
 	}
+
+	/**
+	 * Starts a new version of this set
+	 * @throws UnsupportedOperationException if this set is a snapshot
+	 */
+	private void changed() {
+		if (this.immutable) {
+			throw new UnsupportedOperationException("Can't update a " +
+					"snapshot of meeting probabilities");
+		}
+		this.version++;
+		this.snapshot = null;
+	}
 	
 	/**
 	 * Returns the current delivery probability value for the given node index 
@@ -123,7 +150,8 @@ public class MeetingProbabilitySet {
 	}
 	
 	/**
-	 * Returns a reference to the probability map of this probability set
+	 * Returns a reference to the probability map of this probability set.
+	 * The map of a snapshot can't be modified.
 	 * @return a reference to the probability map of this probability set
 	 */
 	public Map<Integer, Double> getAllProbs() {
@@ -137,6 +165,16 @@ public class MeetingProbabilitySet {
 	public double getLastUpdateTime() {
 		return this.lastUpdateTime;
 	}
+
+	/**
+	 * Returns the version of this set, i.e., the number of times the set
+	 * has been updated. Of two snapshots of the same set, the one with the
+	 * bigger version is newer.
+	 * @return the version of this set
+	 */
+	public int getVersion() {
+		return this.version;
+	}
 	
 	/**
 	 * Enables changing the alpha parameter dynamically
@@ -159,8 +197,28 @@ public class MeetingProbabilitySet {
 		}
 		
 		replica.lastUpdateTime = this.lastUpdateTime;
+		replica.version = this.version;
 		return replica;
 	}
+
+	/**
+	 * Returns an immutable snapshot of the current version of the set. The
+	 * same snapshot is returned until the set is updated again, and a
+	 * snapshot returns itself.
+	 * @return an immutable snapshot of the set
+	 */
+	public MeetingProbabilitySet snapshot() {
+		if (this.immutable) {
+			return this;
+		}
+		if (this.snapshot == null) {
+			MeetingProbabilitySet s = replicate();
+			s.probs = Collections.unmodifiableMap(s.probs);
+			s.immutable = true;
+			this.snapshot = s;
+		}
+		return this.snapshot;
+	}
 	
 	/**
 	 * Returns a String presentation of the probabilities
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.maxprop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <P>
+ * The meeting probability sets a MaxProp router knows, mapped by the
+ * address of the host the set belongs to. The sets are immutable snapshots
+ * (see {@link MeetingProbabilitySet#snapshot()}) that are shared with the
+ * tables of other routers and a set is replaced only by a newer version of
+ * the same host's set.</P>
+ *
+ * <P>Every replacement gets a sequence number from the table. A table
+ * remembers the last sequence number of each table it has been updated from,
+ * so an update only needs to check the sets the other table has replaced
+ * after the previous update (all the older ones were either taken or older
+ * than the ones in this table).</P>
+ */
+public class MeetingProbabilityTable {
+	/** Initial capacity of the replacement log */
+	private static final int INIT_LOG_SIZE = 16;
+
+	/** The sets by host address */
+	private Map<Integer, MeetingProbabilitySet> sets;
+	/** Read-only view of the sets */
+	private Map<Integer, MeetingProbabilitySet> setsView;
+	/** Addresses of the replaced sets in the order of replacement */
+	private int[] logAddresses;
+	/** Sequence numbers of the replacements in the log */
+	private long[] logSeqs;
+	/** Number of replacements in the log */
+	private int logSize;
+	/** Sequence number of the latest replacement */
+	private long seq;
+	/** The sequence numbers of the other tables at the latest updates from
+	 * them, by the addresses of the hosts the tables belong to */
+	private long[] seenSeqs;
+
+	/**
+	 * Creates a new, empty, table
+	 */
+	public MeetingProbabilityTable() {
+		this.sets = new HashMap<Integer, MeetingProbabilitySet>();
+		this.setsView = Collections.unmodifiableMap(sets);
+		this.logAddresses = new int[INIT_LOG_SIZE];
+		this.logSeqs = new long[INIT_LOG_SIZE];
+		this.logSize = 0;
+		this.seq = 0;
+		this.seenSeqs = new long[0];
+	}
+
+	/**
+	 * Returns the set of a host
+	 * @param address Address of the host
+	 * @return The set or null if the host's set isn't known
+	 */
+	public MeetingProbabilitySet get(int address) {
+		return sets.get(address);
+	}
+
+	/**
+	 * Returns a read-only view of the sets mapped by host address
+	 * @return a read-only view of the sets
+	 */
+	public Map<Integer, MeetingProbabilitySet> getAll() {
+		return this.setsView;
+	}
+
+	/**
+	 * Returns the sequence number of the latest replacement
+	 * @return the sequence number of the latest replacement
+	 */
+	public long getSeq() {
+		return this.seq;
+	}
+
+	/**
+	 * Sets the snapshot of a host's set if it's newer than the current one
+	 * @param address Address of the host
+	 * @param set The set (its snapshot is stored)
+	 * @return true if the set was stored, false if it wasn't newer than the
+	 * current one
+	 */
+	public boolean put(int address, MeetingProbabilitySet set) {
+		MeetingProbabilitySet old = sets.get(address);
+		if (old != null && set.getVersion() <= old.getVersion()) {
+			return false;
+		}
+		sets.put(address, set.snapshot());
+		log(address);
+		return true;
+	}
+
+	/**
+	 * Takes the newer sets of another table. Only the sets that the other
+	 * table has replaced after the previous update from it are checked.
+	 * @param other The other table
+	 * @param otherAddress Address of the host the other table belongs to
+	 * @return The number of sets that were taken
+	 */
+	public int updateFrom(MeetingProbabilityTable other, int otherAddress) {
+		if (seenSeqs.length <= otherAddress) {
+			seenSeqs = Arrays.copyOf(seenSeqs,
+					Math.max(otherAddress + 1, seenSeqs.length * 2));
+		}
+		int count = 0;
+		long seen = seenSeqs[otherAddress];
+		for (int i = other.firstLogIndexAfter(seen); i < other.logSize; i++) {
+			int address = other.logAddresses[i];
+			if (put(address, other.sets.get(address))) {
+				count++;
+			}
+		}
+		seenSeqs[otherAddress] = other.seq;
+		return count;
+	}
+
+	/**
+	 * Returns the addresses of the hosts whose sets were replaced after the
+	 * given sequence number
+	 * @param since The sequence number
+	 * @return The addresses (in the order of the latest replacements)
+	 */
+	public int[] getReplacedSince(long since) {
+		int first = firstLogIndexAfter(since);
+		return Arrays.copyOfRange(logAddresses, first, logSize);
+	}
+
+	/**
+	 * Returns the index of the first log entry whose sequence number is
+	 * bigger than the given one
+	 * @param since The sequence number
+	 * @return The index (or the size of the log if there are no such entries)
+	 */
+	private int firstLogIndexAfter(long since) {
+		if (since >= seq) {
+			return logSize; // nothing new
+		}
+		int low = 0;
+		int high = logSize;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (logSeqs[mid] <= since) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds a replacement to the log. When the log gets full, the older
+	 * entries of the hosts that have been replaced again are dropped.
+	 * @param address Address of the host whose set was replaced
+	 */
+	private void log(int address) {
+		if (logSize == logAddresses.length) {
+			compactLog();
+		}
+		if (logSize == logAddresses.length) {
+			logAddresses = Arrays.copyOf(logAddresses, logSize * 2);
+			logSeqs = Arrays.copyOf(logSeqs, logSize * 2);
+		}
+		logAddresses[logSize] = address;
+		logSeqs[logSize] = ++seq;
+		logSize++;
+	}
+
+	/**
+	 * Removes the log entries that have a later entry for the same host
+	 */
+	private void compactLog() {
+		Map<Integer, Integer> latest = new HashMap<Integer, Integer>();
+		for (int i=0; i<logSize; i++) {
+			latest.put(logAddresses[i], i);
+		}
+		if (latest.size() * 2 > logSize) {
+			return; // not worth it; let the log grow
+		}
+		int n = 0;
+		for (int i=0; i<logSize; i++) {
+			if (latest.get(logAddresses[i]) == i) {
+				logAddresses[n] = logAddresses[i];
+				logSeqs[n] = logSeqs[i];
+				n++;
+			}
+		}
+		logSize = n;
+	}
+
+	/**
+	 * Returns a String presentation of the sets
+	 * @return a String presentation of the sets
+	 */
+	@Override
+	public String toString() {
+		return "sets: " + sets.toString();
+	}
+}
@@ -15,7 +15,7 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 	public static final String PUBNAME_PROP = "PubSub-pubname";
 	public static final String MSGTYPE_PROP = "PubSub-msgType";
 	
-	protected Map<DTNHost, Double> preds;
+	protected PredictabilityTable preds;
 	protected Map<String, DTNHost> pendingInterests;
 	protected Map<String, DTNHost> forwardingInterestBase;
 	
@@ -26,7 +26,6 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 	
 	protected double beta;
 	protected double pinit;
-	protected double lastAgeUpdate; 
 	protected int 	 secondsInTimeUnit;
 	
 	public CCNProphetDecisionEngine(Settings s)
@@ -47,7 +46,7 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 		else
 			secondsInTimeUnit = DEFAULT_UNIT;
 		
-		this.lastAgeUpdate = 0.0;
+		preds = new PredictabilityTable(GAMMA, secondsInTimeUnit);
 	}
 	
 	public CCNProphetDecisionEngine(CCNProphetDecisionEngine de)
@@ -56,7 +55,7 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 		pinit = de.pinit;
 		secondsInTimeUnit = de.secondsInTimeUnit;
 		
-		this.lastAgeUpdate = de.lastAgeUpdate;
+		preds = new PredictabilityTable(GAMMA, secondsInTimeUnit);
 	}
 	
 	public RoutingDecisionEngine replicate()
@@ -72,34 +71,26 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 	{
 		DTNHost myHost = con.getOtherNode(peer);
 		CCNProphetDecisionEngine de = getOtherCCNProphetDecisionEngine(peer);
-		Set<DTNHost> hostSet = new HashSet<DTNHost>(this.preds.size() 
-				+ de.preds.size());
-		hostSet.addAll(this.preds.keySet());
-		hostSet.addAll(de.preds.keySet());
-		
-		this.agePreds();
-		de.agePreds();
+		int myAddress = myHost.getAddress(), peerAddress = peer.getAddress();
+		int[] indexes = this.preds.getIndexesWith(de.preds);
 		
 		// Update preds for this connection
 		double myOldValue = this.getPredFor(peer),
 					peerOldValue = de.getPredFor(myHost),
 					myPforHost = myOldValue + (1 - myOldValue) * pinit,
 					peerPforMe = peerOldValue + (1 - peerOldValue) * de.pinit;
-		preds.put(peer, myPforHost);
-		de.preds.put(myHost, peerPforMe);
+		preds.put(peerAddress, myPforHost);
+		de.preds.put(myAddress, peerPforMe);
 		
 		// Update transistivities
-		for(DTNHost h : hostSet)
+		for(int h : indexes)
 		{
-			myOldValue = 0.0;
-			peerOldValue = 0.0;
-			
-			if(preds.containsKey(h)) myOldValue = preds.get(h);
-			if(de.preds.containsKey(h)) peerOldValue = de.preds.get(h);
+			myOldValue = preds.get(h);
+			peerOldValue = de.preds.get(h);
 			
-			if(h != myHost)
+			if(h != myAddress)
 				preds.put(h, myOldValue + ( 1 - myOldValue) * myPforHost * peerOldValue * beta);
-			if(h != peer)
+			if(h != peerAddress)
 				de.preds.put(h, peerOldValue + ( 1 - peerOldValue) * peerPforMe * myOldValue * beta);
 		}
 
@@ -146,24 +137,6 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 		return (CCNProphetDecisionEngine) ((DecisionEngineRouter)otherRouter).getDecisionEngine();
 	}
 	
-	private void agePreds()
-	{
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate) / 
-		secondsInTimeUnit;
-	
-		if (timeDiff == 0) {
-			return;
-		}
-	
-		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet())
-		{
-			e.setValue(e.getValue()*mult);
-		}
-	
-		this.lastAgeUpdate = SimClock.getTime();
-	}
-	
 	/**
 	 * Returns the current prediction (P) value for a host or 0 if entry for
 	 * the host doesn't exist.
@@ -171,12 +144,6 @@ public class CCNProphetDecisionEngine implements RoutingDecisionEngine
 	 * @return the current P value
 	 */
 	private double getPredFor(DTNHost host) {
-		agePreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host.getAddress());
 	}
 }
@@ -22,12 +22,25 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 	 * Maps each name to a forwarding decision value.
 	 * The hope here is to create this class in such a way that the actual 
 	 * decision can we made by another class.
+	 * The table is indexed by the indexes of the names (see
+	 * {@link #indexOf(String)}). The publications this host subscribes to
+	 * are not in the table; their value is always {@link #P_SUBSCRIBER}.
 	 *
 	 */
-	protected Map<String, Double> forwardingDecisionTable;
+	protected PredictabilityTable forwardingDecisionTable;
 	
 	protected Set<String> mySubscriptions;
 	
+	/** indexes of the publication names in the forwarding decision tables */
+	private static Map<String, Integer> pubIndexes;
+	/** publication names by their indexes */
+	private static List<String> pubNames;
+	
+	static {
+		DTNSim.registerForReset(ProphetDecisionEngine.class.getCanonicalName());
+		reset();
+	}
+	
 	protected static final double P_SUBSCRIBER = 1.00;
 	protected static final double DEFAULT_P_INIT = 0.75;
 	protected static final double GAMMA = 0.92;
@@ -36,7 +49,6 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 	
 	protected double beta;
 	protected double pinit;
-	protected double lastAgeUpdate; 
 	protected int 	 secondsInTimeUnit;
 	
 	public ProphetDecisionEngine(Settings s)
@@ -57,9 +69,9 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 		else
 			secondsInTimeUnit = DEFAULT_UNIT;
 		
-		this.forwardingDecisionTable = new HashMap<String, Double>();
+		this.forwardingDecisionTable = new PredictabilityTable(GAMMA,
+				secondsInTimeUnit);
 		mySubscriptions = new HashSet<String>(2);
-		this.lastAgeUpdate = 0.0;
 	}
 	
 	public ProphetDecisionEngine(ProphetDecisionEngine de)
@@ -67,9 +79,9 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 		beta = de.beta;
 		pinit = de.pinit;
 		secondsInTimeUnit = de.secondsInTimeUnit;
-		this.forwardingDecisionTable = new HashMap<String, Double>();
+		this.forwardingDecisionTable = new PredictabilityTable(GAMMA,
+				secondsInTimeUnit);
 		this.mySubscriptions = new HashSet<String>(2);
-		this.lastAgeUpdate = de.lastAgeUpdate;
 	}
 	
 	public RoutingDecisionEngine replicate()
@@ -120,20 +132,16 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 		ProphetDecisionEngine de = getOtherProphetDecisionEngine(peer);
 		Set<String> pubSet = new HashSet<String>(this.forwardingDecisionTable.size() 
 				+ de.forwardingDecisionTable.size());
-		pubSet.addAll(this.forwardingDecisionTable.keySet());
-		pubSet.addAll(de.forwardingDecisionTable.keySet());
-		
-		this.ageValues();
-		de.ageValues();
+		for(int i : this.forwardingDecisionTable.getIndexesWith(
+				de.forwardingDecisionTable))
+			pubSet.add(pubNames.get(i));
+		pubSet.addAll(this.mySubscriptions);
+		pubSet.addAll(de.mySubscriptions);
 		
 		for(String pub : pubSet)
 		{
-			double myOldValue = 0.0, peerOldValue = 0.0;
-			
-			if(this.forwardingDecisionTable.containsKey(pub))
-				myOldValue = this.forwardingDecisionTable.get(pub);
-			if(de.forwardingDecisionTable.containsKey(pub))
-				peerOldValue = de.forwardingDecisionTable.get(pub);
+			double myOldValue = this.getValue(pub),
+						peerOldValue = de.getValue(pub);
 			
 			if(myOldValue != P_SUBSCRIBER)
 			{
@@ -142,7 +150,7 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 					newValue = pinit;
 				else
 					newValue = myOldValue + (1 - myOldValue) * peerOldValue * beta;
-				this.forwardingDecisionTable.put(pub, newValue);
+				this.forwardingDecisionTable.put(indexOf(pub), newValue);
 				System.out.println("Host: " + con.getOtherNode(peer).getAddress() + 
 						" setting value: " + newValue + " for pub: " + pub + " old value: "
 						+ myOldValue);
@@ -155,7 +163,7 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 					newValue = pinit;
 				else
 					newValue = peerOldValue + (1 - peerOldValue) * myOldValue * beta;
-				de.forwardingDecisionTable.put(pub, newValue);
+				de.forwardingDecisionTable.put(indexOf(pub), newValue);
 				System.out.println("Host: " + peer.getAddress() + 
 						" setting value: " + newValue + " for pub: " + pub + " old value: "
 						+ peerOldValue);
@@ -180,13 +188,13 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 			case UNSUBSCRIBE_MSG:
 			{
 				mySubscriptions.remove(pubname);
-				forwardingDecisionTable.put(pubname, 0.00);
+				forwardingDecisionTable.put(indexOf(pubname), 0.00);
 				return false;
 			}
 			case SUBSCRIBE_MSG:
 			{
 				mySubscriptions.add(pubname);
-				forwardingDecisionTable.put(pubname, P_SUBSCRIBER);
+				forwardingDecisionTable.remove(indexOf(pubname)); // doesn't age
 				return false;
 			}
 			
@@ -207,14 +215,11 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 		String pubname = (String) m.getProperty(PUBNAME_PROP);
 		assert pubname != null;
 		
-		ageValues();
-		de.ageValues();
-		
-		if(!de.forwardingDecisionTable.containsKey(pubname)) return false;
-		if(!forwardingDecisionTable.containsKey(pubname)) return true;
+		if(!de.hasValue(pubname)) return false;
+		if(!hasValue(pubname)) return true;
 		
-		double myValue = forwardingDecisionTable.get(pubname),
-					peerValue = de.forwardingDecisionTable.get(pubname); 
+		double myValue = getValue(pubname),
+					peerValue = de.getValue(pubname); 
 		
 		/*if(myValue > peerValue)
 			System.out.print("Not sending msg: ");
@@ -264,27 +269,56 @@ public class ProphetDecisionEngine implements RoutingDecisionEngine
 		return (ProphetDecisionEngine) ((DecisionEngineRouter)otherRouter).getDecisionEngine();
 	}
 	
-	private void ageValues()
+	/**
+	 * Returns true if this host has a forwarding decision value for a
+	 * publication
+	 * @param pubname Name of the publication
+	 * @return true if there is a value for the publication
+	 */
+	private boolean hasValue(String pubname)
 	{
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate) / 
-		secondsInTimeUnit;
+		return isSubscriber(pubname) ||
+			forwardingDecisionTable.contains(indexOf(pubname));
+	}
 	
-		if (timeDiff == 0) {
-			return;
-		}
+	/**
+	 * Returns the current forwarding decision value for a publication
+	 * @param pubname Name of the publication
+	 * @return the current value or 0 if there is no value
+	 */
+	private double getValue(String pubname)
+	{
+		if(isSubscriber(pubname)) return P_SUBSCRIBER;
+		return forwardingDecisionTable.get(indexOf(pubname));
+	}
 	
-		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<String, Double> e : forwardingDecisionTable.entrySet())
+	/**
+	 * Returns the index of a publication name in the forwarding decision
+	 * tables. The indexes are shared by all the engines.
+	 * @param pubname Name of the publication
+	 * @return The index of the name
+	 */
+	private static int indexOf(String pubname)
+	{
+		Integer index = pubIndexes.get(pubname);
+		if(index == null)
 		{
-			if(e.getValue() == P_SUBSCRIBER) continue;
-			/*System.out.println("Host: " + myHost.getAddress() + " aging pub: " +
-					e.getKey() + " old value: " + e.getValue() + " mult: " + mult +
-					" new val: " + (e.getValue()*mult));*/
-			e.setValue(e.getValue()*mult);
+			index = pubNames.size();
+			pubIndexes.put(pubname, index);
+			pubNames.add(pubname);
 		}
+		return index;
+	}
 	
-		this.lastAgeUpdate = SimClock.getTime();
+	/**
+	 * Forgets the indexes of the publication names
+	 */
+	public static void reset()
+	{
+		pubIndexes = new HashMap<String, Integer>();
+		pubNames = new ArrayList<String>();
 	}
+	
 	private boolean isSubscriber(String pubname)
 	{
 		return mySubscriptions.contains(pubname);
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <P>
+ * Precomputed contact plan for earliest arrival queries over schedule data.
+ * The schedule entries are indexed by their source node, destination node
+ * and start time in sorted primitive arrays. For every entry, the plan knows
+ * the earliest arrival among the entries of the same link that start at the
+ * same time or later, so finding the best connection over a link after a
+ * given time is a binary search.</P>
+ *
+ * <P>Queries are answered with a time-dependent Dijkstra's search that
+ * builds a tree of the earliest arrival routes from a source node to all
+ * the other nodes. The latest tree of every source node is cached and it's
+ * reused for queries with a later start time as long as none of the first
+ * hops of the tree has started (i.e., as long as the routes can't have
+ * changed).</P>
+ *
+ * <P>An entry with a carrier node ("via") is split into two entries: from
+ * the source to the carrier at the entry's start time and from the carrier
+ * to the destination at the entry's arrival time (both with zero
+ * duration). So the first hop of a route is the node that the message must
+ * be given to and the carriers have routes of their own.</P>
+ *
+ * <P>The plan is a snapshot of the entries it was created with; entries that
+ * are added to the oracle (or whose delta changes) later are not seen.</P>
+ */
+public class ContactPlan {
+	/** Value for infinite time */
+	private static final double INFINITY = Double.MAX_VALUE;
+
+	/** number of nodes (the biggest node index + 1) */
+	private int nrofNodes;
+	/** index of the first link of every node (and the number of links at
+	 * the end) */
+	private int[] firstLinks;
+	/** destination nodes of the links */
+	private int[] linkTos;
+	/** index of the first entry of every link (and the number of entries at
+	 * the end) */
+	private int[] firstEntries;
+	/** start times of the entries (sorted by link and start time) */
+	private double[] starts;
+	/** earliest arrival among the entries of the same link that don't start
+	 * before the entry */
+	private double[] bestArrivals;
+	/** indexes of the entries that give the best arrivals */
+	private int[] bestEntries;
+	/** the entries */
+	private ScheduleEntry[] entries;
+
+	/** the cached route trees by source node */
+	private RouteTree[] trees;
+	/** priority queue of the nodes for searches */
+	private NodeHeap heap;
+
+	/**
+	 * Creates a plan of all the entries of a schedule oracle
+	 * @param oracle The oracle
+	 */
+	public ContactPlan(ScheduleOracle oracle) {
+		this(oracle.getEntries());
+	}
+
+	/**
+	 * Creates a plan of the given entries
+	 * @param entryList The schedule entries (the entries with a carrier are
+	 * split into two, see the class description)
+	 */
+	public ContactPlan(List<ScheduleEntry> entryList) {
+		List<ScheduleEntry> sorted = new ArrayList<ScheduleEntry>();
+		for (ScheduleEntry e : entryList) {
+			if (e.getVia() < 0) {
+				sorted.add(e);
+				continue;
+			}
+			/* the carrier picks up and drops off the message */
+			if (e.getVia() != e.getFrom()) {
+				sorted.add(new ScheduleEntry(e.getTime(), e.getFrom(), -1,
+						e.getVia(), 0));
+			}
+			if (e.getVia() != e.getTo()) {
+				sorted.add(new ScheduleEntry(e.getDestinationTime(),
+						e.getVia(), -1, e.getTo(), 0));
+			}
+		}
+		Collections.sort(sorted, new Comparator<ScheduleEntry>() {
+			public int compare(ScheduleEntry e1, ScheduleEntry e2) {
+				if (e1.getFrom() != e2.getFrom()) {
+					return e1.getFrom() < e2.getFrom() ? -1 : 1;
+				}
+				if (e1.getTo() != e2.getTo()) {
+					return e1.getTo() < e2.getTo() ? -1 : 1;
+				}
+				return Double.compare(e1.getTime(), e2.getTime());
+			}
+		});
+
+		int n = sorted.size();
+		this.nrofNodes = 0;
+		for (ScheduleEntry e : sorted) {
+			assert e.getFrom() >= 0 && e.getTo() >= 0 : "Invalid nodes in " + e;
+			nrofNodes = Math.max(nrofNodes, Math.max(e.getFrom(),
+					e.getTo()) + 1);
+		}
+
+		this.entries = sorted.toArray(new ScheduleEntry[n]);
+		this.starts = new double[n];
+		this.bestArrivals = new double[n];
+		this.bestEntries = new int[n];
+		this.firstLinks = new int[nrofNodes + 1];
+		int[] tos = new int[n];
+		int[] firsts = new int[n + 1];
+		int nrofLinks = 0;
+
+		for (int i=0; i<n; i++) {
+			ScheduleEntry e = entries[i];
+			starts[i] = e.getTime();
+			if (i == 0 || e.getFrom() != entries[i-1].getFrom() ||
+					e.getTo() != entries[i-1].getTo()) {
+				/* first entry of a new link */
+				tos[nrofLinks] = e.getTo();
+				firsts[nrofLinks] = i;
+				nrofLinks++;
+				firstLinks[e.getFrom() + 1] = nrofLinks;
+			}
+		}
+		firsts[nrofLinks] = n;
+		/* nodes without links start where the previous node's links end */
+		for (int i=1; i<=nrofNodes; i++) {
+			firstLinks[i] = Math.max(firstLinks[i], firstLinks[i-1]);
+		}
+		this.linkTos = Arrays.copyOf(tos, nrofLinks);
+		this.firstEntries = Arrays.copyOf(firsts, nrofLinks + 1);
+
+		/* best arrivals from the last entry of each link to the first */
+		for (int link=0; link<nrofLinks; link++) {
+			int best = -1;
+			for (int i=firstEntries[link+1]-1; i>=firstEntries[link]; i--) {
+				if (best < 0 || entries[i].getDestinationTime() <=
+						entries[best].getDestinationTime()) {
+					best = i;
+				}
+				bestEntries[i] = best;
+				bestArrivals[i] = entries[best].getDestinationTime();
+			}
+		}
+
+		this.trees = new RouteTree[nrofNodes];
+		this.heap = new NodeHeap(nrofNodes);
+	}
+
+	/**
+	 * Returns the earliest time one can get from a node to another
+	 * @param from The source node
+	 * @param to The destination node
+	 * @param time The time when the route starts
+	 * @return The earliest arrival time or Double.MAX_VALUE if the
+	 * destination can't be reached
+	 */
+	public double getArrivalTime(int from, int to, double time) {
+		if (from == to) {
+			return time;
+		}
+		if (!isNode(from) || !isNode(to)) {
+			return INFINITY;
+		}
+		return getTree(from, time).arrivals[to];
+	}
+
+	/**
+	 * Returns the first hop of the earliest arrival route between two nodes
+	 * @param from The source node
+	 * @param to The destination node
+	 * @param time The time when the route starts
+	 * @return The first node after the source on the route or -1 if there's
+	 * no route (or the nodes are the same)
+	 */
+	public int getNextHop(int from, int to, double time) {
+		if (from == to || !isNode(from) || !isNode(to)) {
+			return -1;
+		}
+		return getTree(from, time).firstHops[to];
+	}
+
+	/**
+	 * Finds and returns the earliest arrival route between two nodes
+	 * @param from The source of the path
+	 * @param to The destination of the path
+	 * @param time The time when the path starts
+	 * @return The schedule entries of the route or an empty list if there's
+	 * no route (or the nodes are the same)
+	 */
+	public List<ScheduleEntry> getShortestPath(int from, int to,
+			double time) {
+		List<ScheduleEntry> path = new ArrayList<ScheduleEntry>();
+		if (from == to || !isNode(from) || !isNode(to)) {
+			return path;
+		}
+		RouteTree tree = getTree(from, time);
+		for (int i = tree.prevEntries[to]; i >= 0;
+				i = tree.prevEntries[entries[i].getFrom()]) {
+			path.add(entries[i]);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Returns the schedule entries that start from a node at or after the
+	 * given time
+	 * @param from The source node
+	 * @param time The time
+	 * @return The entries (sorted by destination and time)
+	 */
+	public List<ScheduleEntry> getConnected(int from, double time) {
+		List<ScheduleEntry> connected = new ArrayList<ScheduleEntry>();
+		if (!isNode(from)) {
+			return connected;
+		}
+		for (int link = firstLinks[from]; link < firstLinks[from+1]; link++) {
+			int end = firstEntries[link+1];
+			for (int i = firstStartAfter(link, time); i < end; i++) {
+				connected.add(entries[i]);
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Returns true if the index is a node of this plan
+	 */
+	private boolean isNode(int node) {
+		return node >= 0 && node < nrofNodes;
+	}
+
+	/**
+	 * Returns the index of the first entry of a link that doesn't start
+	 * before the given time
+	 * @param link The link
+	 * @param time The time
+	 * @return The index (or the index after the link's last entry)
+	 */
+	private int firstStartAfter(int link, double time) {
+		int low = firstEntries[link];
+		int high = firstEntries[link+1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < time) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the cached route tree of a source node if it's valid for the
+	 * given time or calculates a new one
+	 * @param source The source node
+	 * @param time The time when the routes start
+	 * @return The route tree
+	 */
+	private RouteTree getTree(int source, double time) {
+		RouteTree tree = trees[source];
+		if (tree == null || time < tree.time || time > tree.validUntil) {
+			tree = calculateTree(source, time);
+			trees[source] = tree;
+		}
+		return tree;
+	}
+
+	/**
+	 * Calculates the earliest arrival routes from a node to all other nodes
+	 * @param source The source node
+	 * @param time The time when the routes start
+	 * @return The route tree
+	 */
+	private RouteTree calculateTree(int source, double time) {
+		RouteTree tree = new RouteTree(source, time, nrofNodes);
+		double[] arrivals = tree.arrivals;
+		arrivals[source] = time;
+		heap.init(arrivals);
+		heap.update(source);
+
+		int node;
+		while ((node = heap.poll()) >= 0) {
+			double now = arrivals[node];
+			for (int link = firstLinks[node]; link < firstLinks[node+1];
+					link++) {
+				int i = firstStartAfter(link, now);
+				if (i == firstEntries[link+1]) {
+					continue; // no more connections over this link
+				}
+				int to = linkTos[link];
+				if (bestArrivals[i] < arrivals[to]) {
+					arrivals[to] = bestArrivals[i];
+					tree.prevEntries[to] = bestEntries[i];
+					tree.firstHops[to] = node == source ? to :
+						tree.firstHops[node];
+					heap.update(to);
+				}
+			}
+		}
+
+		/* the routes stay the same until the first of them leaves */
+		for (int n=0; n<nrofNodes; n++) {
+			int prev = tree.prevEntries[n];
+			if (prev >= 0 && entries[prev].getFrom() == source) {
+				tree.validUntil = Math.min(tree.validUntil, starts[prev]);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Earliest arrival routes from a source node
+	 */
+	private static class RouteTree {
+		/** the time when the routes start */
+		private double time;
+		/** the latest start time the routes are valid for */
+		private double validUntil;
+		/** earliest arrival times by node */
+		private double[] arrivals;
+		/** the last entries of the routes by node (-1 for none) */
+		private int[] prevEntries;
+		/** the first hops of the routes by node (-1 for none) */
+		private int[] firstHops;
+
+		public RouteTree(int source, double time, int nrofNodes) {
+			this.time = time;
+			this.validUntil = INFINITY;
+			this.arrivals = new double[nrofNodes];
+			this.prevEntries = new int[nrofNodes];
+			this.firstHops = new int[nrofNodes];
+			Arrays.fill(arrivals, INFINITY);
+			Arrays.fill(prevEntries, -1);
+			Arrays.fill(firstHops, -1);
+		}
+	}
+
+	/**
+	 * Binary min-heap of node indexes ordered by their arrival times. Knows
+	 * the position of every node in the heap so the position of a node can
+	 * be updated when its time decreases.
+	 */
+	private static class NodeHeap {
+		private int[] nodes;
+		/** positions of the nodes in the heap by node (-1 if not in heap) */
+		private int[] positions;
+		private int size;
+		private double[] times;
+
+		public NodeHeap(int nrofNodes) {
+			this.nodes = new int[nrofNodes];
+			this.positions = new int[nrofNodes];
+			this.size = 0;
+		}
+
+		/**
+		 * Empties the heap and sets the times the heap is ordered by
+		 * @param times The times by node
+		 */
+		public void init(double[] times) {
+			this.times = times;
+			Arrays.fill(positions, -1);
+			size = 0;
+		}
+
+		/**
+		 * Adds a node to the heap or moves it towards the top after its
+		 * time has decreased
+		 * @param node The node
+		 */
+		public void update(int node) {
+			int i = positions[node];
+			if (i < 0) {
+				i = size++;
+			}
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (times[nodes[parent]] <= times[node]) {
+					break;
+				}
+				set(i, nodes[parent]);
+				i = parent;
+			}
+			set(i, node);
+		}
+
+		/**
+		 * Removes and returns the node with the earliest time
+		 * @return The node or -1 if the heap is empty
+		 */
+		public int poll() {
+			if (size == 0) {
+				return -1;
+			}
+			int top = nodes[0];
+			positions[top] = -1;
+			size--;
+			if (size > 0) {
+				int node = nodes[size];
+				int i = 0;
+				int half = size >>> 1;
+				while (i < half) {
+					int child = 2 * i + 1;
+					if (child + 1 < size &&
+							times[nodes[child+1]] < times[nodes[child]]) {
+						child++;
+					}
+					if (times[node] <= times[nodes[child]]) {
+						break;
+					}
+					set(i, nodes[child]);
+					i = child;
+				}
+				set(i, node);
+			}
+			return top;
+		}
+
+		private void set(int i, int node) {
+			nodes[i] = node;
+			positions[node] = i;
+		}
+	}
+}
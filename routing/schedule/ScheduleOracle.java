@@ -4,12 +4,23 @@
  */
 package routing.schedule;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Oracle that knows the scheduled connections between nodes. The oracle
+ * can be written to a file (see {@link #main(String[])}) for e.g.
+ * {@link routing.ScheduleRouter}.
+ */
 public class ScheduleOracle implements Serializable{
 	private static final long serialVersionUID = 42L;
 	
@@ -88,4 +99,91 @@ public class ScheduleOracle implements Serializable{
 		
 		return entries;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Writes this oracle to a file as a serialized object
+	 * @param file The file
+	 * @throws IOException If the writing fails
+	 */
+	public void writeToFile(File file) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(
+				new FileOutputStream(file));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads schedule entries from a text file. Every non-empty line that
+	 * doesn't start with '#' is an entry of the form
+	 * <CODE>start from to duration</CODE> or
+	 * <CODE>start from via to duration</CODE>, where the nodes are the
+	 * network addresses of the hosts.
+	 * @param file The file
+	 * @return An oracle with the entries
+	 * @throws IOException If the reading fails or the file has invalid
+	 * lines
+	 */
+	public static ScheduleOracle readTextFile(File file) throws IOException {
+		ScheduleOracle oracle = new ScheduleOracle();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNr = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNr++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				try {
+					if (parts.length == 4) {
+						oracle.addEntry(Double.parseDouble(parts[0]),
+								Integer.parseInt(parts[1]),
+								Integer.parseInt(parts[2]),
+								Double.parseDouble(parts[3]));
+						continue;
+					}
+					if (parts.length == 5) {
+						oracle.addEntry(Double.parseDouble(parts[0]),
+								Integer.parseInt(parts[1]),
+								Integer.parseInt(parts[2]),
+								Integer.parseInt(parts[3]),
+								Double.parseDouble(parts[4]));
+						continue;
+					}
+				} catch (NumberFormatException e) {
+					// reported below
+				}
+				throw new IOException("Invalid schedule entry at line " +
+						lineNr + " of " + file + ": " + line);
+			}
+		} finally {
+			reader.close();
+		}
+		return oracle;
+	}
+
+	/**
+	 * Converts a text schedule (see {@link #readTextFile(File)}) to a
+	 * serialized oracle file.
+	 * Usage: <CODE>java routing.schedule.ScheduleOracle textFile
+	 * oracleFile</CODE>
+	 * @param args The text file and the oracle file
+	 * @throws IOException If reading or writing the files fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + 
+					ScheduleOracle.class.getName() + " textFile oracleFile");
+			System.exit(1);
+		}
+		ScheduleOracle oracle = readTextFile(new File(args[0]));
+		oracle.writeToFile(new File(args[1]));
+		System.out.println("Wrote " + oracle.getEntries().size() +
+				" entries to " + args[1]);
+	}
+}
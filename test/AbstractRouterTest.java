@@ -13,6 +13,7 @@ import core.Coord;
 import core.DTNHost;
 import core.MessageListener;
 import core.SimClock;
+import core.TimerWheel;
 
 /**
  * Superclass for router tests. Sets up the environment by creating 
@@ -59,6 +60,7 @@ public abstract class AbstractRouterTest extends TestCase {
 		this.utils.setMessageRouterProto(routerProto);
 		core.NetworkInterface.reset();
 		core.DTNHost.reset();
+		core.TimerWheel.reset();
 		this.h0 = utils.createHost(c0, "h0");
 		this.h1 = utils.createHost(c0, "h1");
 		this.h2 = utils.createHost(c0, "h2");
@@ -85,6 +87,7 @@ public abstract class AbstractRouterTest extends TestCase {
 	}
 	
 	protected void updateAllNodes() {
+		TimerWheel.getInstance().advance(SimClock.getTime());
 		for (DTNHost node : utils.getAllHosts()) {
 			node.update(true);
 		}
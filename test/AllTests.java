@@ -24,6 +24,9 @@ public class AllTests {
 		
 		//$JUnit-BEGIN$
 		suite.addTestSuite(WorldTest.class);
+		suite.addTestSuite(ContactPredictorTest.class);
+		suite.addTestSuite(PairwiseContactManagerTest.class);
+		suite.addTestSuite(ConnectivityGridTest.class);
 		suite.addTestSuite(ConnectionTest.class);
 		suite.addTestSuite(ExternalMovementReaderTest.class);
 		suite.addTestSuite(ExternalMovementTest.class);
@@ -45,8 +48,14 @@ public class AllTests {
 		suite.addTestSuite(PointsOfInterestTest.class);
 		suite.addTestSuite(ActivenessHandlerTest.class);
 		suite.addTestSuite(MaxPropDijkstraTest.class);
+		suite.addTestSuite(MeetingProbabilityTableTest.class);
 		suite.addTestSuite(MaxPropRouterTest.class);
 		suite.addTestSuite(ScheduledUpdatesQueueTest.class);
+		suite.addTestSuite(TimerWheelTest.class);
+		suite.addTestSuite(IntHashMapTest.class);
+		suite.addTestSuite(PredictabilityTableTest.class);
+		suite.addTestSuite(ContactPlanTest.class);
+		suite.addTestSuite(ScheduleRouterTest.class);
 		suite.addTestSuite(MessageTest.class);
 		suite.addTestSuite(ModuleCommunicationBusTest.class);
 		//$JUnit-END$
@@ -0,0 +1,216 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import interfaces.ArrayConnectivityGrid;
+import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer;
+import interfaces.MultiLevelConnectivityGrid;
+import interfaces.NeighborVisitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import routing.PassiveRouter;
+import core.Coord;
+import core.DTNHost;
+import core.ModuleCommunicationBus;
+import core.NetworkInterface;
+
+/**
+ * Tests for the ConnectivityGrid
+ */
+public class ConnectivityGridTest extends TestCase {
+	private static final double RANGE = 10;
+	private TestUtils utils;
+	private ConnectivityGrid grid;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		TestSettings ts = new TestSettings();
+		ConnectivityGrid.reset();
+		utils = new TestUtils(null, null, ts);
+		utils.setTransmitRange(RANGE);
+		grid = ConnectivityGrid.ConnectivityGridFactory(
+				"Default".hashCode(), RANGE);
+	}
+
+	public void testVisitNearInterfaces() {
+		DTNHost h1 = utils.createHost(new Coord(15, 15));
+		DTNHost h2 = utils.createHost(new Coord(22, 15)); // next cell
+		DTNHost h3 = utils.createHost(new Coord(35, 15)); // two cells away
+		DTNHost h4 = utils.createHost(new Coord(5, 5)); // diagonal cell
+		for (DTNHost h : utils.getAllHosts()) {
+			grid.updateLocation(h.getInterfaces().get(0));
+		}
+
+		Set<NetworkInterface> near = visit(h1);
+		assertEquals(3, near.size());
+		assertTrue(near.contains(h1.getInterfaces().get(0)));
+		assertTrue(near.contains(h2.getInterfaces().get(0)));
+		assertTrue(near.contains(h4.getInterfaces().get(0)));
+
+		/* both queries should give the same interfaces */
+		for (DTNHost h : utils.getAllHosts()) {
+			NetworkInterface ni = h.getInterfaces().get(0);
+			assertEquals(new HashSet<NetworkInterface>(
+					grid.getNearInterfaces(ni)), visit(h));
+		}
+		assertFalse(visit(h3).contains(h1.getInterfaces().get(0)));
+	}
+
+	public void testArrayGrid() {
+		ArrayConnectivityGrid.reset();
+		ConnectivityOptimizer arrayGrid =
+			ArrayConnectivityGrid.ArrayConnectivityGridFactory(
+					"Default".hashCode(), RANGE);
+		Random rng = new Random(1);
+		for (int i=0; i<200; i++) {
+			utils.createHost(new Coord(rng.nextDouble() * 100,
+					rng.nextDouble() * 100));
+		}
+		List<NetworkInterface> all = new ArrayList<NetworkInterface>();
+		for (DTNHost h : utils.getAllHosts()) {
+			all.add(h.getInterfaces().get(0));
+		}
+		for (NetworkInterface ni : all) {
+			grid.updateLocation(ni);
+		}
+		arrayGrid.addInterfaces(all);
+		assertEquals(all.size(), arrayGrid.getAllInterfaces().size());
+		/* the added interfaces are found without updating any locations */
+		for (NetworkInterface ni : all) {
+			assertEquals(new HashSet<NetworkInterface>(
+					grid.getNearInterfaces(ni)),
+					new HashSet<NetworkInterface>(
+							arrayGrid.getNearInterfaces(ni)));
+		}
+
+		/* move some hosts a bit on every round so that some of the
+		 * interfaces are found from the moved list and some after sorting */
+		for (int round=0; round<20; round++) {
+			for (int i=0; i<all.size(); i += 1 + round % 5) {
+				DTNHost h = utils.getAllHosts().get(i);
+				Coord c = h.getLocation();
+				double x = c.getX() + rng.nextInt(21) - 10;
+				double y = c.getY() + rng.nextInt(21) - 10;
+				h.setLocation(new Coord(Math.min(99, Math.max(0, x)),
+						Math.min(99, Math.max(0, y))));
+				grid.updateLocation(all.get(i));
+				arrayGrid.updateLocation(all.get(i));
+			}
+			for (NetworkInterface ni : all) {
+				Collection<NetworkInterface> expected =
+					grid.getNearInterfaces(ni);
+				Collection<NetworkInterface> near =
+					arrayGrid.getNearInterfaces(ni);
+				assertEquals(expected.size(), near.size());
+				assertEquals(new HashSet<NetworkInterface>(expected),
+						new HashSet<NetworkInterface>(near));
+			}
+		}
+	}
+
+	public void testMultiLevelGrid() {
+		final double[] ranges = {1, 5, 10, 50, 300};
+		MultiLevelConnectivityGrid.reset();
+		MultiLevelConnectivityGrid mlGrid =
+			MultiLevelConnectivityGrid.MultiLevelConnectivityGridFactory(
+					"Default".hashCode());
+		Random rng = new Random(1);
+		List<DTNHost> hosts = new ArrayList<DTNHost>();
+		for (int i=0; i<300; i++) {
+			double range = ranges[i % ranges.length];
+			hosts.add(createHost(new Coord(rng.nextDouble() * 1000,
+					rng.nextDouble() * 1000), range));
+			mlGrid.addInterface(hosts.get(i).getInterfaces().get(0));
+		}
+		assertEquals(hosts.size(), mlGrid.getAllInterfaces().size());
+
+		for (int round=0; round<10; round++) {
+			for (int i=round; i<hosts.size(); i += 3) {
+				DTNHost h = hosts.get(i);
+				h.setLocation(new Coord(rng.nextDouble() * 1000,
+						rng.nextDouble() * 1000));
+				if (round == 5) { // change ranges in the middle
+					h.getComBus().updateProperty(NetworkInterface.RANGE_ID,
+							ranges[rng.nextInt(ranges.length)]);
+				}
+				mlGrid.updateLocation(h.getInterfaces().get(0));
+			}
+			assertNearInterfacesFound(mlGrid, hosts);
+		}
+
+		/* the emptied cells are removed: with all the interfaces at the
+		 * same location, there is one cell per range class */
+		for (DTNHost h : hosts) {
+			h.setLocation(new Coord(500, 500));
+			mlGrid.updateLocation(h.getInterfaces().get(0));
+		}
+		assertEquals(ranges.length, mlGrid.getNrofCells());
+		assertNearInterfacesFound(mlGrid, hosts);
+	}
+
+	/**
+	 * Checks that the optimizer returns (exactly once) every interface
+	 * within range of each interface
+	 */
+	private void assertNearInterfacesFound(ConnectivityOptimizer optimizer,
+			List<DTNHost> hosts) {
+		for (DTNHost h1 : hosts) {
+			NetworkInterface ni = h1.getInterfaces().get(0);
+			Collection<NetworkInterface> near =
+				optimizer.getNearInterfaces(ni);
+			Set<NetworkInterface> nearSet =
+				new HashSet<NetworkInterface>(near);
+			assertEquals(near.size(), nearSet.size());
+			for (DTNHost h2 : hosts) {
+				NetworkInterface other = h2.getInterfaces().get(0);
+				double range = Math.min(ni.getTransmitRange(),
+						other.getTransmitRange());
+				if (ni.getLocation().distance(other.getLocation()) <= range) {
+					assertTrue(other + " not found for " + ni,
+							nearSet.contains(other));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a host with its own communication bus so that the hosts can
+	 * have different transmit ranges
+	 */
+	private DTNHost createHost(Coord loc, double range) {
+		ModuleCommunicationBus comBus = new ModuleCommunicationBus();
+		comBus.addProperty(NetworkInterface.RANGE_ID, range);
+		comBus.addProperty(NetworkInterface.SPEED_ID, 1);
+		List<NetworkInterface> li = new ArrayList<NetworkInterface>();
+		li.add(new TestInterface(range, 1));
+		return new DTNHost(null, null, "m", li, comBus,
+				new StationaryMovement(loc),
+				new PassiveRouter(new TestSettings()));
+	}
+
+	private Set<NetworkInterface> visit(DTNHost host) {
+		final List<NetworkInterface> visited =
+			new ArrayList<NetworkInterface>();
+		grid.visitNearInterfaces(host.getInterfaces().get(0),
+				new NeighborVisitor() {
+			public void visit(NetworkInterface ni) {
+				visited.add(ni);
+			}
+		});
+
+		Set<NetworkInterface> set = new HashSet<NetworkInterface>(visited);
+		assertEquals("Some interface was visited twice", visited.size(),
+				set.size());
+		return set;
+	}
+}
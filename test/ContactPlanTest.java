@@ -0,0 +1,155 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import routing.schedule.ContactPlan;
+import routing.schedule.ScheduleDijkstra;
+import routing.schedule.ScheduleEntry;
+import routing.schedule.ScheduleOracle;
+
+/**
+ * Tests for the ContactPlan
+ */
+public class ContactPlanTest extends TestCase {
+	private ScheduleOracle oracle;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		oracle = new ScheduleOracle();
+		oracle.addEntry(10, 1, 2, 10);
+		oracle.addEntry(20, 1, 3, 10);
+		oracle.addEntry(20, 1, 4, 10);
+		oracle.addEntry(30, 1, 5, 10);
+	}
+
+	private void comparePaths(int realPath[], List<ScheduleEntry> path) {
+		int i;
+		assertEquals(realPath.length, path.size() + 1);
+
+		for (i=0; i<realPath.length - 1; i++) {
+			assertEquals(realPath[i], path.get(i).getFrom());
+		}
+
+		assertEquals(realPath[i], path.get(i-1).getTo());
+	}
+
+	public void testMultipleHops() {
+		oracle.addEntry(40, 3, 10, 5);
+		oracle.addEntry(40, 3, 11, 10);
+		oracle.addEntry(60, 10, 20, 10);
+		oracle.addEntry(60, 11, 20, 15);
+		oracle.addEntry(100, 1, 20, 5); /* late but fast */
+		oracle.addEntry(65, 11, 20, 3);
+		oracle.addEntry(45, 3, 12, 2);
+		oracle.addEntry(50, 12, 13, 2);
+		oracle.addEntry(55, 13, 14, 2);
+		oracle.addEntry(57, 14, 20, 2);
+		oracle.addEntry(55, 3, 11, 5);
+		ContactPlan plan = new ContactPlan(oracle);
+
+		comparePaths(new int[]{1,3,12,13,14,20},
+				plan.getShortestPath(1, 20, 0));
+		assertEquals(59.0, plan.getArrivalTime(1, 20, 0));
+		assertEquals(3, plan.getNextHop(1, 20, 0));
+		assertEquals(0, plan.getShortestPath(20, 1, 0).size()); /* no path */
+		assertEquals(-1, plan.getNextHop(20, 1, 0));
+		assertEquals(Double.MAX_VALUE, plan.getArrivalTime(20, 1, 0));
+
+		/* the cached routes are valid until the first hop leaves at 20... */
+		assertEquals(3, plan.getNextHop(1, 20, 20));
+		/* ...then the direct late connection is the only option */
+		comparePaths(new int[]{1, 20}, plan.getShortestPath(1, 20, 30));
+		assertEquals(105.0, plan.getArrivalTime(1, 20, 30));
+
+		/* starts directly at 3 but too late for multihop */
+		comparePaths(new int[]{3, 11, 20}, plan.getShortestPath(3, 20, 50));
+		/* an earlier start needs new routes */
+		comparePaths(new int[]{3,12,13,14,20}, plan.getShortestPath(3, 20, 40));
+	}
+
+	public void testCarriers() {
+		oracle.addEntry(40, 3, 7, 9, 10); /* 7 carries from 3 to 9 */
+		oracle.addEntry(45, 7, 8, 1);
+		ContactPlan plan = new ContactPlan(oracle);
+
+		assertEquals(7, plan.getNextHop(3, 9, 0));
+		assertEquals(50.0, plan.getArrivalTime(3, 9, 0));
+		comparePaths(new int[]{1, 3, 7, 9}, plan.getShortestPath(1, 9, 0));
+		/* the carrier has the message until it meets the destination */
+		assertEquals(9, plan.getNextHop(7, 9, 45));
+		assertEquals(50.0, plan.getArrivalTime(7, 9, 45));
+		assertEquals(Double.MAX_VALUE, plan.getArrivalTime(7, 9, 51));
+		/* and it can give it to others it meets on the way */
+		assertEquals(46.0, plan.getArrivalTime(3, 8, 0));
+	}
+
+	public void testConnected() {
+		ContactPlan plan = new ContactPlan(oracle);
+		assertEquals(3, plan.getConnected(1, 20).size());
+		assertEquals(1, plan.getConnected(1, 21).size());
+		assertEquals(0, plan.getConnected(2, 0).size());
+	}
+
+	/**
+	 * Tests that the arrival times are the same as with ScheduleDijkstra
+	 * and the routes are valid for random schedules and queries
+	 */
+	public void testRandomSchedules() {
+		final int nrofNodes = 25;
+		Random rng = new Random(1);
+		oracle = new ScheduleOracle();
+		for (int i=0; i<600; i++) {
+			int from = rng.nextInt(nrofNodes);
+			int to = rng.nextInt(nrofNodes);
+			if (from != to) {
+				oracle.addEntry(rng.nextInt(1000), from, to,
+						1 + rng.nextInt(50));
+			}
+		}
+		ContactPlan plan = new ContactPlan(oracle);
+		ScheduleDijkstra dijkstra = new ScheduleDijkstra(oracle);
+
+		for (int i=0; i<500; i++) {
+			int from = rng.nextInt(nrofNodes);
+			int to = rng.nextInt(nrofNodes);
+			double time = rng.nextInt(1000);
+			if (from == to) {
+				continue;
+			}
+
+			List<ScheduleEntry> expected = dijkstra.getShortestPath(from, to,
+					time);
+			List<ScheduleEntry> path = plan.getShortestPath(from, to, time);
+			assertEquals(expected.size() == 0, path.size() == 0);
+			if (path.size() == 0) {
+				assertEquals(Double.MAX_VALUE,
+						plan.getArrivalTime(from, to, time));
+				continue;
+			}
+
+			double arrival = path.get(path.size() - 1).getDestinationTime();
+			assertEquals(expected.get(expected.size() - 1).
+					getDestinationTime(), arrival);
+			assertEquals(arrival, plan.getArrivalTime(from, to, time));
+			assertEquals(path.get(0).getTo(),
+					plan.getNextHop(from, to, time));
+
+			/* the route must be a chain of connections in time */
+			int node = from;
+			double now = time;
+			for (ScheduleEntry e : path) {
+				assertEquals(node, e.getFrom());
+				assertTrue(e.getTime() >= now);
+				node = e.getTo();
+				now = e.getDestinationTime();
+			}
+			assertEquals(to, node);
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import input.EventQueue;
+import interfaces.SimpleBroadcastInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import movement.MovementModel;
+import movement.Path;
+import routing.PassiveRouter;
+import core.ConnectionListener;
+import core.Coord;
+import core.DTNHost;
+import core.ModuleCommunicationBus;
+import core.NetworkInterface;
+import core.SimClock;
+import core.UpdateListener;
+import core.World;
+
+/**
+ * Tests for the ContactPredictor (through the World)
+ */
+public class ContactPredictorTest extends TestCase
+		implements ConnectionListener {
+	/* for rounding errors */
+	private static final double TIME_DELTA = 0.00001;
+	private static final String IFACE_NS = "predictedInterface";
+	private static final double RANGE = 10;
+	private static final double UP_INTERVAL = 1.0;
+
+	private TestSettings ts;
+	private List<DTNHost> hosts;
+	private List<Double> upTimes;
+	private List<Double> downTimes;
+	/** simulation times of the contacts and moves in the order they
+	 * happened */
+	private List<Double> clockLog;
+	private World world;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.reset();
+		ts = new TestSettings();
+		ts.putSetting(IFACE_NS + "." + NetworkInterface.TRANSMIT_RANGE_S,
+				"" + RANGE);
+		ts.putSetting(IFACE_NS + "." + NetworkInterface.TRANSMIT_SPEED_S, "1");
+		ts.putSetting(World.SETTINGS_NS + "." + World.CONTACT_PREDICTION_S,
+				"true");
+
+		this.hosts = new ArrayList<DTNHost>();
+		this.upTimes = new ArrayList<Double>();
+		this.downTimes = new ArrayList<Double>();
+		this.clockLog = new ArrayList<Double>();
+	}
+
+	protected void tearDown() throws Exception {
+		ts.putSetting(World.SETTINGS_NS + "." + World.CONTACT_PREDICTION_S,
+				"false");
+		super.tearDown();
+	}
+
+	private DTNHost createHost(MovementModel mm) {
+		List<ConnectionListener> cl = new ArrayList<ConnectionListener>();
+		cl.add(this);
+		NetworkInterface ni = new SimpleBroadcastInterface(
+				new TestSettings(IFACE_NS));
+		ni.setClisteners(cl);
+		List<NetworkInterface> li = new ArrayList<NetworkInterface>();
+		li.add(ni);
+
+		DTNHost host = new CountingHost(li, mm);
+		hosts.add(host);
+		return host;
+	}
+
+	private void createWorld() {
+		this.world = new World(hosts, 100, 100, UP_INTERVAL,
+				new ArrayList<UpdateListener>(), true,
+				new ArrayList<EventQueue>());
+	}
+
+	private void runUntil(double endTime) {
+		while (SimClock.getTime() < endTime - TIME_DELTA) {
+			world.update();
+		}
+	}
+
+	public void testContactTimes() {
+		/* moves 3 m/s towards the stationary host: gets within range at
+		 * 40/3 s and out of range at 20 s */
+		createHost(new LinearMovement(new Coord(0,50), new Coord(100,50),
+				3));
+		createHost(new StationaryMovement(new Coord(50,50)));
+		createWorld();
+
+		runUntil(10);
+		assertEquals(0, upTimes.size());
+		runUntil(15);
+		assertEquals(1, upTimes.size());
+		assertEquals(40.0/3, upTimes.get(0), TIME_DELTA);
+		assertEquals(0, downTimes.size());
+
+		runUntil(25);
+		assertEquals(1, downTimes.size());
+		assertEquals(20.0, downTimes.get(0), TIME_DELTA);
+		assertEquals(0, hosts.get(0).getConnections().size());
+		assertEquals(0, hosts.get(1).getConnections().size());
+	}
+
+	public void testInitialContactAndRangeChange() {
+		createHost(new StationaryMovement(new Coord(10,10)));
+		createHost(new StationaryMovement(new Coord(15,10)));
+		createWorld();
+
+		world.update();
+		assertEquals(1, upTimes.size());
+		assertEquals(0.0, upTimes.get(0), TIME_DELTA);
+
+		/* range change is noticed on the next update */
+		hosts.get(0).getComBus().updateProperty(NetworkInterface.RANGE_ID,
+				2.0);
+		runUntil(3);
+		assertEquals(1, downTimes.size());
+		assertEquals(0, hosts.get(1).getConnections().size());
+	}
+
+	/**
+	 * Creates a host that moves 20 m/s past two stationary hosts (gets in
+	 * range of the first at 1.5 s and out of it at 2.5 s, when it gets in
+	 * range of the second, and out of that at 3.5 s) and a host that is
+	 * never in range of the others
+	 * @return The host that is never in range
+	 */
+	private CountingHost createPassingHosts() {
+		createHost(new LinearMovement(new Coord(0,50), new Coord(100,50),
+				20));
+		createHost(new StationaryMovement(new Coord(40,50)));
+		createHost(new StationaryMovement(new Coord(60,50)));
+		return (CountingHost)createHost(
+				new StationaryMovement(new Coord(50,5)));
+	}
+
+	public void testHostUpdatesPerContact() {
+		CountingHost bystander = createPassingHosts();
+		createWorld();
+
+		for (int round=1; round<=4; round++) {
+			world.update();
+			int nrofChanges = upTimes.size() + downTimes.size();
+			int total = 0;
+			for (DTNHost h : hosts) {
+				total += ((CountingHost)h).nrofUpdates;
+			}
+			/* one update per round and one for both hosts of a contact */
+			assertEquals(round, bystander.nrofUpdates);
+			assertEquals(hosts.size() * round + 2 * nrofChanges, total);
+		}
+		assertEquals(2, upTimes.size());
+		assertEquals(2, downTimes.size());
+		assertEquals(1.5, upTimes.get(0), TIME_DELTA);
+		assertEquals(2.5, upTimes.get(1), TIME_DELTA);
+		assertEquals(2.5, downTimes.get(0), TIME_DELTA);
+		assertEquals(3.5, downTimes.get(1), TIME_DELTA);
+	}
+
+	public void testClockDoesNotGoBackwards() {
+		createPassingHosts();
+		createWorld();
+
+		for (int round=1; round<=4; round++) {
+			world.update();
+		}
+		assertEquals(4, upTimes.size() + downTimes.size());
+
+		double last = 0;
+		for (double t : clockLog) {
+			assertTrue("Time went from " + last + " to " + t, t >= last);
+			last = t;
+		}
+		/* the hosts are moved at the start of the intervals */
+		CountingHost mover = (CountingHost)hosts.get(0);
+		assertEquals(4, mover.moveTimes.size());
+		for (int i=0; i<4; i++) {
+			assertEquals(1.0 * i, mover.moveTimes.get(i), TIME_DELTA);
+		}
+	}
+
+	public void hostsConnected(DTNHost host1, DTNHost host2) {
+		upTimes.add(SimClock.getTime());
+		clockLog.add(SimClock.getTime());
+	}
+
+	public void hostsDisconnected(DTNHost host1, DTNHost host2) {
+		downTimes.add(SimClock.getTime());
+		clockLog.add(SimClock.getTime());
+	}
+
+	/**
+	 * Host that counts its updates and logs the times it is moved at
+	 */
+	private class CountingHost extends DTNHost {
+		private int nrofUpdates;
+		private List<Double> moveTimes;
+
+		public CountingHost(List<NetworkInterface> li, MovementModel mm) {
+			super(null, null, "p", li, new ModuleCommunicationBus(), mm,
+					new PassiveRouter(ts));
+			this.nrofUpdates = 0;
+			this.moveTimes = new ArrayList<Double>();
+		}
+
+		@Override
+		public void move(double timeIncrement) {
+			moveTimes.add(SimClock.getTime());
+			clockLog.add(SimClock.getTime());
+			super.move(timeIncrement);
+		}
+
+		@Override
+		public void update(boolean simulateConnections) {
+			this.nrofUpdates++;
+			super.update(simulateConnections);
+		}
+	}
+
+	/**
+	 * Movement model that moves once from the start to the destination
+	 */
+	private static class LinearMovement extends MovementModel {
+		private Coord from;
+		private Coord to;
+		private double speed;
+		private boolean moved;
+
+		public LinearMovement(Coord from, Coord to, double speed) {
+			this.from = from;
+			this.to = to;
+			this.speed = speed;
+			this.moved = false;
+		}
+
+		@Override
+		public Coord getInitialLocation() {
+			return from.clone();
+		}
+
+		@Override
+		public boolean isActive() {
+			return true;
+		}
+
+		@Override
+		public Path getPath() {
+			Path p = new Path(speed);
+			p.addWaypoint(from.clone());
+			p.addWaypoint(to.clone());
+			moved = true;
+			return p;
+		}
+
+		@Override
+		public double nextPathAvailable() {
+			return moved ? Double.MAX_VALUE : 0;
+		}
+
+		@Override
+		public LinearMovement replicate() {
+			return new LinearMovement(from, to, speed);
+		}
+	}
+}
@@ -28,4 +28,14 @@ public class CoordTest extends TestCase {
 		
 	}
 
+	public void testDistance() {
+		Coord c1 = new Coord(1,1);
+		Coord c2 = new Coord(4,5);
+		
+		assertEquals(5.0, c1.distance(c2));
+		assertEquals(25.0, c1.distanceSquared(c2));
+		assertEquals(25.0, c2.distanceSquared(c1));
+		assertEquals(0.0, c1.distanceSquared(c1));
+	}
+
 }
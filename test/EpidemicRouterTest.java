@@ -4,10 +4,22 @@
  */
 package test;
 
+import input.EventQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import routing.ActiveRouter;
 import routing.EpidemicRouter;
 import routing.MessageRouter;
+import core.Connection;
 import core.DTNHost;
 import core.Message;
+import core.TransferCompletionQueue;
+import core.UpdateListener;
+import core.World;
 
 /**
  * Tests for EpidemicRouter and, due the simple nature of Epidemic router,
@@ -24,6 +36,29 @@ public class EpidemicRouterTest extends AbstractRouterTest {
 		setRouterProto(new EpidemicRouter(ts));
 		super.setUp();
 	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ts.putSetting(ActiveRouter.DROP_POLICY_S,
+				"" + ActiveRouter.DEF_DROP_POLICY);
+		ts.putSetting(ActiveRouter.MAX_TRANSFERS_S,
+				"" + ActiveRouter.DEF_MAX_TRANSFERS);
+		ts.putSetting(ActiveRouter.BANDWIDTH_SHARING_S,
+				"" + ActiveRouter.SHARE_NONE);
+		ts.putSetting(World.SETTINGS_NS + "." + World.PIPELINED_TRANSFERS_S,
+				"" + World.DEF_PIPELINED_TRANSFERS);
+		TransferCompletionQueue.reset();
+		super.tearDown();
+	}
+
+	/**
+	 * Sets the drop policy and creates new hosts that use it
+	 * @param policy The drop policy
+	 */
+	private void setDropPolicy(int policy) throws Exception {
+		ts.putSetting(ActiveRouter.DROP_POLICY_S, "" + policy);
+		this.setUp();
+	}
 	
 	/**
 	 * Tests routing messages between three hosts
@@ -439,6 +474,134 @@ public class EpidemicRouterTest extends AbstractRouterTest {
 		assertFalse(mc.next());
 	}
 	
+	/**
+	 * Tests if the LIFO drop policy drops the newest message
+	 */
+	public void testLifoDropPolicy() throws Exception {
+		setDropPolicy(ActiveRouter.DROP_LIFO);
+		String[] ids = {msgId1, msgId2, msgId3};
+		for (String id : ids) {
+			h1.createNewMessage(new Message(h1, h3, id, BUFFER_SIZE/3));
+			clock.advance(10);
+		}
+		checkCreates(3);
+
+		h1.createNewMessage(new Message(h1, h3, msgId4, BUFFER_SIZE/3));
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_DELETE, mc.getLastType());
+		assertTrue(mc.getLastDropped());
+		assertEquals(msgId3, mc.getLastMsg().getId());
+		checkCreates(1);
+	}
+
+	/**
+	 * Tests if the MOFO drop policy drops the most forwarded message even
+	 * if it isn't the oldest one
+	 */
+	public void testMofoDropPolicy() throws Exception {
+		setDropPolicy(ActiveRouter.DROP_MOFO);
+		h1.createNewMessage(new Message(h1, h3, msgId1, BUFFER_SIZE/3));
+		clock.advance(10);
+		h1.createNewMessage(new Message(h1, h3, msgId2, BUFFER_SIZE/3));
+		// h2 has already msgId1 so only msgId2 can be forwarded to it
+		h2.createNewMessage(new Message(h2, h3, msgId1, 1));
+		checkCreates(3);
+
+		h1.connect(h2);
+		updateAllNodes();
+		checkTransferStart(h1, h2, msgId2);
+		clock.advance(BUFFER_SIZE/3/TRANSMIT_SPEED + 1);
+		updateAllNodes();
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_RELAY, mc.getLastType());
+		assertFalse(mc.next());
+
+		h1.createNewMessage(new Message(h1, h3, msgId3, BUFFER_SIZE/3));
+		checkCreates(1);
+		h1.createNewMessage(new Message(h1, h3, msgId4, BUFFER_SIZE/3));
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_DELETE, mc.getLastType());
+		assertTrue(mc.getLastDropped());
+		assertEquals(h1, mc.getLastFrom());
+		assertEquals(msgId2, mc.getLastMsg().getId());
+		checkCreates(1);
+	}
+
+	/**
+	 * Tests that a router with two transfer slots sends to two hosts at
+	 * the same time and that the transfers share the bandwidth
+	 */
+	public void testConcurrentTransfers() throws Exception {
+		ts.putSetting(ActiveRouter.MAX_TRANSFERS_S, "2");
+		ts.putSetting(ActiveRouter.BANDWIDTH_SHARING_S,
+				"" + ActiveRouter.SHARE_FAIR);
+		this.setUp();
+		// one second to transfer with the full speed
+		h1.createNewMessage(new Message(h1, h4, msgId1, TRANSMIT_SPEED));
+		checkCreates(1);
+
+		h1.connect(h2);
+		h1.connect(h3);
+		updateAllNodes();
+		updateAllNodes();
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_START, mc.getLastType());
+		DTNHost firstTo = mc.getLastTo();
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_START, mc.getLastType());
+		assertFalse(firstTo == mc.getLastTo());
+		assertFalse(mc.next());
+
+		// both transfers at half speed -> not done after one second
+		clock.advance(1);
+		updateAllNodes();
+		assertFalse(mc.next());
+
+		clock.advance(1);
+		updateAllNodes();
+		for (int i=0; i<2; i++) {
+			assertTrue(mc.next());
+			assertEquals(mc.TYPE_RELAY, mc.getLastType());
+			assertEquals(h1, mc.getLastFrom());
+		}
+		assertFalse(mc.next());
+	}
+
+	/**
+	 * Tests that with pipelined transfers the next transfer starts when
+	 * the previous one finishes and not on the next update
+	 */
+	public void testPipelinedTransfers() {
+		ts.putSetting(World.SETTINGS_NS + "." + World.PIPELINED_TRANSFERS_S,
+				"true");
+		World world = new World(utils.getAllHosts(), 100, 100, 1.0,
+				new ArrayList<UpdateListener>(), false,
+				new ArrayList<EventQueue>());
+		// half a second to transfer each message
+		h1.createNewMessage(new Message(h1, h2, msgId1, TRANSMIT_SPEED/2));
+		h1.createNewMessage(new Message(h1, h2, msgId2, TRANSMIT_SPEED/2));
+		checkCreates(2);
+
+		h1.connect(h2);
+		world.update(); // first transfer starts at 1.0
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_START, mc.getLastType());
+		assertFalse(mc.next());
+
+		// done at 1.5 and 2.0 (without pipelining only the first one)
+		world.update();
+		for (int i=0; i<2; i++) {
+			assertTrue(mc.next());
+			assertEquals(mc.TYPE_RELAY, mc.getLastType());
+			if (i == 0) {
+				assertTrue(mc.next());
+				assertEquals(mc.TYPE_START, mc.getLastType());
+			}
+		}
+		assertFalse(mc.next());
+		assertEquals(0, TransferCompletionQueue.getInstance().size());
+	}
+
 	public void testTtlExpiry() {
 		final int TIME_STEP = 10;
 		Message m1 = new Message(h1,h3, msgId1, 1);
@@ -598,6 +761,69 @@ public class EpidemicRouterTest extends AbstractRouterTest {
 		return msgIds;
 	}
 	
+	/**
+	 * Tests that the messages to exchange over the connections are kept up
+	 * to date at both ends when the hosts get and lose messages while the
+	 * connections are up
+	 */
+	public void testExchangeStates() {
+		h1.createNewMessage(new Message(h1, h5, msgId1, 1));
+		h1.createNewMessage(new Message(h1, h5, msgId4, 1));
+		h2.createNewMessage(new Message(h2, h5, msgId1, 1));
+		h2.createNewMessage(new Message(h2, h5, msgId2, 1));
+		h3.createNewMessage(new Message(h3, h5, msgId4, 1));
+		h1.connect(h2);
+		h2.connect(h3);
+
+		assertToExchange(h1, h2, msgId4);
+		assertToExchange(h2, h1, msgId2);
+		assertToExchange(h2, h3, msgId1, msgId2);
+		assertToExchange(h3, h2, msgId4);
+
+		/* a transfer from a third host updates both ends of h1-h2 */
+		h3.update(true);
+		clock.advance(1);
+		h3.update(true);
+		assertEquals(3, h2.getNrofMessages()); // got msgId4 from h3
+		assertToExchange(h1, h2);
+		assertToExchange(h2, h1, msgId2);
+		assertToExchange(h3, h2);
+		assertToExchange(h2, h3, msgId1, msgId2);
+
+		/* so do drops and new messages */
+		h1.deleteMessage(msgId1, true);
+		assertToExchange(h1, h2);
+		assertToExchange(h2, h1, msgId1, msgId2);
+		h2.deleteMessage(msgId2, true);
+		assertToExchange(h2, h1, msgId1);
+		assertToExchange(h2, h3, msgId1);
+		h1.createNewMessage(new Message(h1, h5, msgId3, 1));
+		assertToExchange(h1, h2, msgId3);
+		assertToExchange(h2, h1, msgId1);
+	}
+
+	/**
+	 * Checks the messages a host has to exchange with a connected host
+	 * @param from The host whose messages are checked
+	 * @param to The host at the other end of the connection
+	 * @param ids IDs of the messages "from" should have to exchange
+	 */
+	private void assertToExchange(DTNHost from, DTNHost to, String... ids) {
+		Connection con = null;
+		for (Connection c : from.getConnections()) {
+			if (c.getOtherNode(from) == to) {
+				con = c;
+			}
+		}
+		assertNotNull(con);
+		Set<String> exchanged = new HashSet<String>();
+		for (Message m : ((ActiveRouter)from.getRouter()).
+				getMessagesToExchange(con)) {
+			exchanged.add(m.getId());
+		}
+		assertEquals(new HashSet<String>(Arrays.asList(ids)), exchanged);
+	}
+
 	public void testFifoSendingQ() throws Exception {
 		ts.putSetting(MessageRouter.SEND_QUEUE_MODE_S, 
 				""+MessageRouter.Q_MODE_FIFO);
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.IntHashMap;
+
+/**
+ * Tests for the IntHashMap
+ */
+public class IntHashMapTest extends TestCase {
+	private IntHashMap<String> map;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		map = new IntHashMap<String>();
+	}
+
+	public void testPutGetRemove() {
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(-5, "b"));
+		assertEquals("a", map.put(1, "c"));
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(-5));
+		assertNull(map.get(2));
+		assertTrue(map.containsKey(-5));
+
+		assertEquals("b", map.remove(-5));
+		assertNull(map.remove(-5));
+		assertFalse(map.containsKey(-5));
+		assertEquals(1, map.size());
+	}
+
+	/**
+	 * Compares the map to a HashMap with random puts and removes of keys
+	 * that collide often
+	 */
+	public void testRandomOperations() {
+		Random rng = new Random(1);
+		HashMap<Integer, String> reference = new HashMap<Integer, String>();
+		for (int i=0; i<20000; i++) {
+			int key = rng.nextInt(500) * (rng.nextBoolean() ? 1 : 1024);
+			if (rng.nextInt(3) == 0) {
+				assertEquals(reference.remove(key), map.remove(key));
+			}
+			else {
+				String value = "v" + i;
+				assertEquals(reference.put(key, value), map.put(key, value));
+			}
+			assertEquals(reference.size(), map.size());
+		}
+
+		for (Integer key : reference.keySet()) {
+			assertEquals(reference.get(key), map.get(key));
+		}
+		List<String> expected = new ArrayList<String>(reference.values());
+		List<String> values = new ArrayList<String>(map.values());
+		Collections.sort(expected);
+		Collections.sort(values);
+		assertEquals(expected, values);
+	}
+}
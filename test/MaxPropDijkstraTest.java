@@ -5,10 +5,13 @@
 package test;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -122,7 +125,178 @@ public class MaxPropDijkstraTest extends TestCase {
 		assertEquals(1-0.625, result.get(4));
 		assertEquals( (1-0.625)+(1-0.5), result.get(5));
 	}
+
+	/**
+	 * Tests that the costs of the cached paths are updated correctly when
+	 * the probabilities change
+	 */
+	public void testIncrementalUpdates() {
+		final int nrofNodes = 30;
+		Random rng = new Random(1);
+		Map<Integer, MeetingProbabilitySet> probs = 
+			new HashMap<Integer, MeetingProbabilitySet>();
+		for (int i=0; i<nrofNodes; i++) {
+			probs.put(i, new MeetingProbabilitySet(
+					MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0));
+		}
+		MaxPropDijkstra incremental = new MaxPropDijkstra(probs);
+		
+		for (int round=0; round<200; round++) {
+			/* a few nodes meet others */
+			for (int i=rng.nextInt(4); i>=0; i--) {
+				int node = rng.nextInt(nrofNodes);
+				probs.get(node).updateMeetingProbFor(rng.nextInt(nrofNodes));
+				incremental.probsChanged(node);
+			}
+			/* sometimes a node's probabilities are replaced */
+			if (rng.nextInt(5) == 0) {
+				int node = rng.nextInt(nrofNodes);
+				probs.put(node, probs.get(node).replicate());
+				incremental.probsChanged(node);
+			}
+			
+			MaxPropDijkstra full = new MaxPropDijkstra(probs);
+			for (int k=0; k<3; k++) {
+				int from = rng.nextInt(nrofNodes);
+				for (int to=0; to<nrofNodes; to++) {
+					assertEquals("Cost from " + from + " to " + to +
+							" in round " + round, full.getCost(from, to),
+							incremental.getCost(from, to));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Differential test: applies random changes to the probability sets
+	 * (updates, size limited sets, direct values, replacements and removals)
+	 * and compares every cached cost to the costs calculated from scratch
+	 * both with a new calculator and with the original (non-incremental)
+	 * algorithm
+	 */
+	public void testRandomChangesAgainstLegacy() {
+		final int nrofSets = 40;
+		final int nrofNodes = 60; // some nodes have no probability set
+		Random rng = new Random(7);
+		Map<Integer, MeetingProbabilitySet> probs = 
+			new HashMap<Integer, MeetingProbabilitySet>();
+		for (int i=0; i<nrofSets; i++) {
+			probs.put(i, newRandomSet(rng));
+		}
+		Set<Integer> allNodes = new HashSet<Integer>();
+		for (int i=0; i<nrofNodes; i++) {
+			allNodes.add(i);
+		}
+		MaxPropDijkstra incremental = new MaxPropDijkstra(probs);
+		
+		for (int round=0; round<300; round++) {
+			for (int i=rng.nextInt(6); i>=0; i--) {
+				int node = rng.nextInt(nrofSets);
+				MeetingProbabilitySet mps = probs.get(node);
+				int change = rng.nextInt(10);
+				if (mps == null || change == 0) {
+					probs.put(node, newRandomSet(rng));
+				}
+				else if (change == 1) {
+					probs.remove(node);
+				}
+				else if (change == 2) {
+					probs.put(node, mps.replicate());
+				}
+				else if (change == 3) {
+					mps.updateMeetingProbFor(rng.nextInt(nrofNodes),
+							rng.nextDouble());
+				}
+				else {
+					mps.updateMeetingProbFor(rng.nextInt(nrofNodes));
+				}
+				incremental.probsChanged(node);
+			}
+			
+			/* query only some of the sources so that the changes of several
+			 * rounds pile up for the others */
+			int nrofSources = round % 10 == 0 ? nrofNodes : rng.nextInt(12);
+			for (int k=0; k<nrofSources; k++) {
+				int from = round % 10 == 0 ? k : rng.nextInt(nrofNodes);
+				Map<Integer, Double> fresh = new MaxPropDijkstra(probs).
+					getCosts(from, allNodes);
+				Map<Integer, Double> legacy = legacyCosts(probs, from, 
+						allNodes);
+				assertEquals(legacy, fresh);
+				for (int to=0; to<nrofNodes; to++) {
+					Double expected = legacy.get(to);
+					assertEquals("Cost from " + from + " to " + to +
+							" in round " + round, expected == null ? 
+							Double.MAX_VALUE : expected.doubleValue(),
+							incremental.getCost(from, to));
+				}
+			}
+		}
+	}
 	
+	/**
+	 * Returns a new probability set with a few random meetings
+	 */
+	private MeetingProbabilitySet newRandomSet(Random rng) {
+		int maxSize = rng.nextBoolean() ? 
+				MeetingProbabilitySet.INFINITE_SET_SIZE : 5;
+		MeetingProbabilitySet mps = new MeetingProbabilitySet(maxSize,
+				0.5 + rng.nextDouble());
+		for (int i=rng.nextInt(8); i>0; i--) {
+			mps.updateMeetingProbFor(rng.nextInt(60));
+		}
+		return mps;
+	}
+	
+	/**
+	 * The original shortest path calculation of MaxPropDijkstra (a boxed
+	 * Dijkstra's search that stops when all the targets are found)
+	 */
+	private Map<Integer, Double> legacyCosts(
+			final Map<Integer, MeetingProbabilitySet> probs, Integer from,
+			Set<Integer> to) {
+		final Map<Integer, Double> dist = new HashMap<Integer, Double>();
+		Set<Integer> visited = new HashSet<Integer>();
+		Map<Integer, Double> result = new HashMap<Integer, Double>();
+		PriorityQueue<Integer> unvisited = new PriorityQueue<Integer>(11,
+				new Comparator<Integer>() {
+			public int compare(Integer n1, Integer n2) {
+				int c = Double.compare(dist.get(n1), dist.get(n2));
+				return c != 0 ? c : n1.compareTo(n2);
+			}
+		});
+		int nrofNodesToFind = to.size();
+		
+		dist.put(from, 0.0);
+		unvisited.add(from);
+		Integer node;
+		while ((node = unvisited.poll()) != null) {
+			if (to.contains(node)) {
+				result.put(node, dist.get(node));
+				if (--nrofNodesToFind == 0) {
+					break;
+				}
+			}
+			visited.add(node);
+			if (!probs.containsKey(node)) {
+				continue;
+			}
+			for (Map.Entry<Integer, Double> e : 
+					probs.get(node).getAllProbs().entrySet()) {
+				Integer n = e.getKey();
+				if (visited.contains(n)) {
+					continue;
+				}
+				double d = dist.get(node) + (1 - e.getValue());
+				if (!dist.containsKey(n) || dist.get(n) > d) {
+					unvisited.remove(n);
+					dist.put(n, d);
+					unvisited.add(n);
+				}
+			}
+		}
+		return result;
+	}
 	
 	public void testProbabilitySumsToOne() {
 		double total;
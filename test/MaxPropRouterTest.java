@@ -4,8 +4,16 @@
  */
 package test;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
 import routing.MaxPropRouter;
 import routing.MessageRouter;
+import routing.maxprop.MaxPropDijkstra;
+import routing.maxprop.MeetingProbabilitySet;
 import core.DTNHost;
 import core.Message;
 import core.SimScenario;
@@ -303,4 +311,125 @@ public class MaxPropRouterTest extends AbstractRouterTest {
 		/* msg path h2->h1->h4 */
 		assertEquals((1-0.75)+(1-0.25), r2.getCost(h2, h4));
 	}
+
+	/**
+	 * Tests that the exchanged transitive probabilities and the costs are
+	 * the same as with the deep copies of the sets that the router used to
+	 * exchange. Hosts meet in sequence (and later in random order) so that
+	 * the sets travel over several hops.
+	 */
+	public void testTransitiveProbsExchange() {
+		DTNHost[] hosts = {h1, h2, h3, h4, h5};
+		Map<DTNHost, LegacyProbs> legacy = new HashMap<DTNHost, LegacyProbs>();
+		for (DTNHost h : hosts) {
+			legacy.put(h, new LegacyProbs(h.getAddress()));
+		}
+
+		/* h1 meets h2 and then h2 meets h3: h3 learns h1's probs from h2 */
+		meet(h1, h2, legacy, hosts);
+		meet(h2, h3, legacy, hosts);
+		MaxPropRouter r3 = (MaxPropRouter)h3.getRouter();
+		assertEquals(1.0, r3.getKnownProbs(h1).getProbFor(h2.getAddress()));
+		assertEquals(0.5, r3.getCost(h3, h1));
+		meet(h3, h1, legacy, hosts);
+
+		Random rng = new Random(42);
+		for (int i=0; i<100; i++) {
+			DTNHost a = hosts[rng.nextInt(hosts.length)];
+			DTNHost b = hosts[rng.nextInt(hosts.length)];
+			if (a != b) {
+				meet(a, b, legacy, hosts);
+			}
+		}
+	}
+
+	/**
+	 * Connects and disconnects two hosts, does the same exchange for the
+	 * legacy probabilities and checks that all the hosts agree
+	 */
+	private void meet(DTNHost a, DTNHost b, Map<DTNHost, LegacyProbs> legacy,
+			DTNHost[] hosts) {
+		clock.advance(1); // no two meetings at the same time
+		a.connect(b);
+		a.forceConnection(b, null, false);
+		legacy.get(a).meet(legacy.get(b));
+
+		for (DTNHost h : hosts) {
+			MaxPropRouter r = (MaxPropRouter)h.getRouter();
+			LegacyProbs lp = legacy.get(h);
+			for (DTNHost other : hosts) {
+				MeetingProbabilitySet expected = lp.allProbs.get(
+						other.getAddress());
+				MeetingProbabilitySet known = r.getKnownProbs(other);
+				if (expected == null) {
+					assertNull(known);
+				}
+				else {
+					assertEquals("Probs of " + other + " at " + h,
+							expected.getAllProbs(), known.getAllProbs());
+				}
+			}
+
+			for (DTNHost from : hosts) {
+				Map<Integer, Double> costs = lp.getCosts(from.getAddress());
+				for (DTNHost to : hosts) {
+					if (from == to) {
+						continue;
+					}
+					Double cost = costs.get(to.getAddress());
+					assertEquals("Cost from " + from + " to " + to + " at " + h,
+							cost == null ? INVALID_COST : cost.doubleValue(),
+							r.getCost(from, to));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Meeting probabilities of a host exchanged with deep copies of the
+	 * sets, like the router used to exchange them
+	 */
+	private static class LegacyProbs {
+		private int address;
+		private MeetingProbabilitySet probs;
+		private Map<Integer, MeetingProbabilitySet> allProbs;
+
+		public LegacyProbs(int address) {
+			this.address = address;
+			this.probs = new MeetingProbabilitySet(
+					MaxPropRouter.DEFAULT_PROB_SET_MAX_SIZE,
+					MaxPropRouter.DEFAULT_ALPHA);
+			this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
+		}
+
+		public void meet(LegacyProbs other) {
+			probs.updateMeetingProbFor(other.address);
+			other.probs.updateMeetingProbFor(address);
+			updateTransitiveProbs(other.allProbs);
+			other.updateTransitiveProbs(allProbs);
+			allProbs.put(other.address, other.probs.replicate());
+			other.allProbs.put(address, probs.replicate());
+			allProbs.put(address, probs);
+			other.allProbs.put(other.address, other.probs);
+		}
+
+		private void updateTransitiveProbs(
+				Map<Integer, MeetingProbabilitySet> p) {
+			for (Map.Entry<Integer, MeetingProbabilitySet> e : p.entrySet()) {
+				MeetingProbabilitySet myMps = allProbs.get(e.getKey());
+				if (myMps == null || e.getValue().getLastUpdateTime() >
+						myMps.getLastUpdateTime()) {
+					allProbs.put(e.getKey(), e.getValue().replicate());
+				}
+			}
+		}
+
+		public Map<Integer, Double> getCosts(int from) {
+			Set<Integer> all = new HashSet<Integer>(allProbs.keySet());
+			for (MeetingProbabilitySet mps : allProbs.values()) {
+				all.addAll(mps.getAllProbs().keySet());
+			}
+			return new MaxPropDijkstra(allProbs).getCosts(from, all);
+		}
+	}
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import routing.maxprop.MeetingProbabilitySet;
+import routing.maxprop.MeetingProbabilityTable;
+
+/**
+ * Tests for the MeetingProbabilityTable and the meeting probability set
+ * snapshots
+ */
+public class MeetingProbabilityTableTest extends TestCase {
+	private MeetingProbabilitySet set0;
+	private MeetingProbabilitySet set1;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		set0 = new MeetingProbabilitySet(
+				MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0);
+		set1 = new MeetingProbabilitySet(
+				MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0);
+	}
+
+	public void testSnapshots() {
+		set0.updateMeetingProbFor(1);
+		MeetingProbabilitySet snapshot = set0.snapshot();
+		assertSame(snapshot, set0.snapshot());
+		assertSame(snapshot, snapshot.snapshot());
+		assertEquals(1, snapshot.getVersion());
+
+		set0.updateMeetingProbFor(2);
+		assertEquals(2, set0.getVersion());
+		assertNotSame(snapshot, set0.snapshot());
+		assertEquals(1.0, snapshot.getProbFor(1));
+		assertEquals(0.5, set0.snapshot().getProbFor(1));
+
+		try {
+			snapshot.updateMeetingProbFor(3);
+			fail("Snapshot was updated");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		/* a replica can be updated again */
+		MeetingProbabilitySet replica = snapshot.replicate();
+		replica.updateMeetingProbFor(3);
+		assertEquals(0.5, replica.getProbFor(3));
+	}
+
+	public void testPutAndUpdate() {
+		MeetingProbabilityTable t0 = new MeetingProbabilityTable();
+		MeetingProbabilityTable t1 = new MeetingProbabilityTable();
+
+		set0.updateMeetingProbFor(1);
+		assertTrue(t0.put(0, set0));
+		assertFalse(t0.put(0, set0)); // same version
+		set1.updateMeetingProbFor(0);
+		set1.updateMeetingProbFor(2);
+		assertTrue(t1.put(1, set1));
+
+		long seq = t0.getSeq();
+		assertEquals(1, t0.updateFrom(t1, 1));
+		assertSame(t1.get(1), t0.get(1)); // shared snapshot
+		assertTrue(Arrays.equals(new int[] {1}, t0.getReplacedSince(seq)));
+		assertEquals(1, t1.updateFrom(t0, 0));
+		assertSame(t0.get(0), t1.get(0));
+
+		/* nothing new */
+		assertEquals(0, t0.updateFrom(t1, 1));
+		assertEquals(0, t0.getReplacedSince(t0.getSeq()).length);
+
+		/* only the newer version is taken */
+		set0.updateMeetingProbFor(2);
+		t0.put(0, set0);
+		assertEquals(0, t0.updateFrom(t1, 1));
+		assertEquals(2, t0.get(0).getVersion());
+		assertEquals(1, t1.updateFrom(t0, 0));
+		assertEquals(2, t1.get(0).getVersion());
+	}
+
+	/**
+	 * Tests that updates through a chain of tables (with old log entries
+	 * dropped on the way) take the newest versions
+	 */
+	public void testChainedUpdates() {
+		final int nrofSets = 20;
+		MeetingProbabilitySet[] sets = new MeetingProbabilitySet[nrofSets];
+		MeetingProbabilityTable t0 = new MeetingProbabilityTable();
+		MeetingProbabilityTable t1 = new MeetingProbabilityTable();
+		MeetingProbabilityTable t2 = new MeetingProbabilityTable();
+		for (int i=0; i<nrofSets; i++) {
+			sets[i] = new MeetingProbabilitySet(
+					MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0);
+		}
+
+		for (int round=0; round<50; round++) {
+			for (int i=round % 3; i<nrofSets; i+=2) {
+				sets[i].updateMeetingProbFor(round);
+				t0.put(i, sets[i]);
+			}
+			t1.updateFrom(t0, 0);
+			if (round % 4 == 0) {
+				t2.updateFrom(t1, 1);
+				for (int i=0; i<nrofSets; i++) {
+					assertSame(t0.get(i), t2.get(i));
+				}
+			}
+		}
+	}
+}
@@ -4,11 +4,15 @@
  */
 package test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import core.Coord;
 import core.DTNHost;
 import core.Message;
 import core.SimClock;
@@ -60,5 +64,68 @@ public class MessageTest extends TestCase {
 		assertEquals(value2, msg.getProperty("bar"));
 	}
 
+	@Test
+	public void testIdIndex() {
+		Message other = new Message(from, to, "M2", 100);
+		Message replicate = msg.replicate();
+
+		assertEquals(msg.getIdIndex(), replicate.getIdIndex());
+		assertFalse(msg.getIdIndex() == other.getIdIndex());
+		assertEquals(msg.getIdIndex(),
+				new Message(from, to, "M", 100).getIdIndex());
+	}
+
+	@Test
+	public void testReplicatesAreIndependent() {
+		msg.addProperty("foo", "value");
+		Message replicate = msg.replicate();
+		replicate.updateProperty("foo", "changed");
+		replicate.addNodeOnPath(to);
+		replicate.setTtl(20);
+		replicate.setResponseSize(50);
+
+		assertEquals("value", msg.getProperty("foo"));
+		assertEquals("changed", replicate.getProperty("foo"));
+		assertEquals(1, msg.getHops().size());
+		assertEquals(2, replicate.getHops().size());
+		assertEquals(10, msg.getTtl());
+		assertEquals(20, replicate.getTtl());
+		assertEquals(0, msg.getResponseSize());
+		assertEquals(50, replicate.getResponseSize());
+		assertEquals(msg.getId(), replicate.getId());
+		assertEquals(msg.getCreationTime(), replicate.getCreationTime());
+	}
+
+	@Test
+	public void testHopPath() {
+		TestUtils utils = new TestUtils(null, null, new TestSettings());
+		List<DTNHost> hosts = new ArrayList<DTNHost>();
+		for (int i=0; i<100; i++) { // more hosts than Bloom filter bits
+			hosts.add(utils.createHost(new Coord(0, 0), "h" + i));
+		}
+
+		Message m = new Message(hosts.get(0), hosts.get(99), "P", 100);
+		m.addNodeOnPath(hosts.get(64));
+		Message replicate = m.replicate();
+		m.addNodeOnPath(hosts.get(1));
+		replicate.addNodeOnPath(hosts.get(2));
+
+		assertEquals(2, m.getHopCount());
+		assertEquals(hosts.get(0), m.getHops().get(0));
+		assertEquals(hosts.get(64), m.getHops().get(1));
+		assertEquals(hosts.get(1), m.getHops().get(2));
+		assertEquals(hosts.get(2), replicate.getHops().get(2));
+		assertEquals(3, replicate.getHops().size());
+
+		assertTrue(m.hasVisited(hosts.get(0)));
+		assertTrue(m.hasVisited(hosts.get(64)));
+		assertTrue(m.hasVisited(hosts.get(1)));
+		assertFalse(m.hasVisited(hosts.get(2)));
+		assertFalse(m.hasVisited(hosts.get(65))); // same bit as host 1
+		assertFalse(m.hasVisited(hosts.get(99)));
+		assertTrue(replicate.hasVisited(hosts.get(2)));
+		assertFalse(replicate.hasVisited(hosts.get(1)));
+	}
+
 
 }
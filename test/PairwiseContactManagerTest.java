@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import input.EventQueue;
+import interfaces.ConnectivityGrid;
+import interfaces.SimpleBroadcastInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import routing.PassiveRouter;
+import core.Connection;
+import core.Coord;
+import core.DTNHost;
+import core.ModuleCommunicationBus;
+import core.NetworkInterface;
+import core.SimClock;
+import core.UpdateListener;
+import core.World;
+
+/**
+ * Tests for the PairwiseContactManager (through the World)
+ */
+public class PairwiseContactManagerTest extends TestCase {
+	private static final String IFACE_NS = "pairwiseInterface";
+	private static final double RANGE = 10;
+	private static final int WORLD_SIZE = 100;
+
+	private TestSettings ts;
+	private List<DTNHost> hosts;
+	private World world;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.reset();
+		ts = new TestSettings();
+		ts.putSetting(IFACE_NS + "." + NetworkInterface.TRANSMIT_RANGE_S,
+				"" + RANGE);
+		ts.putSetting(IFACE_NS + "." + NetworkInterface.TRANSMIT_SPEED_S, "1");
+		ts.putSetting(World.SETTINGS_NS + "." + World.PAIRWISE_CONNECTIVITY_S,
+				"true");
+		ConnectivityGrid.reset();
+
+		this.hosts = new ArrayList<DTNHost>();
+		Random rng = new Random(1);
+		for (int i=0; i<100; i++) {
+			NetworkInterface ni = new SimpleBroadcastInterface(
+					new TestSettings(IFACE_NS));
+			List<NetworkInterface> li = new ArrayList<NetworkInterface>();
+			li.add(ni);
+			Coord loc = new Coord(rng.nextDouble() * WORLD_SIZE,
+					rng.nextDouble() * WORLD_SIZE);
+			hosts.add(new DTNHost(null, null, "p", li,
+					new ModuleCommunicationBus(), new StationaryMovement(loc),
+					new PassiveRouter(ts)));
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		ts.putSetting(World.SETTINGS_NS + "." + World.PAIRWISE_CONNECTIVITY_S,
+				"false");
+		ts.putSetting(World.SETTINGS_NS + "." + World.SKIP_IDLE_HOSTS_S,
+				"false");
+		super.tearDown();
+	}
+
+	private void createWorld() {
+		this.world = new World(hosts, WORLD_SIZE, WORLD_SIZE, 1.0,
+				new ArrayList<UpdateListener>(), true,
+				new ArrayList<EventQueue>());
+	}
+
+	public void testConnections() {
+		Random rng = new Random(2);
+		createWorld();
+		world.update();
+		assertConnectedWithinRange();
+
+		/* move some of the hosts around and check again */
+		for (int round=0; round<10; round++) {
+			for (int i=0; i<hosts.size(); i += 3) {
+				hosts.get(i).setLocation(new Coord(
+						rng.nextDouble() * WORLD_SIZE,
+						rng.nextDouble() * WORLD_SIZE));
+			}
+			world.update();
+			assertConnectedWithinRange();
+		}
+	}
+
+	public void testIdleHostsSleep() {
+		ts.putSetting(World.SETTINGS_NS + "." + World.SKIP_IDLE_HOSTS_S,
+				"true");
+		createWorld();
+		world.update();
+		assertConnectedWithinRange();
+		for (DTNHost h : hosts) {
+			assertEquals(h.toString(), h.getConnections().isEmpty(),
+					h.isSleeping());
+		}
+
+		/* moving a sleeping host next to another one wakes both up */
+		DTNHost sleeper = null;
+		DTNHost other = null;
+		for (DTNHost h : hosts) {
+			if (h.isSleeping() && sleeper == null) {
+				sleeper = h;
+			}
+			else if (h.isSleeping() && other == null) {
+				other = h;
+			}
+		}
+		Coord c = other.getLocation().clone();
+		c.translate(RANGE / 2, 0);
+		sleeper.setLocation(c);
+		world.update();
+		assertConnectedWithinRange();
+		assertFalse(sleeper.isSleeping());
+		assertFalse(other.isSleeping());
+	}
+
+	/**
+	 * Checks that every pair of hosts within range is connected exactly
+	 * once and no other hosts are connected
+	 */
+	private void assertConnectedWithinRange() {
+		for (int i=0; i<hosts.size(); i++) {
+			DTNHost h1 = hosts.get(i);
+			for (int j=i+1; j<hosts.size(); j++) {
+				DTNHost h2 = hosts.get(j);
+				int nrofCons = 0;
+				for (Connection con : h1.getConnections()) {
+					if (con.getOtherNode(h1) == h2) {
+						nrofCons++;
+					}
+				}
+				boolean inRange =
+					h1.getLocation().distance(h2.getLocation()) <= RANGE;
+				assertEquals(h1 + " - " + h2, inRange ? 1 : 0, nrofCons);
+			}
+		}
+	}
+}
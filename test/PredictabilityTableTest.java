@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import junit.framework.TestCase;
+import routing.PredictabilityTable;
+import core.SimClock;
+
+/**
+ * Tests for the PredictabilityTable
+ */
+public class PredictabilityTableTest extends TestCase {
+	/* for rounding errors */
+	private static final double DELTA = 0.000000001;
+	private static final double GAMMA = 0.98;
+	private static final double UNIT = 30;
+
+	private static final int A = 0;
+	private static final int B = 7;
+	private static final int C = 3;
+	private static final int D = 1000;
+
+	private SimClock clock;
+	private PredictabilityTable table;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.reset();
+		clock = SimClock.getInstance();
+		table = new PredictabilityTable(GAMMA, UNIT);
+	}
+
+	protected void tearDown() throws Exception {
+		SimClock.reset();
+		super.tearDown();
+	}
+
+	public void testAging() {
+		clock.setTime(10);
+		table.put(A, 0.75);
+		assertEquals(0.75, table.get(A), DELTA);
+		assertEquals(0, table.get(B), DELTA);
+		assertFalse(table.contains(B));
+
+		clock.setTime(70);
+		assertEquals(0.75 * GAMMA * GAMMA, table.get(A), DELTA);
+		table.put(B, 0.5);
+
+		clock.setTime(100000);
+		double units = (100000 - 70) / UNIT;
+		assertEquals(0.5 * Math.pow(GAMMA, units), table.get(B), DELTA);
+		assertEquals(0.75 * Math.pow(GAMMA, units + 2), table.get(A),
+				DELTA);
+	}
+
+	public void testGammaChange() {
+		table.put(A, 0.8);
+		clock.setTime(30);
+		assertEquals(0.8 * GAMMA, table.get(A), DELTA);
+
+		/* the new constant applies from the last access on */
+		clock.setTime(40);
+		table.setGamma(0.5);
+		clock.setTime(90);
+		assertEquals(0.8 * GAMMA * 0.5 * 0.5, table.get(A), DELTA);
+	}
+
+	public void testTransitive() {
+		PredictabilityTable other =
+			new PredictabilityTable(GAMMA, UNIT);
+		table.put(C, 0.2);
+		other.put(A, 0.9);
+		other.put(C, 0.6);
+		other.put(D, 0.4);
+
+		clock.setTime(30);
+		table.updateTransitive(other, 0.5, 0.25, A);
+		assertFalse(table.contains(A));
+		double pOld = 0.2 * GAMMA;
+		assertEquals(pOld + (1 - pOld) * 0.5 * 0.6 * GAMMA * 0.25,
+				table.get(C), DELTA);
+		assertEquals(0.5 * 0.4 * GAMMA * 0.25, table.get(D), DELTA);
+	}
+
+	/**
+	 * Tests that the values stay the same when the table changes from a
+	 * hash table to an array and that the transitive updates work with all
+	 * the combinations of the stores
+	 */
+	public void testDenseAndSparse() {
+		/* every fifth index (few enough for the hash table) */
+		for (int i=0; i < 100; i++) {
+			table.put(i * 5, 0.001 * (i + 1));
+		}
+		/* and the rest (moves the values to an array) */
+		for (int i=0; i < 500; i++) {
+			if (i % 5 != 0) {
+				table.put(i, 0.5);
+			}
+		}
+		for (int i=0; i < 100; i++) {
+			assertEquals(0.001 * (i + 1), table.get(i * 5), DELTA);
+		}
+		assertEquals(0.5, table.get(499), DELTA);
+		assertFalse(table.contains(500));
+		table.remove(5);
+		assertFalse(table.contains(5));
+		assertEquals(499, table.size());
+		assertEquals(499, table.getIndexes().length);
+
+		PredictabilityTable few = new PredictabilityTable(GAMMA, UNIT);
+		few.put(6, 0.5);
+		few.put(2000, 0.25);
+		PredictabilityTable many = new PredictabilityTable(GAMMA, UNIT);
+		for (int i=0; i < 50; i++) {
+			many.put(i, 0.01 * i);
+		}
+
+		/* hash table <- array */
+		few.updateTransitive(many, 0.5, 0.25, 0);
+		assertEquals(0.5 + 0.5 * 0.5 * 0.06 * 0.25, few.get(6), DELTA);
+		assertEquals(0.5 * 0.2 * 0.25, few.get(20), DELTA);
+		assertFalse(few.contains(0));
+
+		/* array <- hash table */
+		table.updateTransitive(few, 1.0, 1.0, 0);
+		assertEquals(0.25, table.get(2000), DELTA);
+		assertEquals(0.5 + 0.5 * few.get(6), table.get(6), DELTA);
+		assertEquals(501, table.size()); // 5 and 2000 added
+
+		/* array <- array */
+		many.updateTransitive(table, 1.0, 0.5, 0);
+		assertEquals(0.09 + 0.91 * table.get(9) * 0.5, many.get(9), DELTA);
+		assertEquals(0.125, many.get(2000), DELTA);
+		assertEquals(0, many.get(0), DELTA);
+		assertEquals(501, many.size());
+		assertEquals(501, table.getIndexesWith(many).length);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import routing.MessageRouter;
+import routing.ScheduleRouter;
+import routing.schedule.ScheduleOracle;
+import core.DTNHost;
+import core.Message;
+
+/**
+ * Tests for the ScheduleRouter
+ */
+public class ScheduleRouterTest extends AbstractRouterTest {
+	private static final int MSG_SIZE = 10;
+
+	@Override
+	public void setUp() throws Exception {
+		/* h1 -> h2 -> (carried by h5) -> h4 -> h6 is the earliest route
+		 * from h1 to h6, h1 -> h3 -> h4 -> h6 would be a slower one */
+		File textFile = File.createTempFile("schedule", ".txt");
+		textFile.deleteOnExit();
+		PrintWriter out = new PrintWriter(new FileWriter(textFile));
+		out.println("# start from [via] to duration");
+		out.println("10 1 2 5");
+		out.println("20 2 5 4 10");
+		out.println("12 1 3 100");
+		out.println("150 3 4 10");
+		out.println("40 4 6 5");
+		out.close();
+
+		File oracleFile = File.createTempFile("schedule", ".ser");
+		oracleFile.deleteOnExit();
+		ScheduleOracle.readTextFile(textFile).writeToFile(oracleFile);
+
+		ts.putSetting(MessageRouter.B_SIZE_S, ""+BUFFER_SIZE);
+		ts.putSetting(ScheduleRouter.SCHEDULE_NS + "." +
+				ScheduleRouter.SCHEDULE_FILE_S, oracleFile.getAbsolutePath());
+		setRouterProto(new ScheduleRouter(ts));
+		super.setUp();
+	}
+
+	/**
+	 * Tests that a message follows the planned route (including the carrier
+	 * of the route) and isn't given to the other connected hosts
+	 */
+	public void testPlannedRoute() {
+		assertEquals(1, h1.getAddress());
+		assertEquals(6, h6.getAddress());
+		Message m1 = new Message(h1, h6, msgId1, MSG_SIZE);
+		h1.createNewMessage(m1);
+		checkCreates(1);
+
+		h1.connect(h3);
+		h1.connect(h2);
+		relay(h1, h2);
+
+		/* the next hop is the carrier of the next entry */
+		h2.connect(h3);
+		h2.connect(h5);
+		relay(h2, h5);
+
+		/* the carrier gives the message to the entry's destination */
+		h5.connect(h3);
+		h5.connect(h4);
+		relay(h5, h4);
+
+		h4.connect(h6);
+		updateAllNodes();
+		checkTransferStart(h4, h6, msgId1);
+		clock.advance((1.0 * MSG_SIZE) / TRANSMIT_SPEED);
+		updateAllNodes();
+		checkDelivered(h4, h6, msgId1, false);
+		assertTrue(mc.getLastFirstDelivery());
+
+		/* nobody else got the message */
+		assertFalse(hasMessage(h3));
+		assertFalse(mc.next());
+	}
+
+	/**
+	 * Updates all hosts until the message has been relayed from a host to
+	 * another and checks that nothing else happened
+	 * @param from The host that has the message
+	 * @param to The host that should get it
+	 */
+	private void relay(DTNHost from, DTNHost to) {
+		updateAllNodes();
+		checkTransferStart(from, to, msgId1);
+		clock.advance((1.0 * MSG_SIZE) / TRANSMIT_SPEED);
+		updateAllNodes();
+		checkDelivered(from, to, msgId1, false);
+		assertFalse("MC contained " + mc.getLastType(), mc.next());
+		assertTrue(hasMessage(to));
+	}
+
+	/**
+	 * Returns true if the host has the test message
+	 */
+	private boolean hasMessage(DTNHost host) {
+		for (Message m : host.getMessageCollection()) {
+			if (m.getId().equals(msgId1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -22,6 +22,10 @@ public class TestDTNHost extends DTNHost {
 	public double lastUpdate = 0;
 	public int nrofConnect = 0;
 	public int nrofUpdate = 0;
+	/** number of updates of all test hosts */
+	public static int nrofAllUpdates = 0;
+	/** value of nrofAllUpdates at the time of this host's last update */
+	public int updateIndex = -1;
 	public Message recvMessage;
 	public DTNHost recvFrom;
 	public String abortedId;
@@ -48,6 +52,7 @@ public class TestDTNHost extends DTNHost {
 	public void update(boolean up) {
 		this.nrofUpdate++;
 		this.lastUpdate = SimClock.getTime();
+		this.updateIndex = nrofAllUpdates++;
 	}
 	
 	@Override
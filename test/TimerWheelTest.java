@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.TimerWheel;
+
+/**
+ * Tests for the TimerWheel
+ */
+public class TimerWheelTest extends TestCase {
+	private TimerWheel wheel;
+	/** the time of the current advance */
+	private double now;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		wheel = new TimerWheel();
+		now = 0;
+	}
+
+	public void testExpiryOrder() {
+		TestTimer t1 = schedule(5.5);
+		TestTimer t2 = schedule(0.2);
+		TestTimer t3 = schedule(5.0);
+
+		advance(0.1);
+		assertFalse(t2.hasExpired());
+		advance(0.2);
+		assertEquals(0.2, t2.expiryTime);
+		advance(5.2);
+		assertEquals(5.2, t3.expiryTime);
+		assertFalse(t1.hasExpired());
+		advance(5.5);
+		assertEquals(5.5, t1.expiryTime);
+		assertEquals(0, wheel.size());
+	}
+
+	public void testCancelAndReschedule() {
+		TestTimer t1 = schedule(10);
+		TestTimer t2 = schedule(20);
+		wheel.cancel(t1);
+		assertFalse(t1.isScheduled());
+		wheel.schedule(t2, 5000);
+		assertEquals(1, wheel.size());
+
+		advance(4999);
+		assertFalse(t1.hasExpired());
+		assertFalse(t2.hasExpired());
+		advance(5000);
+		assertEquals(5000.0, t2.expiryTime);
+		assertFalse(t1.hasExpired());
+	}
+
+	/**
+	 * Tests that every timer expires on the first advance that isn't before
+	 * its time, with both small and large steps between the advances
+	 */
+	public void testRandomTimers() {
+		Random rng = new Random(1);
+		List<TestTimer> timers = new ArrayList<TestTimer>();
+		for (int i=0; i<2000; i++) {
+			double time = rng.nextDouble() * (i % 2 == 0 ? 100 : 1000000);
+			timers.add(schedule(time));
+		}
+
+		double last = 0;
+		while (wheel.size() > 0) {
+			double step = rng.nextInt(10) == 0 ? rng.nextDouble() * 50000 :
+				rng.nextDouble() * 2;
+			advance(now + step);
+			for (TestTimer t : timers) {
+				if (t.getTime() <= last) {
+					assertTrue(t.hasExpired());
+				}
+				else if (t.getTime() <= now) {
+					assertEquals(now, t.expiryTime);
+				}
+				else {
+					assertFalse(t.hasExpired());
+				}
+			}
+			last = now;
+		}
+	}
+
+	private TestTimer schedule(double time) {
+		TestTimer t = new TestTimer();
+		wheel.schedule(t, time);
+		return t;
+	}
+
+	private void advance(double time) {
+		now = time;
+		wheel.advance(time);
+	}
+
+	private class TestTimer extends TimerWheel.Timer {
+		private double expiryTime = -1;
+
+		public boolean hasExpired() {
+			return expiryTime >= 0;
+		}
+
+		@Override
+		protected void expired() {
+			assertFalse("Expired twice", hasExpired());
+			expiryTime = now;
+		}
+	}
+}
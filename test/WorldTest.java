@@ -5,11 +5,18 @@
 package test;
 
 import input.EventQueue;
+import input.ExternalEvent;
+import interfaces.ConnectivityGrid;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
+import movement.MovementModel;
+import movement.Path;
+import routing.PassiveRouter;
+import core.Coord;
 import core.DTNHost;
 import core.ModuleCommunicationBus;
 import core.NetworkInterface;
@@ -35,6 +42,7 @@ public class WorldTest extends TestCase {
 	protected void setUp() throws Exception {
 		super.setUp();
 		SimClock.reset();
+		DTNHost.reset();
 				
 		this.eQueues = new ArrayList<EventQueue>();
 		this.testHosts = new ArrayList<TestDTNHost>();
@@ -99,6 +107,117 @@ public class WorldTest extends TestCase {
 	}
 	
 
+	public void testParallelMovement() {
+		List<Coord> serial = runMovementScenario(false, 1);
+		assertEquals(serial, runMovementScenario(true, 1));
+		assertEquals(serial, runMovementScenario(true, 4));
+	}
+
+	/**
+	 * Runs a scenario of randomly moving hosts (without connections) with
+	 * a movement warmup period
+	 * @param parallel Should the hosts be moved in parallel
+	 * @param nrofThreads Number of threads to use
+	 * @return The locations of the hosts after the warmup and after the
+	 * updates
+	 */
+	private List<Coord> runMovementScenario(boolean parallel,
+			int nrofThreads) {
+		final double warmup = 50;
+		SimClock.reset();
+		DTNHost.reset();
+		NetworkInterface.reset();
+		ConnectivityGrid.reset();
+		SimClock.getInstance().setTime(-warmup); // hosts can move in warmup
+		TestSettings ts = new TestSettings();
+		ts.putSetting(World.SETTINGS_NS + "." + World.PARALLEL_MOVEMENT_S, 
+				"" + parallel);
+		ts.putSetting(World.SETTINGS_NS + "." + World.NROF_THREADS_S, 
+				"" + nrofThreads);
+
+		List<DTNHost> hosts = new ArrayList<DTNHost>();
+		for (int i=0; i<40; i++) {
+			hosts.add(new DTNHost(null, null, "m", 
+					new ArrayList<NetworkInterface>(),
+					new ModuleCommunicationBus(), new RandomPointMovement(i),
+					new PassiveRouter(ts)));
+		}
+		World movementWorld = new World(hosts, worldSizeX, worldSizeY,
+				1.0, new ArrayList<UpdateListener>(), false,
+				new ArrayList<EventQueue>());
+		ts.putSetting(World.SETTINGS_NS + "." + World.PARALLEL_MOVEMENT_S, 
+				"false");
+		assertEquals(nrofThreads, movementWorld.getNrofThreads());
+
+		List<Coord> locations = new ArrayList<Coord>();
+		movementWorld.warmupMovementModel(warmup);
+		assertEquals(0.0, SimClock.getTime(), TIME_DELTA);
+		for (int i=0; i<hosts.size(); i++) {
+			Coord c = hosts.get(i).getLocation();
+			assertFalse(c.equals(new RandomPointMovement(i).
+					getInitialLocation()));
+			locations.add(c.clone());
+		}
+		for (int i=0; i<100; i++) {
+			movementWorld.update();
+		}
+		for (DTNHost h : hosts) {
+			locations.add(h.getLocation().clone());
+		}
+		movementWorld.shutdown();
+		return locations;
+	}
+
+	public void testBatchEvents() {
+		final TestDTNHost touched = testHosts.get(7);
+		/* three events at the same time that look up the same host */
+		final List<ExternalEvent> events = new ArrayList<ExternalEvent>();
+		for (int i=0; i<3; i++) {
+			events.add(new ExternalEvent(0.05) {
+				public void processEvent(World world) {
+					assertSame(touched,
+							world.getNodeByAddress(touched.getAddress()));
+				}
+			});
+		}
+		/* and a later event that checks the order of the updates */
+		events.add(new ExternalEvent(0.07) {
+			public void processEvent(World world) {
+				for (TestDTNHost h : testHosts) {
+					if (h != touched) {
+						assertTrue(touched.updateIndex < h.updateIndex);
+					}
+				}
+			}
+		});
+		eQueues.add(new EventQueue() {
+			public ExternalEvent nextEvent() {
+				return events.remove(0);
+			}
+			public double nextEventsTime() {
+				return events.isEmpty() ? Double.MAX_VALUE :
+					events.get(0).getTime();
+			}
+		});
+
+		TestSettings ts = new TestSettings();
+		ts.putSetting(World.SETTINGS_NS + "." + World.BATCH_EVENTS_S, "true");
+		ts.putSetting(World.SETTINGS_NS + "." + 
+				World.RANDOMIZE_UPDATES_S, "false");
+		TestScenario scen = new TestScenario();
+		World batchWorld = new World(scen.getHosts(), 
+				scen.getWorldSizeX(), scen.getWorldSizeY(),
+				scen.getUpdateInterval(), scen.getUpdateListeners(), 
+				scen.simulateConnections(), scen.getExternalEvents());
+		ts.putSetting(World.SETTINGS_NS + "." + World.BATCH_EVENTS_S, "false");
+		ts.putSetting(World.SETTINGS_NS + "." + 
+				World.RANDOMIZE_UPDATES_S, "true");
+
+		batchWorld.update();
+		assertTrue(events.isEmpty());
+		assertNrofUpdates(3); // one update per batch and one for the tick
+	}
+
 	/** Dummy scenario for providing test values for the World */ 
 	private class TestScenario extends core.SimScenario {
 		public TestScenario() {	}
@@ -142,4 +261,63 @@ public class WorldTest extends TestCase {
 			this.hosts = new ArrayList<DTNHost>();
 		}
 	}
+
+	/**
+	 * Movement model that moves between random points (with a short step
+	 * after each point) with a random generator of its own (seeded by the
+	 * given seed)
+	 */
+	private class RandomPointMovement extends MovementModel {
+		private int seed;
+		private Random rng;
+		private Coord lastWaypoint;
+
+		public RandomPointMovement(int seed) {
+			this.seed = seed;
+			this.rng = new Random(seed);
+			this.lastWaypoint = randomCoord();
+		}
+
+		private Coord randomCoord() {
+			return new Coord(rng.nextDouble() * worldSizeX,
+					rng.nextDouble() * worldSizeY);
+		}
+
+		@Override
+		public Coord getInitialLocation() {
+			return lastWaypoint.clone();
+		}
+
+		@Override
+		public boolean isActive() {
+			return true;
+		}
+
+		@Override
+		public Path getPath() {
+			Path p = new Path(1 + rng.nextDouble() * 2);
+			p.addWaypoint(lastWaypoint.clone());
+			for (int i=0, n=1+rng.nextInt(3); i<n; i++) {
+				this.lastWaypoint = randomCoord();
+				p.addWaypoint(lastWaypoint.clone());
+				/* a short step so that some moves pass several waypoints */
+				double d = rng.nextDouble();
+				this.lastWaypoint = lastWaypoint.clone();
+				lastWaypoint.translate(lastWaypoint.getX() < worldSizeX / 2 ?
+						d : -d, 0);
+				p.addWaypoint(lastWaypoint.clone());
+			}
+			return p;
+		}
+
+		@Override
+		public double nextPathAvailable() {
+			return SimClock.getTime();
+		}
+
+		@Override
+		public RandomPointMovement replicate() {
+			return new RandomPointMovement(seed);
+		}
+	}
 }
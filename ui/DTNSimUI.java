@@ -130,6 +130,7 @@ public abstract class DTNSimUI {
 		for (Report r : this.reports) {
 			r.done();
 		}
+		this.world.shutdown();
 	}
 	
 	/**